@@ -15,20 +15,26 @@
  */
 package nz.fiore.vertx.ext.jpa;
 
+import io.reactivex.Flowable;
 import io.reactivex.Single;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLClient;
 import io.vertx.ext.sql.UpdateResult;
 import nz.fiore.vertx.ext.jpa.impl.JPAClientImpl;
+import nz.fiore.vertx.ext.jpa.sql.BatchResult;
+import nz.fiore.vertx.ext.jpa.sql.FindAllResult;
 import nz.fiore.vertx.ext.jpa.sql.JPAConnection;
+import nz.fiore.vertx.ext.jpa.sql.JPAScript;
 import nz.fiore.vertx.ext.jpa.util.RestrinctionHandler;
 
 import javax.sql.DataSource;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -42,6 +48,11 @@ public interface JPAClient extends SQLClient
     */
    String DEFAULT_PROVIDER_CLASS = "io.vertx.ext.jdbc.spi.impl.C3P0DataSourceProvider";
 
+   /**
+    * The native lock-free pool, an alternative to C3P0
+    */
+   String NATIVE_PROVIDER_CLASS = "nz.fiore.vertx.ext.jpa.impl.pool.JPADataSourceProvider";
+
    /**
     * The name of the default data source
     */
@@ -123,6 +134,50 @@ public interface JPAClient extends SQLClient
       return new JPAClientImpl(vertx.getDelegate(), config, DEFAULT_DS_NAME);
    }
 
+   /**
+    * Like {@link #createShared(io.vertx.core.Vertx, JsonObject, String)} but the data source is built on a worker
+    * and the handler is called once <code>min_pool_size</code> connections are open and valid, so the first
+    * requests do not wait for the pool to fill
+    *
+    * @param vertx          the Vert.x instance
+    * @param config         the configuration
+    * @param dataSourceName the data source name
+    * @param handler        called with the client once the pool is warm
+    */
+   static void createShared(Vertx vertx, JsonObject config, String dataSourceName,
+            Handler<AsyncResult<JPAClient>> handler)
+   {
+      JPAClientImpl.createShared(vertx, config, dataSourceName, handler);
+   }
+
+   /**
+    * Like {@link #createShared(io.vertx.core.Vertx, JsonObject, String, Handler)} but with the default data source
+    * name
+    *
+    * @param vertx   the Vert.x instance
+    * @param config  the configuration
+    * @param handler called with the client once the pool is warm
+    */
+   static void createShared(Vertx vertx, JsonObject config, Handler<AsyncResult<JPAClient>> handler)
+   {
+      JPAClientImpl.createShared(vertx, config, DEFAULT_DS_NAME, handler);
+   }
+
+   /**
+    * Like {@link #createShared(io.vertx.core.Vertx, JsonObject, String, Handler)}
+    *
+    * @param vertx          the Vert.x instance
+    * @param config         the configuration
+    * @param dataSourceName the data source name
+    * @return the client, once the pool is warm
+    */
+   static Single<JPAClient> rxCreateShared(io.vertx.reactivex.core.Vertx vertx, JsonObject config,
+            String dataSourceName)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<JPAClient>(
+               handler -> JPAClientImpl.createShared(vertx.getDelegate(), config, dataSourceName, handler));
+   }
+
    /**
     * Create a client using a pre-existing data source
     *
@@ -201,6 +256,61 @@ public interface JPAClient extends SQLClient
       return this;
    }
 
+   /**
+    * Executes the given prepared statements which may be <code>INSERT</code>
+    * statements with the given rows sent with JDBC batches, this method acquires a connection from the the pool and
+    * executes the SQL statements and returns it back after the execution.
+    *
+    * @param table   the table to execute.
+    * @param rows    the rows to insert, the parameters name with values of each statement.
+    * @param handler the handler which is called once the operation completes.
+    * @see java.sql.Statement#executeBatch()
+    */
+
+   default JPAClient persistBatch(String table, List<JsonObject> rows, Handler<AsyncResult<BatchResult>> handler)
+   {
+      getJPAConnection(getJPAConnection -> {
+         if (getJPAConnection.failed())
+         {
+            handler.handle(Future.failedFuture(getJPAConnection.cause()));
+         }
+         else
+         {
+            final JPAConnection conn = getJPAConnection.result();
+
+            conn.persistBatch(table, rows, query -> {
+               if (query.failed())
+               {
+                  conn.close(close -> {
+                     if (close.failed())
+                     {
+                        handler.handle(Future.failedFuture(close.cause()));
+                     }
+                     else
+                     {
+                        handler.handle(Future.failedFuture(query.cause()));
+                     }
+                  });
+               }
+               else
+               {
+                  conn.close(close -> {
+                     if (close.failed())
+                     {
+                        handler.handle(Future.failedFuture(close.cause()));
+                     }
+                     else
+                     {
+                        handler.handle(Future.succeededFuture(query.result()));
+                     }
+                  });
+               }
+            });
+         }
+      });
+      return this;
+   }
+
    /**
     * Executes the given prepared statement which may be an <code>SELECT</code> WITH NAMED PARAMETERS
     * statement with the given parameters, this method acquires a connection from the the pool and executes the SQL
@@ -258,9 +368,9 @@ public interface JPAClient extends SQLClient
    }
 
    /**
-    * Executes the given prepared statement which may be an <code>SELECT</code> WITH NAMED PARAMETERS GENERATED generated dynamically
-    * statement with the given parameters, this method acquires a connection from the the pool and executes the SQL
-    * statement and returns it back after the execution.
+    * Executes the given prepared statement which may be an <code>SELECT</code> WITH NAMED PARAMETERS GENERATED
+    * generated dynamically statement with the given parameters, this method acquires a connection from the the pool
+    * and executes the SQL statement and returns it back after the execution.
     *
     * @param table               the table to execute.
     * @param params              these are the parameters name with values to fill the statement.
@@ -373,6 +483,63 @@ public interface JPAClient extends SQLClient
       return this;
    }
 
+   /**
+    * Executes the given prepared statements which may be <code>UPDATE</code>
+    * statements with the given parameters sent with JDBC batches, this method acquires a connection from the the pool
+    * and executes the SQL statements and returns it back after the execution.
+    *
+    * @param table   the table to execute.
+    * @param params  the parameters to fill each statement.
+    * @param keys    name and value of table key of each statement, in the same order of params.
+    * @param handler the handler which is called once the operation completes.
+    * @see java.sql.Statement#executeBatch()
+    */
+
+   default JPAClient mergeBatch(String table, List<JsonObject> params, List<JsonObject> keys,
+            Handler<AsyncResult<BatchResult>> handler)
+   {
+      getJPAConnection(getJPAConnection -> {
+         if (getJPAConnection.failed())
+         {
+            handler.handle(Future.failedFuture(getJPAConnection.cause()));
+         }
+         else
+         {
+            final JPAConnection conn = getJPAConnection.result();
+
+            conn.mergeBatch(table, params, keys, query -> {
+               if (query.failed())
+               {
+                  conn.close(close -> {
+                     if (close.failed())
+                     {
+                        handler.handle(Future.failedFuture(close.cause()));
+                     }
+                     else
+                     {
+                        handler.handle(Future.failedFuture(query.cause()));
+                     }
+                  });
+               }
+               else
+               {
+                  conn.close(close -> {
+                     if (close.failed())
+                     {
+                        handler.handle(Future.failedFuture(close.cause()));
+                     }
+                     else
+                     {
+                        handler.handle(Future.succeededFuture(query.result()));
+                     }
+                  });
+               }
+            });
+         }
+      });
+      return this;
+   }
+
    /**
     * Executes the given prepared statement which may be an <code>UPDATE</code>
     * statement with the given parameters, this method acquires a connection from the the pool and executes the SQL
@@ -429,6 +596,80 @@ public interface JPAClient extends SQLClient
       return this;
    }
 
+   /**
+    * Executes the given prepared statements which may be <code>DELETE ... WHERE key IN (...)</code>
+    * statements with the given keys, this method acquires a connection from the the pool and executes all the SQL
+    * statements on it and returns it back after the execution.
+    *
+    * @param table         the table to execute.
+    * @param keyColumn     the name of table key.
+    * @param keys          the values of table key of the rows to delete.
+    * @param inTransaction true to run all the statements in one transaction.
+    * @param handler       the handler which is called once the operation completes, with the total rows deleted.
+    * @see java.sql.Statement#executeUpdate(String)
+    * @see java.sql.PreparedStatement#executeUpdate(String)
+    */
+
+   default JPAClient deleteAll(String table, String keyColumn, JsonArray keys, boolean inTransaction,
+            Handler<AsyncResult<UpdateResult>> handler)
+   {
+      getJPAConnection(getJPAConnection -> {
+         if (getJPAConnection.failed())
+         {
+            handler.handle(Future.failedFuture(getJPAConnection.cause()));
+         }
+         else
+         {
+            final JPAConnection conn = getJPAConnection.result();
+
+            conn.deleteAll(table, keyColumn, keys, inTransaction, query -> {
+               if (query.failed())
+               {
+                  conn.close(close -> {
+                     if (close.failed())
+                     {
+                        handler.handle(Future.failedFuture(close.cause()));
+                     }
+                     else
+                     {
+                        handler.handle(Future.failedFuture(query.cause()));
+                     }
+                  });
+               }
+               else
+               {
+                  conn.close(close -> {
+                     if (close.failed())
+                     {
+                        handler.handle(Future.failedFuture(close.cause()));
+                     }
+                     else
+                     {
+                        handler.handle(Future.succeededFuture(query.result()));
+                     }
+                  });
+               }
+            });
+         }
+      });
+      return this;
+   }
+
+   /**
+    * Like {@link #deleteAll(String, String, JsonArray, boolean, Handler)} without opening a transaction.
+    *
+    * @param table     the table to execute.
+    * @param keyColumn the name of table key.
+    * @param keys      the values of table key of the rows to delete.
+    * @param handler   the handler which is called once the operation completes, with the total rows deleted.
+    */
+
+   default JPAClient deleteAll(String table, String keyColumn, JsonArray keys,
+            Handler<AsyncResult<UpdateResult>> handler)
+   {
+      return deleteAll(table, keyColumn, keys, false, handler);
+   }
+
    /**
     * Executes the given prepared statement which may be an <code>CREATE TABLE</code>
     * statement with the given parameters, this method acquires a connection from the the pool and executes the SQL
@@ -539,6 +780,124 @@ public interface JPAClient extends SQLClient
       return this;
    }
 
+   /**
+    * Executes the given prepared statements which may be <code>SELECT * FROM TABLE WHERE key IN (...)</code>
+    * statements with the given keys, this method acquires a connection from the the pool and executes all the SQL
+    * statements on it and returns it back after the execution.
+    *
+    * @param table     the table to execute.
+    * @param keyColumn the name of table key.
+    * @param keys      the values of table key of the rows to find.
+    * @param handler   the handler which is called once the operation completes.
+    * @see java.sql.PreparedStatement#executeQuery()
+    */
+
+   default JPAClient findAll(String table, String keyColumn, JsonArray keys,
+            Handler<AsyncResult<FindAllResult>> handler)
+   {
+      getJPAConnection(getJPAConnection -> {
+         if (getJPAConnection.failed())
+         {
+            handler.handle(Future.failedFuture(getJPAConnection.cause()));
+         }
+         else
+         {
+            final JPAConnection conn = getJPAConnection.result();
+
+            conn.findAll(table, keyColumn, keys, query -> {
+               if (query.failed())
+               {
+                  conn.close(close -> {
+                     if (close.failed())
+                     {
+                        handler.handle(Future.failedFuture(close.cause()));
+                     }
+                     else
+                     {
+                        handler.handle(Future.failedFuture(query.cause()));
+                     }
+                  });
+               }
+               else
+               {
+                  conn.close(close -> {
+                     if (close.failed())
+                     {
+                        handler.handle(Future.failedFuture(close.cause()));
+                     }
+                     else
+                     {
+                        handler.handle(Future.succeededFuture(query.result()));
+                     }
+                  });
+               }
+            });
+         }
+      });
+      return this;
+   }
+
+   /**
+    * Runs the script in a transaction, this method acquires a connection from the the pool, runs all the operations
+    * of the script on it as one blocking task, commits them or rolls them back if the script fails, and returns the
+    * connection back after the execution.
+    *
+    * @param script  the operations to run, each one can use the results of the previous ones.
+    * @param handler the handler which is called with the result of the script once committed.
+    */
+
+   default <T> JPAClient inTransaction(JPAScript<T> script, Handler<AsyncResult<T>> handler)
+   {
+      getJPAConnection(getJPAConnection -> {
+         if (getJPAConnection.failed())
+         {
+            handler.handle(Future.failedFuture(getJPAConnection.cause()));
+         }
+         else
+         {
+            final JPAConnection conn = getJPAConnection.result();
+
+            conn.inTransaction(script, query -> {
+               conn.close(close -> {
+                  if (query.failed())
+                  {
+                     handler.handle(Future.failedFuture(query.cause()));
+                  }
+                  else if (close.failed())
+                  {
+                     handler.handle(Future.failedFuture(close.cause()));
+                  }
+                  else
+                  {
+                     handler.handle(Future.succeededFuture(query.result()));
+                  }
+               });
+            });
+         }
+      });
+      return this;
+   }
+
+   /**
+    * Adds the delta to the column of the row with the given key, as
+    * <code>UPDATE table SET column = column + delta WHERE key</code>. The deltas are accumulated in memory by table,
+    * key and column and their sums are written every <code>counter_flush_period</code> milliseconds (1000 by
+    * default, 0 to write each increment at once) as batched updates; the deltas not yet written are written when
+    * the client is closed.
+    *
+    * @param table  the table to update.
+    * @param key    these are the key names with values of the row to update.
+    * @param column the column to increment.
+    * @param delta  the value to add, negative to decrement.
+    */
+   JPAClient increment(String table, JsonObject key, String column, long delta);
+
+   /**
+    * Forgets the column types read from the table metadata when <code>schema_binding</code> is enabled, to be
+    * called after the columns of a table were changed: the types are read again at the next use.
+    */
+   JPAClient clearTableMetadata();
+
    /**
     * Returns a connection that can be used to perform SQL operations on. It's important to remember
     * to close the connection when you are done, so it is returned to the pool.
@@ -567,6 +926,21 @@ public interface JPAClient extends SQLClient
       });
    }
 
+   /**
+    * Executes the given <code>SELECT</code> statement with the named parameters and emits the rows as they are
+    * requested, reading them from the database one fetch size at a time. The connection is returned to the pool
+    * on completion, error or cancellation.
+    *
+    * @param sql    the query to execute.
+    * @param params these are the parameters name with values to fill the statement.
+    * @return the rows
+    */
+   default Flowable<JsonObject> rxQueryFlowable(String sql, JsonObject params)
+   {
+      return rxGetConnection()
+               .flatMapPublisher(conn -> conn.rxQueryFlowable(sql, params).doFinally(conn::close));
+   }
+
    default Single<UpdateResult> rxDelete(String table, JsonObject key)
    {
       return new io.vertx.reactivex.core.impl.AsyncResultSingle<UpdateResult>(handler -> {
@@ -574,6 +948,13 @@ public interface JPAClient extends SQLClient
       });
    }
 
+   default Single<UpdateResult> rxDeleteAll(String table, String keyColumn, JsonArray keys, boolean inTransaction)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<UpdateResult>(handler -> {
+         deleteAll(table, keyColumn, keys, inTransaction, handler);
+      });
+   }
+
    default Single<UpdateResult> rxMerge(String table, JsonObject params, JsonObject key)
    {
       return new io.vertx.reactivex.core.impl.AsyncResultSingle<UpdateResult>(handler -> {
@@ -581,6 +962,13 @@ public interface JPAClient extends SQLClient
       });
    }
 
+   default Single<BatchResult> rxMergeBatch(String table, List<JsonObject> params, List<JsonObject> keys)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<BatchResult>(handler -> {
+         mergeBatch(table, params, keys, handler);
+      });
+   }
+
    default Single<UpdateResult> rxPersist(String table, JsonObject params)
    {
       return new io.vertx.reactivex.core.impl.AsyncResultSingle<UpdateResult>(handler -> {
@@ -588,6 +976,13 @@ public interface JPAClient extends SQLClient
       });
    }
 
+   default Single<BatchResult> rxPersistBatch(String table, List<JsonObject> rows)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<BatchResult>(handler -> {
+         persistBatch(table, rows, handler);
+      });
+   }
+
    default Single<Void> rxCreate(String sql)
    {
       return new io.vertx.reactivex.core.impl.AsyncResultSingle<Void>(handler -> {
@@ -601,4 +996,18 @@ public interface JPAClient extends SQLClient
          find(table, key, handler);
       });
    }
+
+   default Single<FindAllResult> rxFindAll(String table, String keyColumn, JsonArray keys)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<FindAllResult>(handler -> {
+         findAll(table, keyColumn, keys, handler);
+      });
+   }
+
+   default <T> Single<T> rxInTransaction(JPAScript<T> script)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<T>(handler -> {
+         inTransaction(script, handler);
+      });
+   }
 }
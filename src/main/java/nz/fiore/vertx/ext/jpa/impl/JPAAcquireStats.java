@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the connection acquisitions of a data source: the requests waiting for an acquisition thread, the
+ * time spent in the queue and until the connection is obtained, the requests rejected because the queue was
+ * full, and how long the connections are held by the statements until closed. Shared by all the clients of the
+ * same data source.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPAAcquireStats
+{
+
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder acquired = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder queueWaitNanos = new LongAdder();
+  private final LongAdder acquireWaitNanos = new LongAdder();
+  private final LongAdder released = new LongAdder();
+  private final LongAdder holdNanos = new LongAdder();
+
+  void submitted()
+  {
+    submitted.increment();
+    int depth = queueDepth.incrementAndGet();
+    int max;
+    while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth))
+    {
+      // retry
+    }
+  }
+
+  void dequeued(long queueWait)
+  {
+    queueDepth.decrementAndGet();
+    queueWaitNanos.add(queueWait);
+  }
+
+  void acquired(long acquireWait)
+  {
+    acquired.increment();
+    acquireWaitNanos.add(acquireWait);
+  }
+
+  void failed()
+  {
+    failed.increment();
+  }
+
+  void rejected()
+  {
+    queueDepth.decrementAndGet();
+    rejected.increment();
+  }
+
+  void released(long hold)
+  {
+    released.increment();
+    holdNanos.add(hold);
+  }
+
+  /**
+   * The requests waiting for an acquisition thread now
+   */
+  public int queueDepth()
+  {
+    return queueDepth.get();
+  }
+
+  public int maxQueueDepth()
+  {
+    return maxQueueDepth.get();
+  }
+
+  public long submittedCount()
+  {
+    return submitted.sum();
+  }
+
+  public long acquiredCount()
+  {
+    return acquired.sum();
+  }
+
+  public long failedCount()
+  {
+    return failed.sum();
+  }
+
+  public long rejectedCount()
+  {
+    return rejected.sum();
+  }
+
+  /**
+   * The total time spent waiting for an acquisition thread, in nanoseconds
+   */
+  public long queueWaitNanos()
+  {
+    return queueWaitNanos.sum();
+  }
+
+  /**
+   * The total time from the request to the connection obtained, in nanoseconds
+   */
+  public long acquireWaitNanos()
+  {
+    return acquireWaitNanos.sum();
+  }
+
+  /**
+   * The mean time from the request to the connection obtained, in milliseconds
+   */
+  public double meanAcquireWaitMillis()
+  {
+    long count = acquired.sum();
+    return count == 0 ? 0d : acquireWaitNanos.sum() / 1000000d / count;
+  }
+
+  public long releasedCount()
+  {
+    return released.sum();
+  }
+
+  /**
+   * The total time the connections were held, from obtained to closed, in nanoseconds
+   */
+  public long holdNanos()
+  {
+    return holdNanos.sum();
+  }
+
+  /**
+   * The mean time a connection is held, from obtained to closed, in milliseconds
+   */
+  public double meanHoldMillis()
+  {
+    long count = released.sum();
+    return count == 0 ? 0d : holdNanos.sum() / 1000000d / count;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "queueDepth: " + queueDepth() + ", maxQueueDepth: " + maxQueueDepth() + ", submitted: " +
+      submittedCount() + ", acquired: " + acquiredCount() + ", failed: " + failedCount() + ", rejected: " +
+      rejectedCount() + ", meanAcquireWaitMillis: " + meanAcquireWaitMillis() + ", released: " + releasedCount() +
+      ", meanHoldMillis: " + meanHoldMillis();
+  }
+}
@@ -21,18 +21,41 @@ import io.vertx.core.impl.ContextInternal;
 import io.vertx.core.impl.VertxInternal;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 import io.vertx.core.shareddata.LocalMap;
 import io.vertx.core.shareddata.Shareable;
 import io.vertx.core.spi.metrics.PoolMetrics;
 import io.vertx.core.spi.metrics.VertxMetrics;
-import io.vertx.ext.jdbc.impl.actions.AbstractJDBCAction;
 import io.vertx.ext.jdbc.impl.actions.JDBCQuery;
 import io.vertx.ext.jdbc.impl.actions.JDBCStatementHelper;
 import io.vertx.ext.jdbc.impl.actions.JDBCUpdate;
 import io.vertx.ext.jdbc.spi.DataSourceProvider;
 import nz.fiore.vertx.ext.jpa.JPAClient;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPACreate;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPADelete;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPADeleteAll;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAFind;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAFindAll;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAHandlerQuery;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAMerge;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAMergeBatch;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPANamedQuery;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAPersist;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAPersistBatch;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAQuery;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPARowDecoder;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPASqlCache;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAStatementCache;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPASqlTemplate;
 import nz.fiore.vertx.ext.jpa.impl.actions.JPAStatementHelper;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPATableMetadata;
+import nz.fiore.vertx.ext.jpa.impl.pool.JPAPooledDataSource;
+import nz.fiore.vertx.ext.jpa.sql.BatchResult;
+import nz.fiore.vertx.ext.jpa.sql.FindAllResult;
 import nz.fiore.vertx.ext.jpa.sql.JPAConnection;
+import nz.fiore.vertx.ext.jpa.sql.JPAScript;
+import nz.fiore.vertx.ext.jpa.util.RestrinctionHandler;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
 import io.vertx.ext.sql.UpdateResult;
@@ -40,32 +63,50 @@ import io.vertx.ext.sql.UpdateResult;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
  */
 public class JPAClientImpl implements JPAClient
 {
+  private static final Logger log = LoggerFactory.getLogger(JPAClientImpl.class);
   private static final String DS_LOCAL_MAP_NAME = "__vertx.JPAClientImpl.datasources";
+  private static final int DEFAULT_ACQUIRE_QUEUE_SIZE = 10000;
+  private static final int WARM_UP_VALIDATION_TIMEOUT = 5;
 
   private final Vertx vertx;
   private final JPAClientImpl.DataSourceHolder holder;
 
   // We use this executor to execute getConnection requests
   private final ExecutorService exec;
+  private final JPAAcquireStats acquireStats;
   private final DataSource ds;
-  private final PoolMetrics metrics;
+  private final PoolMetrics<Object> metrics;
   // Helper that can do param and result transforms, its behavior is defined by the
   // initial config and immutable after that moment. It is safe to reuse since there
   // is no state involved
   private final JDBCStatementHelper jdbchelper;
   private final JPAStatementHelper helper;
+  // Size of the prepared statements cache of each connection, 0 to disable it
+  private final int statementCacheSize;
+  private final JPAStatementCache.Stats statementCacheStats = new JPAStatementCache.Stats();
+  // Coalesces the concurrent persists of the tables in persist_batching, null if none
+  private final JPAPersistBatcher persistBatcher;
+  // Keeps the merges of the tables in write_behind in memory, null if none
+  private final JPAWriteBehind writeBehind;
+  // Accumulates the deltas of increment, created on the first one
+  private volatile JPACounters counters;
 
   /*
   Create client with specific datasource
@@ -77,10 +118,14 @@ public class JPAClientImpl implements JPAClient
     this.vertx = vertx;
     this.holder = new JPAClientImpl.DataSourceHolder((VertxInternal) vertx, dataSource);
     this.exec = holder.exec();
+    this.acquireStats = holder.acquireStats;
     this.ds = dataSource;
     this.metrics = holder.metrics;
     this.jdbchelper = new JDBCStatementHelper();
     this.helper = new JPAStatementHelper();
+    this.statementCacheSize = 0;
+    this.persistBatcher = null;
+    this.writeBehind = null;
     setupCloseHook();
   }
 
@@ -95,39 +140,243 @@ public class JPAClientImpl implements JPAClient
     this.vertx = vertx;
     this.holder = lookupHolder(datasourceName, config);
     this.exec = holder.exec();
+    this.acquireStats = holder.acquireStats;
     this.ds = holder.ds();
     this.metrics = holder.metrics;
     this.jdbchelper = new JDBCStatementHelper(config);
     this.helper = new JPAStatementHelper(config);
+    this.statementCacheSize = config.getInteger("statement_cache_size", 0);
+    this.persistBatcher = JPAPersistBatcher.create(vertx, config, this::persistCoalesced);
+    this.writeBehind = JPAWriteBehind.create(vertx, helper, config, this::flushWriteBehind);
     setupCloseHook();
   }
 
+  /*
+  Create client with shared datasource on a worker, the handler is called once min_pool_size connections are open
+  and valid
+   */
+  public static void createShared(Vertx vertx, JsonObject config, String datasourceName,
+    Handler<AsyncResult<JPAClient>> handler)
+  {
+    Objects.requireNonNull(handler);
+    vertx.<JPAClient>executeBlocking(future -> {
+      JPAClientImpl client = new JPAClientImpl(vertx, config, datasourceName);
+      try
+      {
+        client.warmUp(Math.min(config.getInteger("min_pool_size", 0),
+          config.getInteger("max_pool_size", Integer.MAX_VALUE)));
+        future.complete(client);
+      }
+      catch (SQLException | RuntimeException e)
+      {
+        client.close();
+        future.fail(e);
+      }
+    }, false, handler);
+  }
+
+  /*
+  borrows the connections all together, so the pool has to open them, and returns them once validated
+   */
+  private void warmUp(int size) throws SQLException
+  {
+    List<Connection> connections = new ArrayList<>(size);
+    try
+    {
+      for (int i = 0; i < size; i++)
+      {
+        Connection conn = ds.getConnection();
+        connections.add(conn);
+        if (!conn.isValid(WARM_UP_VALIDATION_TIMEOUT))
+        {
+          throw new SQLException("Connection " + (i + 1) + " of " + size + " is not valid");
+        }
+      }
+    }
+    finally
+    {
+      for (Connection conn : connections)
+      {
+        try
+        {
+          conn.close();
+        }
+        catch (SQLException e)
+        {
+          // ignore close error
+        }
+      }
+    }
+  }
+
   private void setupCloseHook()
   {
     Context ctx = Vertx.currentContext();
     if (ctx != null && ctx.owner() == vertx)
     {
-      ctx.addCloseHook(holder::close);
+      ctx.addCloseHook(this::close);
     }
   }
 
+  /*
+  the rows pending in the write-behind and the deltas of the counters are written before returning
+   */
   @Override
   public void close()
   {
-    holder.close(null);
+    drain();
+    closeDrained(null);
   }
 
   @Override
   public void close(Handler<AsyncResult<Void>> completionHandler)
   {
-    holder.close(completionHandler);
+    if (writeBehind != null || counters != null)
+    {
+      vertx.executeBlocking(future -> {
+        drain();
+        future.complete();
+      }, false, ar -> closeDrained(completionHandler));
+    }
+    else
+    {
+      closeDrained(completionHandler);
+    }
+  }
+
+  private void drain()
+  {
+    if (writeBehind != null)
+    {
+      writeBehind.drain(ds);
+    }
+    JPACounters counters = this.counters;
+    if (counters != null)
+    {
+      counters.drain(ds);
+    }
+  }
+
+  private void closeDrained(Handler<AsyncResult<Void>> completionHandler)
+  {
+    if (persistBatcher != null)
+    {
+      // the rows waiting for their batch are inserted before the data source is closed
+      persistBatcher.close(ar -> holder.close(completionHandler));
+    }
+    else
+    {
+      holder.close(completionHandler);
+    }
+  }
+
+  /*
+  Cache of the sql generated by persist/merge/delete/find, exposes its hit and miss counters
+   */
+  public JPASqlCache<JPASqlTemplate.Shape, JPASqlTemplate> templateCache()
+  {
+    return helper.templates();
+  }
+
+  /*
+  Cache of the named parameters sql already parsed, exposes its hit and miss counters
+   */
+  public JPASqlCache<String, JPANamedQuery> namedQueryCache()
+  {
+    return helper.namedQueries();
+  }
+
+  /*
+  Cache of the column converters of the query results by sql, exposes its hit and miss counters
+   */
+  public JPASqlCache<String, JPARowDecoder> rowDecoderCache()
+  {
+    return helper.rowDecoders();
+  }
+
+  /*
+  Column types of the tables used by persist/merge/delete/find
+   */
+  public JPATableMetadata tableMetadata()
+  {
+    return helper.tables();
+  }
+
+  /*
+  Counters of the persists coalesced in batches, null if persist_batching is not configured
+   */
+  public JPAPersistBatcher persistBatcher()
+  {
+    return persistBatcher;
+  }
+
+  /*
+  Counters, flush lag and pending rows of the write-behind, null if write_behind is not configured
+   */
+  public JPAWriteBehind writeBehind()
+  {
+    return writeBehind;
+  }
+
+  /*
+  The deltas of increment pending and the counters of their flushes
+   */
+  public JPACounters counters()
+  {
+    JPACounters counters = this.counters;
+    if (counters == null)
+    {
+      synchronized (this)
+      {
+        counters = this.counters;
+        if (counters == null)
+        {
+          counters = new JPACounters(vertx, helper, holder.config == null ? new JsonObject() : holder.config,
+            (ctx, write, handler) -> executeDirect(ctx, write::write, handler));
+          this.counters = counters;
+        }
+      }
+    }
+    return counters;
+  }
+
+  /*
+  Hit and miss counters of the prepared statements caches of all the connections
+   */
+  public JPAStatementCache.Stats statementCacheStats()
+  {
+    return statementCacheStats;
+  }
+
+  /*
+  The data source of the client, a JPAPooledDataSource with the native provider
+   */
+  public DataSource dataSource()
+  {
+    return ds;
+  }
+
+  /*
+  The adaptive sizing of the pool, null unless adaptive_pool_sizing is set with the native provider
+   */
+  public JPAPoolSizer poolSizer()
+  {
+    return holder.sizer;
+  }
+
+  /*
+  Queue depth, wait times and rejections of the connection acquisitions of the data source
+   */
+  public JPAAcquireStats acquireStats()
+  {
+    return acquireStats;
   }
 
   @Override
   public JPAClientImpl update(String sql, Handler<AsyncResult<UpdateResult>> resultHandler)
   {
     ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
-    executeDirect(ctx, new JDBCUpdate(vertx, jdbchelper, null, ctx, sql, null), resultHandler);
+    executeDirect(ctx, new JDBCUpdate(vertx, jdbchelper, null, ctx, sql, null)::execute, resultHandler);
     return this;
   }
 
@@ -135,7 +384,7 @@ public class JPAClientImpl implements JPAClient
   public JPAClientImpl updateWithParams(String sql, JsonArray in, Handler<AsyncResult<UpdateResult>> resultHandler)
   {
     ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
-    executeDirect(ctx, new JDBCUpdate(vertx, jdbchelper, null, ctx, sql, in), resultHandler);
+    executeDirect(ctx, new JDBCUpdate(vertx, jdbchelper, null, ctx, sql, in)::execute, resultHandler);
     return this;
   }
 
@@ -143,7 +392,7 @@ public class JPAClientImpl implements JPAClient
   public JPAClientImpl query(String sql, Handler<AsyncResult<ResultSet>> resultHandler)
   {
     ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
-    executeDirect(ctx, new JDBCQuery(vertx, jdbchelper, null, ctx, sql, null), resultHandler);
+    executeDirect(ctx, new JDBCQuery(vertx, jdbchelper, null, ctx, sql, null)::execute, resultHandler);
     return this;
   }
 
@@ -151,22 +400,225 @@ public class JPAClientImpl implements JPAClient
   public JPAClientImpl queryWithParams(String sql, JsonArray in, Handler<AsyncResult<ResultSet>> resultHandler)
   {
     ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
-    executeDirect(ctx, new JDBCQuery(vertx, jdbchelper, null, ctx, sql, in), resultHandler);
+    executeDirect(ctx, new JDBCQuery(vertx, jdbchelper, null, ctx, sql, in)::execute, resultHandler);
     return this;
   }
 
-  private <T> void executeDirect(Context ctx, AbstractJDBCAction<T> action, Handler<AsyncResult<T>> handler)
+  @Override
+  public JPAClient persist(String table, JsonObject params, Handler<AsyncResult<UpdateResult>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    if (persistBatcher != null && persistBatcher.batched(table))
+    {
+      persistBatcher.persist(ctx, table, params, handler);
+      return this;
+    }
+    executeDirect(ctx, new JPAPersist(vertx, helper, null, ctx, params, table)::execute, handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient persistBatch(String table, List<JsonObject> rows, Handler<AsyncResult<BatchResult>> handler)
   {
-    getConnection(ctx, ar1 -> {
-      Future<T> fut = Future.future();
-      fut.setHandler(ar2 -> vertx.runOnContext(v -> handler.handle(ar2)));
-      if (ar1.succeeded())
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    executeDirect(ctx, new JPAPersistBatch(vertx, helper, null, ctx, table, rows)::execute, handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient query(String sql, JsonObject params, Handler<AsyncResult<ResultSet>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    executeDirect(ctx, new JPAQuery(vertx, helper, null, ctx, params, sql)::execute, handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient query(String table, JsonObject params,
+    RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler, Handler<AsyncResult<ResultSet>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    executeDirect(ctx, new JPAHandlerQuery(vertx, helper, null, ctx, table, params, restictionHandler)::execute,
+      handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient merge(String table, JsonObject params, JsonObject key, Handler<AsyncResult<UpdateResult>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    if (writeBehind != null && writeBehind.writesBehind(table))
+    {
+      writeBehind.merge(ctx, table, params, key, handler);
+      return this;
+    }
+    executeDirect(ctx, new JPAMerge(vertx, helper, null, ctx, params, table, key)::execute, handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient mergeBatch(String table, List<JsonObject> params, List<JsonObject> keys,
+    Handler<AsyncResult<BatchResult>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    executeDirect(ctx, new JPAMergeBatch(vertx, helper, null, ctx, table, params, keys)::execute, handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient delete(String table, JsonObject key, Handler<AsyncResult<UpdateResult>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    executeDirect(ctx, new JPADelete(vertx, helper, null, ctx, table, key)::execute, handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient deleteAll(String table, String keyColumn, JsonArray keys, boolean inTransaction,
+    Handler<AsyncResult<UpdateResult>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    executeDirect(ctx, new JPADeleteAll(vertx, helper, null, ctx, table, keyColumn, keys, inTransaction)::execute,
+      handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient create(String sql, Handler<AsyncResult<Void>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    executeDirect(ctx, new JPACreate(vertx, null, ctx, sql)::execute, handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient find(String table, JsonObject key, Handler<AsyncResult<ResultSet>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    executeDirect(ctx, new JPAFind(vertx, helper, null, ctx, table, key)::execute, handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient findAll(String table, String keyColumn, JsonArray keys,
+    Handler<AsyncResult<FindAllResult>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    executeDirect(ctx, new JPAFindAll(vertx, helper, null, ctx, table, keyColumn, keys)::execute, handler);
+    return this;
+  }
+
+  @Override
+  public JPAClient increment(String table, JsonObject key, String column, long delta)
+  {
+    counters().increment(vertx.getOrCreateContext(), table, key, column, delta);
+    return this;
+  }
+
+  @Override
+  public JPAClient clearTableMetadata()
+  {
+    helper.tables().clear();
+    return this;
+  }
+
+  @Override
+  public <T> JPAClient inTransaction(JPAScript<T> script, Handler<AsyncResult<T>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    executeDirect(ctx, conn -> {
+      // the statements repeated by the script are prepared once
+      JPAStatementCache statements = statementCacheSize > 0 ?
+        new JPAStatementCache(statementCacheSize, statementCacheStats) : null;
+      try
+      {
+        return JPAScriptOperations.inTransaction(conn, script,
+          new JPAScriptOperations(vertx, helper, null, ctx, conn, statements));
+      }
+      finally
+      {
+        if (statements != null)
+        {
+          statements.close();
+        }
+      }
+    }, handler);
+    return this;
+  }
+
+  /*
+  The rows coalesced by the persist batcher are inserted as one batch in one transaction; if it fails each row is
+  inserted in its own transaction, so that only the rows in error fail
+   */
+  private void persistCoalesced(Context ctx, String table, List<JsonObject> rows,
+    Handler<AsyncResult<List<AsyncResult<UpdateResult>>>> handler)
+  {
+    ContextInternal context = (ContextInternal) ctx;
+    executeDirect(ctx, conn -> {
+      JPAScriptOperations ops = new JPAScriptOperations(vertx, helper, null, context, conn, null);
+      List<AsyncResult<UpdateResult>> results = new ArrayList<>(rows.size());
+      try
+      {
+        BatchResult batch = JPAScriptOperations.inTransaction(conn, o -> o.persistBatch(table, rows), ops);
+        JsonArray keys = batch.getKeys();
+        for (int i = 0; i < rows.size(); i++)
+        {
+          // the key generated by each row is at the position of the row
+          JsonArray rowKeys = keys.getValue(i) != null ? new JsonArray().add(keys.getValue(i)) : new JsonArray();
+          results.add(Future.succeededFuture(new UpdateResult(batch.getUpdateCounts().get(i), rowKeys)));
+        }
+        return results;
+      }
+      catch (SQLException e)
+      {
+        if (rows.size() == 1)
+        {
+          results.add(Future.failedFuture(e));
+          return results;
+        }
+      }
+      persistBatcher.fallback();
+      for (JsonObject row : rows)
+      {
+        try
+        {
+          results.add(Future.succeededFuture(JPAScriptOperations.inTransaction(conn, o -> o.persist(table, row), ops)));
+        }
+        catch (SQLException e)
+        {
+          results.add(Future.failedFuture(e));
+        }
+      }
+      return results;
+    }, handler);
+  }
+
+  private void flushWriteBehind(Context ctx, Handler<AsyncResult<Integer>> handler)
+  {
+    executeDirect(ctx, conn -> writeBehind.write(conn, (ContextInternal) ctx), handler);
+  }
+
+  /*
+  The action runs on a worker as soon as the connection is obtained, and the connection is closed there: a one-shot
+  operation takes one hop to the worker and one back to the context, instead of the hops to the context with the
+  JPAConnection, to the worker for the statement and again for the close. The actions are not ordered, so the
+  one-shot operations run in parallel and a slow statement does not hold the acquisition threads.
+   */
+  private <T> void executeDirect(Context ctx, DirectAction<T> action, Handler<AsyncResult<T>> handler)
+  {
+    // a one-shot action runs one statement on the physical connection, a statement cache would never be hit
+    getJPAConnection(ctx, 0, ar1 -> {
+      if (ar1.failed())
       {
-        JPAConnectionImpl conn = (JPAConnectionImpl) ar1.result();
+        ctx.runOnContext(v -> handler.handle(Future.failedFuture(ar1.cause())));
+        return;
+      }
+      JPAConnectionImpl conn = (JPAConnectionImpl) ar1.result();
+      long acquired = System.nanoTime();
+      ctx.<T>executeBlocking(fut -> {
         try
         {
-          T result = action.execute(conn.conn);
-          fut.complete(result);
+          fut.complete(action.execute(conn.conn));
         }
         catch (Exception e)
         {
@@ -178,64 +630,34 @@ public class JPAClientImpl implements JPAClient
           {
             metrics.end(conn.metric, true);
           }
+          acquireStats.released(System.nanoTime() - acquired);
           try
           {
             conn.conn.close();
           }
           catch (Exception e)
           {
-            JPAConnectionImpl.log.error("Failure in closing connection", ar1.cause());
+            JPAConnectionImpl.log.error("Failure in closing connection", e);
           }
         }
-      }
-      else
-      {
-        fut.fail(ar1.cause());
-      }
+      }, false, handler);
     });
   }
 
+  /*
+  The execute of an action of vertx-jdbc or of this client
+   */
+  @FunctionalInterface
+  private interface DirectAction<T>
+  {
+    T execute(Connection conn) throws SQLException;
+  }
+
   private void getConnection(Context ctx, Handler<AsyncResult<SQLConnection>> handler)
   {
-    boolean enabled = metrics != null && metrics.isEnabled();
-    Object queueMetric = enabled ? metrics.submitted() : null;
-    PoolMetrics metrics = enabled ? this.metrics : null;
-    exec.execute(() -> {
-      Future<SQLConnection> res = Future.future();
-      res.setHandler(handler);
-      try
-      {
-        /*
-        This can block until a connection is free.
-        We don't want to do that while running on a worker as we can enter a deadlock situation as the worker
-        might have obtained a connection, and won't release it until it is run again
-        There is a general principle here:
-        *User code* should be executed on a worker and can potentially block, it's up to the *user* to deal with
-        deadlocks that might occur there.
-        If the *service code* internally blocks waiting for a resource that might be obtained by *user code*, then
-        this can cause deadlock, so the service should ensure it never does this, by executing such code
-        (e.g. getConnection) on a different thread to the worker pool.
-        We don't want to use the vert.x internal pool for this as the threads might end up all blocked preventing
-        other important operations from occurring (e.g. async file access)
-        */
-        Connection conn = ds.getConnection();
-        Object execMetric = null;
-        if (metrics != null)
-        {
-          execMetric = metrics.begin(queueMetric);
-        }
-        // wrap it
-        res.complete(new JPAConnectionImpl(ctx, helper, jdbchelper, conn, metrics, execMetric));
-      }
-      catch (SQLException e)
-      {
-        if (metrics != null)
-        {
-          metrics.rejected(queueMetric);
-        }
-        res.fail(e);
-      }
-    });
+    getJPAConnection(ctx, statementCacheSize, ar -> handler.handle(ar.succeeded() ?
+      Future.succeededFuture(ar.result()) :
+      Future.failedFuture(ar.cause())));
   }
 
   @Override
@@ -246,53 +668,78 @@ public class JPAClientImpl implements JPAClient
     return this;
   }
 
-  private void getJPAConnection(Context ctx, Handler<AsyncResult<JPAConnection>> handler)
+  private void getJPAConnection(Context ctx, int cacheSize, Handler<AsyncResult<JPAConnection>> handler)
   {
     boolean enabled = metrics != null && metrics.isEnabled();
     Object queueMetric = enabled ? metrics.submitted() : null;
-    PoolMetrics metrics = enabled ? this.metrics : null;
-    exec.execute(() -> {
-      Future<JPAConnection> res = Future.future();
-      res.setHandler(handler);
-      try
+    PoolMetrics<Object> metrics = enabled ? this.metrics : null;
+    long submitted = System.nanoTime();
+    acquireStats.submitted();
+    try
+    {
+      exec.execute(() -> acquire(ctx, cacheSize, submitted, queueMetric, metrics, handler));
+    }
+    catch (RejectedExecutionException e)
+    {
+      // the queue is full or the data source closed
+      acquireStats.rejected();
+      if (metrics != null)
       {
-        /*
-        This can block until a connection is free.
-        We don't want to do that while running on a worker as we can enter a deadlock situation as the worker
-        might have obtained a connection, and won't release it until it is run again
-        There is a general principle here:
-        *User code* should be executed on a worker and can potentially block, it's up to the *user* to deal with
-        deadlocks that might occur there.
-        If the *service code* internally blocks waiting for a resource that might be obtained by *user code*, then
-        this can cause deadlock, so the service should ensure it never does this, by executing such code
-        (e.g. getConnection) on a different thread to the worker pool.
-        We don't want to use the vert.x internal pool for this as the threads might end up all blocked preventing
-        other important operations from occurring (e.g. async file access)
-        */
-        Connection conn = ds.getConnection();
-        Object execMetric = null;
-        if (metrics != null)
-        {
-          execMetric = metrics.begin(queueMetric);
-        }
-        // wrap it
-        res.complete(new JPAConnectionImpl(ctx, helper, jdbchelper, conn, metrics, execMetric));
+        metrics.rejected(queueMetric);
       }
-      catch (SQLException e)
+      handler.handle(Future.failedFuture(new SQLTransientConnectionException(
+        "Too many connection requests waiting: the acquisition queue of " + holder.acquireQueueSize() +
+          " requests is full, or the data source is closed")));
+    }
+  }
+
+  private void acquire(Context ctx, int cacheSize, long submitted, Object queueMetric, PoolMetrics<Object> metrics,
+    Handler<AsyncResult<JPAConnection>> handler)
+  {
+    acquireStats.dequeued(System.nanoTime() - submitted);
+    Future<JPAConnection> res = Future.future();
+    res.setHandler(handler);
+    try
+    {
+      /*
+      This can block until a connection is free.
+      We don't want to do that while running on a worker as we can enter a deadlock situation as the worker
+      might have obtained a connection, and won't release it until it is run again
+      There is a general principle here:
+      *User code* should be executed on a worker and can potentially block, it's up to the *user* to deal with
+      deadlocks that might occur there.
+      If the *service code* internally blocks waiting for a resource that might be obtained by *user code*, then
+      this can cause deadlock, so the service should ensure it never does this, by executing such code
+      (e.g. getConnection) on a different thread to the worker pool.
+      We don't want to use the vert.x internal pool for this as the threads might end up all blocked preventing
+      other important operations from occurring (e.g. async file access)
+      */
+      Connection conn = ds.getConnection();
+      acquireStats.acquired(System.nanoTime() - submitted);
+      Object execMetric = null;
+      if (metrics != null)
       {
-        if (metrics != null)
-        {
-          metrics.rejected(queueMetric);
-        }
-        res.fail(e);
+        execMetric = metrics.begin(queueMetric);
       }
-    });
+      // wrap it
+      res.complete(new JPAConnectionImpl(ctx, helper, jdbchelper, conn, metrics, execMetric, cacheSize,
+        statementCacheStats, acquireStats));
+    }
+    catch (SQLException e)
+    {
+      acquireStats.failed();
+      if (metrics != null)
+      {
+        metrics.rejected(queueMetric);
+      }
+      res.fail(e);
+    }
   }
 
   public JPAClient getJPAConnection(Handler<AsyncResult<JPAConnection>> handler)
   {
     Context ctx = vertx.getOrCreateContext();
-    getJPAConnection(ctx, ar -> ctx.runOnContext(v -> handler.handle(ar)));
+    getJPAConnection(ctx, statementCacheSize, ar -> ctx.runOnContext(v -> handler.handle(ar)));
     return this;
   }
 
@@ -322,17 +769,18 @@ public class JPAClientImpl implements JPAClient
     DataSourceProvider provider;
     JsonObject config;
     DataSource ds;
-    PoolMetrics metrics;
+    PoolMetrics<Object> metrics;
     ExecutorService exec;
+    final JPAAcquireStats acquireStats = new JPAAcquireStats();
+    JPAPoolSizer sizer;
+    long sizerTimer = -1;
     private int refCount = 1;
     private final String name;
 
     DataSourceHolder(VertxInternal vertx, DataSource ds)
     {
       this.ds = ds;
-      this.metrics = vertx.metricsSPI() != null ?
-        vertx.metricsSPI().createMetrics(ds, "datasource", UUID.randomUUID().toString(), -1) :
-        null;
+      this.metrics = metrics(vertx.metricsSPI(), ds, UUID.randomUUID().toString(), -1);
       this.vertx = vertx;
       this.map = null;
       this.name = null;
@@ -349,6 +797,17 @@ public class JPAClientImpl implements JPAClient
       map.put(name, this);
     }
 
+    /*
+    the metric of each connection is only passed back to the pool metrics that created it
+     */
+    @SuppressWarnings("unchecked")
+    private PoolMetrics<Object> metrics(VertxMetrics vertxMetrics, DataSource ds, String name, int poolSize)
+    {
+      return vertxMetrics != null ?
+        (PoolMetrics<Object>) vertxMetrics.createMetrics(ds, "datasource", name, poolSize) :
+        null;
+    }
+
     synchronized DataSource ds()
     {
       if (ds == null)
@@ -369,7 +828,8 @@ public class JPAClientImpl implements JPAClient
             provider = (DataSourceProvider) clazz.newInstance();
             ds = provider.getDataSource(config);
             int poolSize = provider.maximumPoolSize(ds, config);
-            metrics = vertxMetrics != null ? vertxMetrics.createMetrics(ds, "datasource", name, poolSize) : null;
+            metrics = metrics(vertxMetrics, ds, name, poolSize);
+            startSizer();
             return ds;
           }
           catch (ClassNotFoundException e)
@@ -389,7 +849,8 @@ public class JPAClientImpl implements JPAClient
           provider = (DataSourceProvider) clazz.newInstance();
           ds = provider.getDataSource(config);
           int poolSize = provider.maximumPoolSize(ds, config);
-          metrics = vertxMetrics != null ? vertxMetrics.createMetrics(ds, "datasource", name, poolSize) : null;
+          metrics = metrics(vertxMetrics, ds, name, poolSize);
+          startSizer();
           return ds;
         }
         catch (ClassNotFoundException | InstantiationException | SQLException | IllegalAccessException e)
@@ -401,18 +862,53 @@ public class JPAClientImpl implements JPAClient
       return ds;
     }
 
+    /*
+    with adaptive_pool_sizing the size of a native pool follows the acquire wait and the statement latency
+     */
+    private void startSizer()
+    {
+      if (!config.getBoolean("adaptive_pool_sizing", false))
+      {
+        return;
+      }
+      if (!(ds instanceof JPAPooledDataSource))
+      {
+        log.warn("adaptive_pool_sizing needs the provider " + NATIVE_PROVIDER_CLASS + ", the pool size stays fixed");
+        return;
+      }
+      sizer = new JPAPoolSizer((JPAPooledDataSource) ds, acquireStats, config);
+      sizerTimer = vertx.setPeriodic(sizer.period(), id -> sizer.evaluate());
+    }
+
     synchronized ExecutorService exec()
     {
       if (exec == null)
       {
-        exec = new ThreadPoolExecutor(1, 1,
+        // the threads blocked in ds.getConnection(), with a bounded queue of the requests waiting for them
+        int threads = acquireThreads();
+        AtomicInteger count = new AtomicInteger();
+        exec = new ThreadPoolExecutor(threads, threads,
           1000L, TimeUnit.MILLISECONDS,
-          new LinkedBlockingQueue<>(),
-          (r -> new Thread(r, "vertx-jdbc-service-get-connection-thread")));
+          new ArrayBlockingQueue<>(acquireQueueSize()),
+          (r -> new Thread(r, threads == 1 ?
+            "vertx-jdbc-service-get-connection-thread" :
+            "vertx-jdbc-service-get-connection-thread-" + count.getAndIncrement())));
       }
       return exec;
     }
 
+    int acquireThreads()
+    {
+      return config == null ? 1 : Math.max(1, config.getInteger("acquire_threads", 1));
+    }
+
+    int acquireQueueSize()
+    {
+      return config == null ?
+        DEFAULT_ACQUIRE_QUEUE_SIZE :
+        Math.max(1, config.getInteger("acquire_queue_size", DEFAULT_ACQUIRE_QUEUE_SIZE));
+    }
+
     void incRefCount()
     {
       refCount++;
@@ -428,6 +924,10 @@ public class JPAClientImpl implements JPAClient
           {
             metrics.close();
           }
+          if (sizerTimer != -1)
+          {
+            vertx.cancelTimer(sizerTimer);
+          }
           Future<Void> f1 = Future.future();
           Future<Void> f2 = Future.future();
           if (completionHandler != null)
@@ -16,6 +16,7 @@
 
 package nz.fiore.vertx.ext.jpa.impl;
 
+import io.reactivex.Flowable;
 import io.reactivex.Single;
 import io.vertx.core.*;
 import io.vertx.core.impl.ContextInternal;
@@ -28,7 +29,12 @@ import io.vertx.core.spi.metrics.PoolMetrics;
 import io.vertx.ext.jdbc.impl.actions.*;
 import io.vertx.ext.sql.*;
 import nz.fiore.vertx.ext.jpa.impl.actions.*;
+import nz.fiore.vertx.ext.jpa.sql.BatchResult;
+import nz.fiore.vertx.ext.jpa.sql.ColumnarResultSet;
+import nz.fiore.vertx.ext.jpa.sql.FindAllResult;
 import nz.fiore.vertx.ext.jpa.sql.JPAConnection;
+import nz.fiore.vertx.ext.jpa.sql.JPAScript;
+import nz.fiore.vertx.ext.jpa.sql.JPAUnitOfWork;
 import nz.fiore.vertx.ext.jpa.util.RestrinctionHandler;
 
 import java.sql.Connection;
@@ -48,17 +54,36 @@ class JPAConnectionImpl implements JPAConnection
    private final Vertx vertx;
    final Connection conn;
    private final ContextInternal ctx;
-   private final PoolMetrics metrics;
+   private final PoolMetrics<Object> metrics;
    final Object metric;
    private final TaskQueue statementsQueue = new TaskQueue();
 
    private final JPAStatementHelper helper;
    private final JDBCStatementHelper jdbchelper;
+   private final JPAStatementCache statements;
+   // the connection hold time is the statement latency seen by the adaptive pool sizing
+   private final JPAAcquireStats acquireStats;
+   private final long acquiredAt;
+   private boolean released;
 
    private SQLOptions options;
 
    public JPAConnectionImpl(Context context, JPAStatementHelper helper, JDBCStatementHelper jdbchelper, Connection conn,
-            PoolMetrics metrics, Object metric)
+            PoolMetrics<Object> metrics, Object metric)
+   {
+      this(context, helper, jdbchelper, conn, metrics, metric, 0, null);
+   }
+
+   public JPAConnectionImpl(Context context, JPAStatementHelper helper, JDBCStatementHelper jdbchelper, Connection conn,
+            PoolMetrics<Object> metrics, Object metric, int statementCacheSize,
+            JPAStatementCache.Stats statementCacheStats)
+   {
+      this(context, helper, jdbchelper, conn, metrics, metric, statementCacheSize, statementCacheStats, null);
+   }
+
+   public JPAConnectionImpl(Context context, JPAStatementHelper helper, JDBCStatementHelper jdbchelper, Connection conn,
+            PoolMetrics<Object> metrics, Object metric, int statementCacheSize,
+            JPAStatementCache.Stats statementCacheStats, JPAAcquireStats acquireStats)
    {
       this.vertx = context.owner();
       this.helper = helper;
@@ -67,6 +92,17 @@ class JPAConnectionImpl implements JPAConnection
       this.metrics = metrics;
       this.metric = metric;
       this.ctx = (ContextInternal) context;
+      this.statements = statementCacheSize > 0 ? new JPAStatementCache(statementCacheSize, statementCacheStats) : null;
+      this.acquireStats = acquireStats;
+      this.acquiredAt = System.nanoTime();
+   }
+
+   /*
+   The prepared statements cache of this connection, null if disabled
+    */
+   JPAStatementCache statementCache()
+   {
+      return statements;
    }
 
    @Override
@@ -157,7 +193,12 @@ class JPAConnectionImpl implements JPAConnection
       {
          metrics.end(metric, true);
       }
-      new JDBCClose(vertx, options, ctx).execute(conn, statementsQueue, handler);
+      if (acquireStats != null && !released)
+      {
+         released = true;
+         acquireStats.released(System.nanoTime() - acquiredAt);
+      }
+      new JPAClose(vertx, ctx).withStatementCache(statements).execute(conn, statementsQueue, handler);
    }
 
    @Override
@@ -263,7 +304,8 @@ class JPAConnectionImpl implements JPAConnection
    @Override
    public JPAConnection persist(String table, JsonObject params, Handler<AsyncResult<UpdateResult>> resultHandler)
    {
-      new JPAPersist(vertx, helper, options, ctx, params, table).execute(conn, statementsQueue, resultHandler);
+      new JPAPersist(vertx, helper, options, ctx, params, table).withStatementCache(statements)
+               .execute(conn, statementsQueue, resultHandler);
       return this;
    }
 
@@ -274,11 +316,29 @@ class JPAConnectionImpl implements JPAConnection
       });
    }
 
+   @Override
+   public JPAConnection persistBatch(String table, List<JsonObject> rows,
+            Handler<AsyncResult<BatchResult>> resultHandler)
+   {
+      new JPAPersistBatch(vertx, helper, options, ctx, table, rows).withStatementCache(statements)
+               .execute(conn, statementsQueue, resultHandler);
+      return this;
+   }
+
+   @Override
+   public Single<BatchResult> rxPersistBatch(String table, List<JsonObject> rows)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<BatchResult>(handler -> {
+         persistBatch(table, rows, handler);
+      });
+   }
+
    @Override
    public JPAConnection merge(String table, JsonObject params, JsonObject key,
             Handler<AsyncResult<UpdateResult>> resultHandler)
    {
-      new JPAMerge(vertx, helper, options, ctx, params, table, key).execute(conn, statementsQueue, resultHandler);
+      new JPAMerge(vertx, helper, options, ctx, params, table, key).withStatementCache(statements)
+               .execute(conn, statementsQueue, resultHandler);
       return this;
    }
 
@@ -289,10 +349,28 @@ class JPAConnectionImpl implements JPAConnection
       });
    }
 
+   @Override
+   public JPAConnection mergeBatch(String table, List<JsonObject> params, List<JsonObject> keys,
+            Handler<AsyncResult<BatchResult>> resultHandler)
+   {
+      new JPAMergeBatch(vertx, helper, options, ctx, table, params, keys).withStatementCache(statements)
+               .execute(conn, statementsQueue, resultHandler);
+      return this;
+   }
+
+   @Override
+   public Single<BatchResult> rxMergeBatch(String table, List<JsonObject> params, List<JsonObject> keys)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<BatchResult>(handler -> {
+         mergeBatch(table, params, keys, handler);
+      });
+   }
+
    @Override
    public JPAConnection delete(String table, JsonObject key, Handler<AsyncResult<UpdateResult>> resultHandler)
    {
-      new JPADelete(vertx, helper, options, ctx, table, key).execute(conn, statementsQueue, resultHandler);
+      new JPADelete(vertx, helper, options, ctx, table, key).withStatementCache(statements)
+               .execute(conn, statementsQueue, resultHandler);
       return this;
    }
 
@@ -303,10 +381,35 @@ class JPAConnectionImpl implements JPAConnection
       });
    }
 
+   @Override
+   public JPAConnection deleteAll(String table, String keyColumn, JsonArray keys, boolean inTransaction,
+            Handler<AsyncResult<UpdateResult>> resultHandler)
+   {
+      new JPADeleteAll(vertx, helper, options, ctx, table, keyColumn, keys, inTransaction)
+               .withStatementCache(statements).execute(conn, statementsQueue, resultHandler);
+      return this;
+   }
+
+   @Override
+   public JPAConnection deleteAll(String table, String keyColumn, JsonArray keys,
+            Handler<AsyncResult<UpdateResult>> resultHandler)
+   {
+      return deleteAll(table, keyColumn, keys, false, resultHandler);
+   }
+
+   @Override
+   public Single<UpdateResult> rxDeleteAll(String table, String keyColumn, JsonArray keys, boolean inTransaction)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<UpdateResult>(handler -> {
+         deleteAll(table, keyColumn, keys, inTransaction, handler);
+      });
+   }
+
    @Override
    public JPAConnection query(String sql, JsonObject params, Handler<AsyncResult<ResultSet>> resultHandler)
    {
-      new JPAQuery(vertx, helper, options, ctx, params, sql).execute(conn, statementsQueue, resultHandler);
+      new JPAQuery(vertx, helper, options, ctx, params, sql).withStatementCache(statements)
+               .execute(conn, statementsQueue, resultHandler);
       return this;
    }
 
@@ -323,7 +426,7 @@ class JPAConnectionImpl implements JPAConnection
             Handler<AsyncResult<ResultSet>> resultHandler)
    {
       new JPAHandlerQuery(vertx, helper, options, ctx, table, params, restictionHandler)
-               .execute(conn, statementsQueue, resultHandler);
+               .withStatementCache(statements).execute(conn, statementsQueue, resultHandler);
       return this;
    }
 
@@ -355,7 +458,8 @@ class JPAConnectionImpl implements JPAConnection
    @Override
    public JPAConnection find(String table, JsonObject key, Handler<AsyncResult<ResultSet>> resultHandler)
    {
-      new JPAFind(vertx, helper, options, ctx, table, key).execute(conn, statementsQueue, resultHandler);
+      new JPAFind(vertx, helper, options, ctx, table, key).withStatementCache(statements)
+               .execute(conn, statementsQueue, resultHandler);
       return this;
    }
 
@@ -367,4 +471,156 @@ class JPAConnectionImpl implements JPAConnection
       });
    }
 
+   @Override
+   public JPAConnection findAll(String table, String keyColumn, JsonArray keys,
+            Handler<AsyncResult<FindAllResult>> resultHandler)
+   {
+      new JPAFindAll(vertx, helper, options, ctx, table, keyColumn, keys).withStatementCache(statements)
+               .execute(conn, statementsQueue, resultHandler);
+      return this;
+   }
+
+   @Override
+   public Single<FindAllResult> rxFindAll(String table, String keyColumn, JsonArray keys)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<FindAllResult>(handler -> {
+         findAll(table, keyColumn, keys, handler);
+      });
+   }
+
+   @Override
+   public JPAConnection queryStream(String sql, JsonObject params, Handler<AsyncResult<SQLRowStream>> handler)
+   {
+      new JPAStreamQuery(vertx, helper, options, ctx, statementsQueue, sql, params)
+               .execute(conn, statementsQueue, handler);
+      return this;
+   }
+
+   @Override
+   public Single<SQLRowStream> rxQueryStream(String sql, JsonObject params)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<SQLRowStream>(handler -> {
+         queryStream(sql, params, handler);
+      });
+   }
+
+   @Override
+   public JPAConnection queryStream(String table, JsonObject params,
+            RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler,
+            Handler<AsyncResult<SQLRowStream>> handler)
+   {
+      new JPAStreamQuery(vertx, helper, options, ctx, statementsQueue, table, params, restictionHandler)
+               .execute(conn, statementsQueue, handler);
+      return this;
+   }
+
+   @Override
+   public Single<SQLRowStream> rxQueryStream(String table, JsonObject params,
+            RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<SQLRowStream>(handler -> {
+         queryStream(table, params, restictionHandler, handler);
+      });
+   }
+
+   @Override
+   public Flowable<JsonObject> rxQueryFlowable(String sql, JsonObject params)
+   {
+      return rxQueryStream(sql, params).flatMapPublisher(stream -> new JPARowFlowable(ctx, stream));
+   }
+
+   @Override
+   public JPAConnection queryColumnar(String sql, JsonObject params,
+            Handler<AsyncResult<ColumnarResultSet>> resultHandler)
+   {
+      new JPAColumnarQuery(vertx, helper, options, ctx, sql, params).withStatementCache(statements)
+               .execute(conn, statementsQueue, resultHandler);
+      return this;
+   }
+
+   @Override
+   public Single<ColumnarResultSet> rxQueryColumnar(String sql, JsonObject params)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<ColumnarResultSet>(handler -> {
+         queryColumnar(sql, params, handler);
+      });
+   }
+
+   @Override
+   public JPAConnection queryColumnar(String table, JsonObject params,
+            RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler,
+            Handler<AsyncResult<ColumnarResultSet>> resultHandler)
+   {
+      new JPAColumnarQuery(vertx, helper, options, ctx, table, params, restictionHandler)
+               .withStatementCache(statements).execute(conn, statementsQueue, resultHandler);
+      return this;
+   }
+
+   @Override
+   public Single<ColumnarResultSet> rxQueryColumnar(String table, JsonObject params,
+            RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<ColumnarResultSet>(handler -> {
+         queryColumnar(table, params, restictionHandler, handler);
+      });
+   }
+
+   @Override
+   public <T> JPAConnection script(JPAScript<T> script, Handler<AsyncResult<T>> resultHandler)
+   {
+      ctx.executeBlocking((Future<T> f) -> {
+         try
+         {
+            f.complete(script.run(operations()));
+         }
+         catch (Exception e)
+         {
+            f.fail(e);
+         }
+      }, statementsQueue, resultHandler);
+      return this;
+   }
+
+   @Override
+   public <T> Single<T> rxScript(JPAScript<T> script)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<T>(handler -> {
+         script(script, handler);
+      });
+   }
+
+   @Override
+   public <T> JPAConnection inTransaction(JPAScript<T> script, Handler<AsyncResult<T>> resultHandler)
+   {
+      ctx.executeBlocking((Future<T> f) -> {
+         try
+         {
+            f.complete(JPAScriptOperations.inTransaction(conn, script, operations()));
+         }
+         catch (Exception e)
+         {
+            f.fail(e);
+         }
+      }, statementsQueue, resultHandler);
+      return this;
+   }
+
+   @Override
+   public <T> Single<T> rxInTransaction(JPAScript<T> script)
+   {
+      return new io.vertx.reactivex.core.impl.AsyncResultSingle<T>(handler -> {
+         inTransaction(script, handler);
+      });
+   }
+
+   @Override
+   public JPAUnitOfWork unitOfWork()
+   {
+      return new JPAUnitOfWorkImpl(vertx, helper, options, ctx, conn, statementsQueue, statements);
+   }
+
+   private JPAScript.Operations operations()
+   {
+      return new JPAScriptOperations(vertx, helper, options, ctx, conn, statements);
+   }
 }
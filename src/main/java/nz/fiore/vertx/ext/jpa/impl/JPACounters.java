@@ -0,0 +1,569 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAIncrement;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAStatementHelper;
+import nz.fiore.vertx.ext.jpa.sql.BatchResult;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the deltas of {@link nz.fiore.vertx.ext.jpa.JPAClient#increment} by table, key and column and
+ * writes their sums every <code>counter_flush_period</code> milliseconds, as batches of
+ * <code>UPDATE table SET column = column + ? WHERE key = ?</code> in one transaction.
+ * <p>
+ * Like a LongAdder the deltas are added to one of <code>counter_stripes</code> stripes chosen by the thread, each
+ * one a map guarded by its own lock, so the event loops do not contend on the same hot row; a flush swaps the map
+ * of each stripe with an empty one and sums them. When the batch fails the updates of each table and column are
+ * retried in their own transaction, so a bad column does not stop the others: the sums of a group that fails are put
+ * back and dropped after <code>counter_max_attempts</code> failed flushes. When the database can not be reached all
+ * the sums are put back, they take one entry by table, key and column whatever the number of increments.
+ * <p>
+ * The period is the window of the deltas lost if the process dies; a stripe with
+ * <code>counter_max_pending_keys</code> / stripes keys starts a flush before it. With a period of 0 each increment
+ * is written at once. On close the deltas are written synchronously before the pool is closed, the deltas that
+ * cannot be written and the increments arriving after are counted as dropped.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPACounters
+{
+
+  private static final Logger log = LoggerFactory.getLogger(JPACounters.class);
+
+  private static final long DEFAULT_PERIOD = 1000L;
+  private static final int DEFAULT_MAX_PENDING_KEYS = 10000;
+  private static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+  private final Vertx vertx;
+  private final JPAStatementHelper helper;
+  private final Flush flush;
+  private final long period;
+  private final Stripe[] stripes;
+  private final int stripeKeys;
+  private final int maxAttempts;
+  // the failed flushes of the sums put back, guarded by flushLock
+  private final Map<Key, Integer> attempts = new HashMap<>();
+  private final long timer;
+  // one flush at a time, the close waits for the one in progress
+  private final Object flushLock = new Object();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private volatile boolean closed;
+
+  private final LongAdder increments = new LongAdder();
+  private final LongAdder flushes = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final LongAdder missed = new LongAdder();
+  private final LongAdder failedFlushes = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  JPACounters(Vertx vertx, JPAStatementHelper helper, JsonObject config, Flush flush)
+  {
+    this.vertx = vertx;
+    this.helper = helper;
+    this.flush = flush;
+    this.period = Math.max(0L, config.getLong("counter_flush_period", DEFAULT_PERIOD));
+    int count = config.getInteger("counter_stripes", 2 * Runtime.getRuntime().availableProcessors());
+    // a power of two, to choose the stripe with a mask
+    int size = 1;
+    while (size < count)
+    {
+      size <<= 1;
+    }
+    this.stripes = new Stripe[size];
+    for (int i = 0; i < this.stripes.length; i++)
+    {
+      this.stripes[i] = new Stripe();
+    }
+    this.stripeKeys = Math.max(1, config.getInteger("counter_max_pending_keys", DEFAULT_MAX_PENDING_KEYS)
+      / this.stripes.length);
+    this.maxAttempts = Math.max(1, config.getInteger("counter_max_attempts", DEFAULT_MAX_ATTEMPTS));
+    this.timer = period > 0 ? vertx.setPeriodic(period, id -> schedule()) : -1;
+  }
+
+  void increment(Context ctx, String table, JsonObject key, String column, long delta)
+  {
+    if (closed)
+    {
+      dropped.add(Math.abs(delta));
+      log.warn("Increment of " + table + "." + column + " after close dropped");
+      return;
+    }
+    increments.increment();
+    if (period == 0)
+    {
+      // write-through
+      List<JPAIncrement.Delta> deltas = new ArrayList<>(1);
+      deltas.add(new JPAIncrement.Delta(table, key.copy(), column, delta));
+      flush.flush(ctx, conn -> write(conn, (ContextInternal) ctx, deltas), ar -> {
+        if (ar.failed())
+        {
+          dropped.add(Math.abs(delta));
+          log.error("Failure in incrementing " + table + "." + column, ar.cause());
+        }
+      });
+      return;
+    }
+    Stripe stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+    int keys = stripe.add(new Key(table, key, column), delta);
+    if (keys < 0)
+    {
+      // the stripe was emptied by the close after the check above
+      dropped.add(Math.abs(delta));
+      log.warn("Increment of " + table + "." + column + " after close dropped");
+    }
+    else if (keys >= stripeKeys)
+    {
+      schedule();
+    }
+  }
+
+  /**
+   * Writes the deltas accumulated so far.
+   *
+   * @param handler the handler which is called with the number of rows updated
+   */
+  public void flush(Handler<AsyncResult<Integer>> handler)
+  {
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    flush.flush(ctx, conn -> write(conn, ctx), handler);
+  }
+
+  private void schedule()
+  {
+    if (closed || !scheduled.compareAndSet(false, true))
+    {
+      return;
+    }
+    ContextInternal ctx = (ContextInternal) vertx.getOrCreateContext();
+    flush.flush(ctx, conn -> write(conn, ctx), ar -> {
+      scheduled.set(false);
+      if (ar.failed())
+      {
+        log.error("Failure in writing the counters, the deltas are retried with the next flush", ar.cause());
+      }
+    });
+  }
+
+  /*
+  Writes the sums of all the stripes in one transaction, or by group of table and column if it fails
+   */
+  private Integer write(Connection conn, ContextInternal ctx) throws SQLException
+  {
+    synchronized (flushLock)
+    {
+      Map<Key, long[]> sums = new HashMap<>();
+      for (Stripe stripe : stripes)
+      {
+        for (Map.Entry<Key, long[]> entry : stripe.take().entrySet())
+        {
+          long[] sum = sums.get(entry.getKey());
+          if (sum == null)
+          {
+            sums.put(entry.getKey(), entry.getValue());
+          }
+          else
+          {
+            sum[0] += entry.getValue()[0];
+          }
+        }
+      }
+      sums.values().removeIf(sum -> sum[0] == 0);
+      try
+      {
+        int updated = update(conn, ctx, sums);
+        attempts.clear();
+        flushes.increment();
+        return updated;
+      }
+      catch (SQLException | RuntimeException e)
+      {
+        // failed before or at the commit, a failure after it does not fail the transaction
+        failedFlushes.increment();
+        if (JPAScriptOperations.unreachable(conn, e))
+        {
+          putBack(sums);
+          throw e;
+        }
+      }
+      int updated = updateGroups(conn, ctx, sums);
+      flushes.increment();
+      return updated;
+    }
+  }
+
+  /*
+  the sums of each table, column and key columns in their own transaction, the same groups of the batch
+   */
+  private int updateGroups(Connection conn, ContextInternal ctx, Map<Key, long[]> sums) throws SQLException
+  {
+    Map<String, Map<Key, long[]>> groups = new LinkedHashMap<>();
+    for (Map.Entry<Key, long[]> entry : sums.entrySet())
+    {
+      Key key = entry.getKey();
+      groups.computeIfAbsent(key.table + "." + key.column + key.key.fieldNames(), g -> new HashMap<>())
+        .put(key, entry.getValue());
+    }
+    int updated = 0;
+    Iterator<Map<Key, long[]>> it = groups.values().iterator();
+    while (it.hasNext())
+    {
+      Map<Key, long[]> group = it.next();
+      try
+      {
+        updated += update(conn, ctx, group);
+        attempts.keySet().removeAll(group.keySet());
+        it.remove();
+      }
+      catch (SQLException | RuntimeException e)
+      {
+        if (JPAScriptOperations.unreachable(conn, e))
+        {
+          // this group and the ones not tried yet wait for the next flush
+          while (it.hasNext())
+          {
+            group.putAll(it.next());
+          }
+          putBack(group);
+          throw e;
+        }
+        it.remove();
+        retry(group, e);
+      }
+    }
+    return updated;
+  }
+
+  /*
+  the sums of a group that failed go back to the stripes until they failed counter_max_attempts times
+   */
+  private void retry(Map<Key, long[]> group, Exception e)
+  {
+    Key first = group.keySet().iterator().next();
+    long lost = 0;
+    for (Map.Entry<Key, long[]> entry : group.entrySet())
+    {
+      int failed = attempts.merge(entry.getKey(), 1, Integer::sum);
+      if (failed >= maxAttempts)
+      {
+        attempts.remove(entry.getKey());
+        lost += Math.abs(entry.getValue()[0]);
+      }
+      else
+      {
+        stripes[0].add(entry.getKey(), entry.getValue()[0]);
+      }
+    }
+    if (lost > 0)
+    {
+      dropped.add(lost);
+      log.error("Failure in writing the counters of " + first.table + "." + first.column + ", " + lost +
+        " dropped after " + maxAttempts + " attempts", e);
+    }
+    else
+    {
+      log.error("Failure in writing the counters of " + first.table + "." + first.column +
+        ", retried with the next flush", e);
+    }
+  }
+
+  /*
+  the sums are added back to the first stripe, summed with the deltas arrived since
+   */
+  private void putBack(Map<Key, long[]> sums)
+  {
+    for (Map.Entry<Key, long[]> entry : sums.entrySet())
+    {
+      stripes[0].add(entry.getKey(), entry.getValue()[0]);
+    }
+  }
+
+  private int update(Connection conn, ContextInternal ctx, Map<Key, long[]> sums) throws SQLException
+  {
+    List<JPAIncrement.Delta> deltas = new ArrayList<>(sums.size());
+    for (Map.Entry<Key, long[]> entry : sums.entrySet())
+    {
+      Key key = entry.getKey();
+      deltas.add(new JPAIncrement.Delta(key.table, key.key, key.column, entry.getValue()[0]));
+    }
+    return update(conn, ctx, deltas);
+  }
+
+  private Integer write(Connection conn, ContextInternal ctx, List<JPAIncrement.Delta> deltas) throws SQLException
+  {
+    int updated = update(conn, ctx, deltas);
+    flushes.increment();
+    return updated;
+  }
+
+  private int update(Connection conn, ContextInternal ctx, List<JPAIncrement.Delta> deltas) throws SQLException
+  {
+    if (deltas.isEmpty())
+    {
+      return 0;
+    }
+    BatchResult result = JPAScriptOperations.inTransaction(conn,
+      ops -> new JPAIncrement(vertx, helper, null, ctx, deltas).execute(conn),
+      new JPAScriptOperations(vertx, helper, null, ctx, conn, null));
+    for (int count : result.getUpdateCounts())
+    {
+      if (count == 0)
+      {
+        // no row with the key, the delta is lost
+        missed.increment();
+      }
+    }
+    written.add(deltas.size());
+    return result.getUpdated();
+  }
+
+  /**
+   * Writes the accumulated deltas with a connection of the data source on the calling thread, once the flush in
+   * progress if any is completed; the increments arriving after are dropped.
+   */
+  void drain(DataSource ds)
+  {
+    if (closed)
+    {
+      return;
+    }
+    closed = true;
+    if (timer != -1)
+    {
+      vertx.cancelTimer(timer);
+    }
+    try (Connection conn = ds.getConnection())
+    {
+      write(conn, null);
+    }
+    catch (SQLException | RuntimeException e)
+    {
+      log.error("Failure in writing the counters on close", e);
+    }
+    // what could not be written, also the sums of the groups in error put back for a next flush; a closed stripe
+    // refuses the increments that passed the closed check meanwhile, they are dropped by the increment itself
+    long lost = 0;
+    for (Stripe stripe : stripes)
+    {
+      for (long[] sum : stripe.close().values())
+      {
+        lost += Math.abs(sum[0]);
+      }
+    }
+    if (lost > 0)
+    {
+      dropped.add(lost);
+      log.error("The counters not written on close, " + lost + " dropped");
+    }
+  }
+
+  public int pendingKeys()
+  {
+    int keys = 0;
+    for (Stripe stripe : stripes)
+    {
+      keys += stripe.size();
+    }
+    return keys;
+  }
+
+  public int stripes()
+  {
+    return stripes.length;
+  }
+
+  /**
+   * The number of increments accumulated
+   */
+  public long incrementCount()
+  {
+    return increments.sum();
+  }
+
+  public long flushCount()
+  {
+    return flushes.sum();
+  }
+
+  /**
+   * The number of updates sent, one for each table, key and column of each flush
+   */
+  public long writtenCount()
+  {
+    return written.sum();
+  }
+
+  /**
+   * The number of updates that found no row with the key
+   */
+  public long missedCount()
+  {
+    return missed.sum();
+  }
+
+  public long failedFlushCount()
+  {
+    return failedFlushes.sum();
+  }
+
+  /**
+   * The absolute sum of the deltas that failed counter_max_attempts times, could not be written on close or arrived
+   * after it
+   */
+  public long droppedCount()
+  {
+    return dropped.sum();
+  }
+
+  public JsonObject toJson()
+  {
+    return new JsonObject()
+      .put("pendingKeys", pendingKeys())
+      .put("increments", incrementCount())
+      .put("flushes", flushCount())
+      .put("written", writtenCount())
+      .put("missed", missedCount())
+      .put("failedFlushes", failedFlushCount())
+      .put("dropped", droppedCount());
+  }
+
+  /*
+  Runs the write on a connection of the pool
+   */
+  @FunctionalInterface
+  interface Flush
+  {
+    void flush(Context ctx, Write write, Handler<AsyncResult<Integer>> handler);
+  }
+
+  @FunctionalInterface
+  interface Write
+  {
+    Integer write(Connection conn) throws SQLException;
+  }
+
+  /*
+  the deltas added by the threads mapped to this stripe
+   */
+  private static final class Stripe
+  {
+    private HashMap<Key, long[]> deltas = new HashMap<>();
+    private boolean closed;
+
+    /*
+    the number of keys of the stripe, -1 once closed
+     */
+    synchronized int add(Key key, long delta)
+    {
+      if (closed)
+      {
+        return -1;
+      }
+      long[] sum = deltas.get(key);
+      if (sum == null)
+      {
+        deltas.put(key.copy(), new long[] { delta });
+      }
+      else
+      {
+        sum[0] += delta;
+      }
+      return deltas.size();
+    }
+
+    synchronized HashMap<Key, long[]> take()
+    {
+      HashMap<Key, long[]> taken = deltas;
+      deltas = new HashMap<>();
+      return taken;
+    }
+
+    synchronized HashMap<Key, long[]> close()
+    {
+      closed = true;
+      return take();
+    }
+
+    synchronized int size()
+    {
+      return deltas.size();
+    }
+  }
+
+  private static final class Key
+  {
+    private final String table;
+    private final JsonObject key;
+    private final String column;
+    private final int hash;
+
+    Key(String table, JsonObject key, String column)
+    {
+      this.table = table;
+      this.key = key;
+      this.column = column;
+      this.hash = 31 * (31 * table.hashCode() + key.hashCode()) + column.hashCode();
+    }
+
+    /*
+    the key of the caller is used for the lookups, a copy is kept in the stripe
+     */
+    Key copy()
+    {
+      return new Key(table, key.copy(), column);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+      {
+        return true;
+      }
+      if (!(o instanceof Key))
+      {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash && table.equals(other.table) && column.equals(other.column) && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+  }
+}
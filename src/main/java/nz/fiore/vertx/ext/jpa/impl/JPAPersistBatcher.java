@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.UpdateResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces the concurrent single row persists of the tables listed in <code>persist_batching</code>: the rows
+ * arriving within <code>persist_batching_window</code> milliseconds of the first one, or up to
+ * <code>persist_batching_max_size</code> rows, are inserted as one JDBC batch on one connection and committed
+ * together. Each caller receives its own result on its own context.
+ * <p>
+ * If the batch fails it is rolled back and its rows are inserted one by one, so only the callers of the rows that
+ * fail receive an error.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPAPersistBatcher
+{
+
+  private static final long DEFAULT_WINDOW = 2L;
+  private static final int DEFAULT_MAX_SIZE = 100;
+
+  private final Vertx vertx;
+  private final Flush flush;
+  private final long window;
+  private final int maxSize;
+  private final Map<String, Pending> tables = new HashMap<>();
+  private final List<Future<Void>> inFlight = new ArrayList<>();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder rows = new LongAdder();
+  private final LongAdder fallbacks = new LongAdder();
+  private volatile boolean closed;
+
+  JPAPersistBatcher(Vertx vertx, JsonObject config, Flush flush)
+  {
+    this.vertx = vertx;
+    this.flush = flush;
+    this.window = Math.max(1L, config.getLong("persist_batching_window", DEFAULT_WINDOW));
+    this.maxSize = Math.max(1, config.getInteger("persist_batching_max_size", DEFAULT_MAX_SIZE));
+    JsonArray names = config.getJsonArray("persist_batching", new JsonArray());
+    for (int i = 0; i < names.size(); i++)
+    {
+      tables.put(names.getString(i), new Pending(names.getString(i)));
+    }
+  }
+
+  /*
+  null when no table is batched
+   */
+  static JPAPersistBatcher create(Vertx vertx, JsonObject config, Flush flush)
+  {
+    JsonArray names = config.getJsonArray("persist_batching");
+    return names == null || names.isEmpty() ? null : new JPAPersistBatcher(vertx, config, flush);
+  }
+
+  boolean batched(String table)
+  {
+    return tables.containsKey(table);
+  }
+
+  void persist(Context ctx, String table, JsonObject row, Handler<AsyncResult<UpdateResult>> handler)
+  {
+    Pending pending = tables.get(table);
+    List<Waiter> full = null;
+    synchronized (pending)
+    {
+      pending.waiters.add(new Waiter(ctx, row, handler));
+      if (closed || pending.waiters.size() >= maxSize)
+      {
+        if (pending.timer != -1)
+        {
+          vertx.cancelTimer(pending.timer);
+        }
+        full = pending.take();
+      }
+      else if (pending.timer == -1)
+      {
+        pending.timer = vertx.setTimer(window, id -> expired(pending, id));
+      }
+    }
+    if (full != null)
+    {
+      send(table, full);
+    }
+  }
+
+  private void expired(Pending pending, long id)
+  {
+    List<Waiter> waiters;
+    synchronized (pending)
+    {
+      if (pending.timer != id)
+      {
+        // already sent as full or on close
+        return;
+      }
+      waiters = pending.take();
+    }
+    send(pending.table, waiters);
+  }
+
+  private void send(String table, List<Waiter> waiters)
+  {
+    List<JsonObject> batch = new ArrayList<>(waiters.size());
+    for (Waiter waiter : waiters)
+    {
+      batch.add(waiter.row);
+    }
+    Future<Void> done = Future.future();
+    synchronized (inFlight)
+    {
+      inFlight.add(done);
+    }
+    batches.increment();
+    rows.add(waiters.size());
+    flush.flush(waiters.get(0).ctx, table, batch, ar -> {
+      for (int i = 0; i < waiters.size(); i++)
+      {
+        Waiter waiter = waiters.get(i);
+        AsyncResult<UpdateResult> result = ar.succeeded() ? ar.result().get(i) : Future.failedFuture(ar.cause());
+        waiter.ctx.runOnContext(v -> waiter.handler.handle(result));
+      }
+      synchronized (inFlight)
+      {
+        inFlight.remove(done);
+      }
+      done.complete();
+    });
+  }
+
+  /*
+  counted by the flush when a batch is retried row by row
+   */
+  void fallback()
+  {
+    fallbacks.increment();
+  }
+
+  /**
+   * Sends the rows waiting for their window, the handler is called once all the batches are completed; the persists
+   * arriving after are sent one by one.
+   */
+  void close(Handler<AsyncResult<Void>> handler)
+  {
+    List<Future<Void>> futures;
+    closed = true;
+    for (Pending pending : tables.values())
+    {
+      List<Waiter> waiters;
+      synchronized (pending)
+      {
+        if (pending.timer != -1)
+        {
+          vertx.cancelTimer(pending.timer);
+        }
+        waiters = pending.take();
+      }
+      if (!waiters.isEmpty())
+      {
+        send(pending.table, waiters);
+      }
+    }
+    synchronized (inFlight)
+    {
+      futures = new ArrayList<>(inFlight);
+    }
+    CompositeFuture.join(new ArrayList<>(futures)).<Void>map(f -> null).setHandler(handler);
+  }
+
+  /**
+   * The number of batches sent
+   */
+  public long batchCount()
+  {
+    return batches.sum();
+  }
+
+  /**
+   * The number of rows sent in the batches
+   */
+  public long rowCount()
+  {
+    return rows.sum();
+  }
+
+  /**
+   * The number of batches that failed and were inserted row by row
+   */
+  public long fallbackCount()
+  {
+    return fallbacks.sum();
+  }
+
+  public double meanBatchSize()
+  {
+    long count = batches.sum();
+    return count == 0 ? 0d : (double) rows.sum() / count;
+  }
+
+  public JsonObject toJson()
+  {
+    return new JsonObject()
+      .put("batches", batchCount())
+      .put("rows", rowCount())
+      .put("fallbacks", fallbackCount())
+      .put("meanBatchSize", meanBatchSize());
+  }
+
+  /*
+  Inserts the rows of a batch, the result of each row in the same order
+   */
+  @FunctionalInterface
+  interface Flush
+  {
+    void flush(Context ctx, String table, List<JsonObject> rows,
+      Handler<AsyncResult<List<AsyncResult<UpdateResult>>>> handler);
+  }
+
+  private static final class Pending
+  {
+    private final String table;
+    private List<Waiter> waiters = new ArrayList<>();
+    private long timer = -1;
+
+    Pending(String table)
+    {
+      this.table = table;
+    }
+
+    List<Waiter> take()
+    {
+      List<Waiter> taken = waiters;
+      waiters = new ArrayList<>();
+      timer = -1;
+      return taken;
+    }
+  }
+
+  private static final class Waiter
+  {
+    private final Context ctx;
+    private final JsonObject row;
+    private final Handler<AsyncResult<UpdateResult>> handler;
+
+    Waiter(Context ctx, JsonObject row, Handler<AsyncResult<UpdateResult>> handler)
+    {
+      this.ctx = ctx;
+      this.row = row;
+      this.handler = handler;
+    }
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import nz.fiore.vertx.ext.jpa.impl.pool.JPAPooledDataSource;
+
+/**
+ * Resizes a native pool between <code>min_pool_size</code> (at least one) and <code>max_pool_size</code> from what
+ * the clients of the data source observe in each period: the mean wait to obtain a connection and the mean time
+ * a connection is held by its statements.
+ * <p>
+ * The pool grows when the acquisitions wait more than <code>adaptive_wait_high</code> milliseconds and shrinks by
+ * one after <code>adaptive_stable_windows</code> periods waiting less than <code>adaptive_wait_low</code> with
+ * idle connections. The hold time before a grow is the baseline of the following periods: when it goes over
+ * <code>adaptive_latency_tolerance</code> times the baseline the database is slowing down with more connections,
+ * the pool shrinks and does not grow past the new size for a while. The gap between the thresholds, the periods
+ * required to shrink and the ceiling are the hysteresis that keeps the size from oscillating.
+ * <p>
+ * Each change is logged and counted, the last one is kept with the figures it was taken on.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPAPoolSizer
+{
+
+  private static final Logger log = LoggerFactory.getLogger(JPAPoolSizer.class);
+
+  private static final long DEFAULT_PERIOD = 1000L;
+  private static final double DEFAULT_WAIT_HIGH = 5d;
+  private static final double DEFAULT_WAIT_LOW = 1d;
+  private static final double DEFAULT_LATENCY_TOLERANCE = 1.5d;
+  private static final int DEFAULT_STABLE_WINDOWS = 3;
+  // the periods a ceiling set by a latency shrink lasts, in units of stable windows
+  private static final int CEILING_WINDOWS = 10;
+
+  public enum Action
+  {
+    GROW, SHRINK, HOLD
+  }
+
+  private final JPAPooledDataSource pool;
+  private final JPAAcquireStats stats;
+  private final long period;
+  private final int lower;
+  private final int upper;
+  private final double waitHigh;
+  private final double waitLow;
+  private final double latencyTolerance;
+  private final int stableWindows;
+
+  private long lastAcquired;
+  private long lastAcquireWait;
+  private long lastReleased;
+  private long lastHold;
+  private double baselineHold;
+  private int calmWindows;
+  private int ceiling;
+  private int ceilingWindows;
+  private long grows;
+  private long shrinks;
+  private Decision last;
+
+  JPAPoolSizer(JPAPooledDataSource pool, JPAAcquireStats stats, JsonObject config)
+  {
+    this.pool = pool;
+    this.stats = stats;
+    this.period = Math.max(1L, config.getLong("adaptive_period", DEFAULT_PERIOD));
+    this.lower = Math.max(1, pool.minPoolSize());
+    this.upper = pool.maxPoolSize();
+    this.waitHigh = config.getDouble("adaptive_wait_high", DEFAULT_WAIT_HIGH);
+    this.waitLow = Math.min(waitHigh, config.getDouble("adaptive_wait_low", DEFAULT_WAIT_LOW));
+    this.latencyTolerance = Math.max(1d, config.getDouble("adaptive_latency_tolerance", DEFAULT_LATENCY_TOLERANCE));
+    this.stableWindows = Math.max(1, config.getInteger("adaptive_stable_windows", DEFAULT_STABLE_WINDOWS));
+    this.ceiling = upper;
+    this.lastAcquired = stats.acquiredCount();
+    this.lastAcquireWait = stats.acquireWaitNanos();
+    this.lastReleased = stats.releasedCount();
+    this.lastHold = stats.holdNanos();
+    pool.resize(config.getInteger("initial_pool_size", lower));
+  }
+
+  /**
+   * The milliseconds between two evaluations
+   */
+  public long period()
+  {
+    return period;
+  }
+
+  /**
+   * Compares the figures of the period since the last call with the thresholds and resizes the pool. Called every
+   * <code>adaptive_period</code> milliseconds.
+   *
+   * @return what was decided
+   */
+  public synchronized Decision evaluate()
+  {
+    long acquired = stats.acquiredCount();
+    long acquireWait = stats.acquireWaitNanos();
+    long released = stats.releasedCount();
+    long hold = stats.holdNanos();
+    double waitMillis = acquired == lastAcquired ? 0d : (acquireWait - lastAcquireWait) / 1000000d /
+      (acquired - lastAcquired);
+    double holdMillis = released == lastReleased ? 0d : (hold - lastHold) / 1000000d / (released - lastReleased);
+    boolean held = released != lastReleased;
+    lastAcquired = acquired;
+    lastAcquireWait = acquireWait;
+    lastReleased = released;
+    lastHold = hold;
+    if (ceilingWindows > 0 && --ceilingWindows == 0)
+    {
+      ceiling = upper;
+    }
+
+    int size = pool.targetPoolSize();
+    int to = size;
+    String reason;
+    if (held && baselineHold > 0 && holdMillis > baselineHold * latencyTolerance && size > lower)
+    {
+      // more connections made the statements slower, the database is saturated
+      to = Math.max(lower, size - step(size));
+      ceiling = to;
+      ceilingWindows = stableWindows * CEILING_WINDOWS;
+      calmWindows = 0;
+      baselineHold = 0;
+      reason = "statement latency";
+    }
+    else if (waitMillis > waitHigh && size < Math.min(upper, ceiling))
+    {
+      to = Math.min(Math.min(upper, ceiling), size + step(size));
+      calmWindows = 0;
+      if (held)
+      {
+        // the statement latency with fewer connections
+        baselineHold = holdMillis;
+      }
+      reason = "acquire wait";
+    }
+    else if (waitMillis < waitLow && pool.idleConnections() > 0)
+    {
+      if (++calmWindows >= stableWindows && size > lower)
+      {
+        to = size - 1;
+        calmWindows = 0;
+        baselineHold = 0;
+      }
+      reason = "idle";
+    }
+    else
+    {
+      calmWindows = 0;
+      reason = "steady";
+    }
+    if (held && baselineHold > 0 && to == size)
+    {
+      // a slow drift of the latency is not the effect of a resize
+      baselineHold += (holdMillis - baselineHold) / 10;
+    }
+
+    if (to != size)
+    {
+      to = pool.resize(to);
+    }
+    Action action = to > size ? Action.GROW : to < size ? Action.SHRINK : Action.HOLD;
+    Decision decision = new Decision(action, size, to, reason, waitMillis, holdMillis);
+    if (action == Action.GROW)
+    {
+      grows++;
+    }
+    else if (action == Action.SHRINK)
+    {
+      shrinks++;
+    }
+    if (action != Action.HOLD)
+    {
+      last = decision;
+      log.info("Pool resized: " + decision);
+    }
+    return decision;
+  }
+
+  private static int step(int size)
+  {
+    return Math.max(1, size / 4);
+  }
+
+  public synchronized long growCount()
+  {
+    return grows;
+  }
+
+  public synchronized long shrinkCount()
+  {
+    return shrinks;
+  }
+
+  /**
+   * The last resize, null if the size never changed
+   */
+  public synchronized Decision lastDecision()
+  {
+    return last;
+  }
+
+  /**
+   * The mean hold time the statement latency is compared with, in milliseconds, 0 until the pool grows
+   */
+  public synchronized double baselineHoldMillis()
+  {
+    return baselineHold;
+  }
+
+  public int size()
+  {
+    return pool.targetPoolSize();
+  }
+
+  @Override
+  public synchronized String toString()
+  {
+    return "size: " + size() + ", lower: " + lower + ", upper: " + upper + ", ceiling: " + ceiling + ", grows: " +
+      grows + ", shrinks: " + shrinks + ", baselineHoldMillis: " + baselineHold + ", last: " + last;
+  }
+
+  /**
+   * A resize, or the reason to keep the size, with the figures of the period it was taken on.
+   */
+  public static final class Decision
+  {
+    private final Action action;
+    private final int from;
+    private final int to;
+    private final String reason;
+    private final double acquireWaitMillis;
+    private final double holdMillis;
+
+    Decision(Action action, int from, int to, String reason, double acquireWaitMillis, double holdMillis)
+    {
+      this.action = action;
+      this.from = from;
+      this.to = to;
+      this.reason = reason;
+      this.acquireWaitMillis = acquireWaitMillis;
+      this.holdMillis = holdMillis;
+    }
+
+    public Action action()
+    {
+      return action;
+    }
+
+    public int from()
+    {
+      return from;
+    }
+
+    public int to()
+    {
+      return to;
+    }
+
+    public String reason()
+    {
+      return reason;
+    }
+
+    public double acquireWaitMillis()
+    {
+      return acquireWaitMillis;
+    }
+
+    public double holdMillis()
+    {
+      return holdMillis;
+    }
+
+    public JsonObject toJson()
+    {
+      return new JsonObject()
+        .put("action", action.name())
+        .put("from", from)
+        .put("to", to)
+        .put("reason", reason)
+        .put("acquireWaitMillis", acquireWaitMillis)
+        .put("holdMillis", holdMillis);
+    }
+
+    @Override
+    public String toString()
+    {
+      return toJson().encode();
+    }
+  }
+}
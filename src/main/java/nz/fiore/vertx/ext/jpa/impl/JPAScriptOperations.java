@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLOptions;
+import io.vertx.ext.sql.UpdateResult;
+import nz.fiore.vertx.ext.jpa.impl.actions.*;
+import nz.fiore.vertx.ext.jpa.sql.BatchResult;
+import nz.fiore.vertx.ext.jpa.sql.FindAllResult;
+import nz.fiore.vertx.ext.jpa.sql.JPAScript;
+import nz.fiore.vertx.ext.jpa.util.RestrinctionHandler;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.List;
+
+/**
+ * The operations of a {@link JPAScript}: each one executes its action directly on the connection of the script, on
+ * the worker thread running the script.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+final class JPAScriptOperations implements JPAScript.Operations
+{
+
+  private static final Logger log = LoggerFactory.getLogger(JPAScriptOperations.class);
+
+  private final Vertx vertx;
+  private final JPAStatementHelper helper;
+  private final SQLOptions options;
+  private final ContextInternal ctx;
+  private final Connection conn;
+  private final JPAStatementCache statements;
+
+  JPAScriptOperations(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    Connection conn, JPAStatementCache statements)
+  {
+    this.vertx = vertx;
+    this.helper = helper;
+    this.options = options;
+    this.ctx = ctx;
+    this.conn = conn;
+    this.statements = statements;
+  }
+
+  /*
+  Runs the script in a transaction on the connection: the auto commit is disabled if needed, the script is committed
+  or rolled back, and the auto commit is restored; any failure rolls back, an error included, as restoring the auto
+  commit would otherwise commit what the script did so far. Once committed the script is not failed by an error
+  restoring the auto commit, the caller would apply it again: the pool resets the connection when it is returned
+   */
+  static <T> T inTransaction(Connection conn, JPAScript<T> script, JPAScript.Operations ops) throws SQLException
+  {
+    boolean autoCommit = conn.getAutoCommit();
+    if (autoCommit)
+    {
+      conn.setAutoCommit(false);
+    }
+    T result;
+    try
+    {
+      result = script.run(ops);
+      conn.commit();
+    }
+    catch (Throwable e)
+    {
+      try
+      {
+        conn.rollback();
+      }
+      catch (SQLException rollback)
+      {
+        e.addSuppressed(rollback);
+      }
+      restoreAutoCommit(conn, autoCommit, e);
+      throw e;
+    }
+    restoreAutoCommit(conn, autoCommit, null);
+    return result;
+  }
+
+  private static void restoreAutoCommit(Connection conn, boolean autoCommit, Throwable failure)
+  {
+    if (!autoCommit)
+    {
+      return;
+    }
+    try
+    {
+      conn.setAutoCommit(true);
+    }
+    catch (SQLException e)
+    {
+      if (failure != null)
+      {
+        failure.addSuppressed(e);
+      }
+      else
+      {
+        log.warn("Failure in restoring the auto commit after the commit", e);
+      }
+    }
+  }
+
+  /*
+  True for a failure of the connection or of the database rather than of the statements run, worth a retry later
+   */
+  static boolean unreachable(Connection conn, Exception e)
+  {
+    if (e instanceof SQLTransientException || e instanceof SQLRecoverableException)
+    {
+      return true;
+    }
+    try
+    {
+      return conn.isClosed();
+    }
+    catch (SQLException closed)
+    {
+      return true;
+    }
+  }
+
+  @Override
+  public void create(String sql) throws SQLException
+  {
+    new JPACreate(vertx, options, ctx, sql).execute(conn);
+  }
+
+  @Override
+  public UpdateResult persist(String table, JsonObject params) throws SQLException
+  {
+    return new JPAPersist(vertx, helper, options, ctx, params, table).withStatementCache(statements).execute(conn);
+  }
+
+  @Override
+  public BatchResult persistBatch(String table, List<JsonObject> rows) throws SQLException
+  {
+    return new JPAPersistBatch(vertx, helper, options, ctx, table, rows).withStatementCache(statements)
+      .execute(conn);
+  }
+
+  @Override
+  public UpdateResult merge(String table, JsonObject params, JsonObject key) throws SQLException
+  {
+    return new JPAMerge(vertx, helper, options, ctx, params, table, key).withStatementCache(statements)
+      .execute(conn);
+  }
+
+  @Override
+  public BatchResult mergeBatch(String table, List<JsonObject> params, List<JsonObject> keys) throws SQLException
+  {
+    return new JPAMergeBatch(vertx, helper, options, ctx, table, params, keys).withStatementCache(statements)
+      .execute(conn);
+  }
+
+  @Override
+  public UpdateResult delete(String table, JsonObject key) throws SQLException
+  {
+    return new JPADelete(vertx, helper, options, ctx, table, key).withStatementCache(statements).execute(conn);
+  }
+
+  @Override
+  public UpdateResult deleteAll(String table, String keyColumn, JsonArray keys) throws SQLException
+  {
+    // the chunks join the transaction of the script, if any
+    return new JPADeleteAll(vertx, helper, options, ctx, table, keyColumn, keys, true)
+      .withStatementCache(statements).execute(conn);
+  }
+
+  @Override
+  public ResultSet query(String sql, JsonObject params) throws SQLException
+  {
+    return new JPAQuery(vertx, helper, options, ctx, params, sql).withStatementCache(statements).execute(conn);
+  }
+
+  @Override
+  public ResultSet query(String table, JsonObject params,
+    RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler) throws SQLException
+  {
+    return new JPAHandlerQuery(vertx, helper, options, ctx, table, params, restictionHandler)
+      .withStatementCache(statements).execute(conn);
+  }
+
+  @Override
+  public ResultSet find(String table, JsonObject key) throws SQLException
+  {
+    return new JPAFind(vertx, helper, options, ctx, table, key).withStatementCache(statements).execute(conn);
+  }
+
+  @Override
+  public FindAllResult findAll(String table, String keyColumn, JsonArray keys) throws SQLException
+  {
+    return new JPAFindAll(vertx, helper, options, ctx, table, keyColumn, keys).withStatementCache(statements)
+      .execute(conn);
+  }
+
+  @Override
+  public Connection connection()
+  {
+    return conn;
+  }
+}
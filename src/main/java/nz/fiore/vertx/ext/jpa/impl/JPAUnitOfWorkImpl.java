@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl;
+
+import io.reactivex.Single;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.impl.TaskQueue;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLOptions;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAFlush;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAStatementCache;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAStatementHelper;
+import nz.fiore.vertx.ext.jpa.sql.FlushResult;
+import nz.fiore.vertx.ext.jpa.sql.JPAUnitOfWork;
+
+import java.sql.Connection;
+
+/**
+ * The unit of work of a connection: the writes are added to a {@link JPAFlush}, replaced by an empty one when it is
+ * executed on the statements queue of the connection.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+final class JPAUnitOfWorkImpl implements JPAUnitOfWork
+{
+
+  private final Vertx vertx;
+  private final JPAStatementHelper helper;
+  private final SQLOptions options;
+  private final ContextInternal ctx;
+  private final Connection conn;
+  private final TaskQueue statementsQueue;
+  private final JPAStatementCache statements;
+  private JPAFlush pending;
+
+  JPAUnitOfWorkImpl(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    Connection conn, TaskQueue statementsQueue, JPAStatementCache statements)
+  {
+    this.vertx = vertx;
+    this.helper = helper;
+    this.options = options;
+    this.ctx = ctx;
+    this.conn = conn;
+    this.statementsQueue = statementsQueue;
+    this.statements = statements;
+    this.pending = newFlush();
+  }
+
+  private JPAFlush newFlush()
+  {
+    JPAFlush flush = new JPAFlush(vertx, helper, options, ctx);
+    flush.withStatementCache(statements);
+    return flush;
+  }
+
+  private JPAFlush take()
+  {
+    JPAFlush flush = pending;
+    pending = newFlush();
+    return flush;
+  }
+
+  @Override
+  public JPAUnitOfWork persist(String table, JsonObject params)
+  {
+    pending.persist(table, params);
+    return this;
+  }
+
+  @Override
+  public JPAUnitOfWork merge(String table, JsonObject params, JsonObject key)
+  {
+    pending.merge(table, params, key);
+    return this;
+  }
+
+  @Override
+  public JPAUnitOfWork delete(String table, JsonObject key)
+  {
+    pending.delete(table, key);
+    return this;
+  }
+
+  @Override
+  public int size()
+  {
+    return pending.size();
+  }
+
+  @Override
+  public void flush(Handler<AsyncResult<FlushResult>> handler)
+  {
+    take().execute(conn, statementsQueue, handler);
+  }
+
+  @Override
+  public Single<FlushResult> rxFlush()
+  {
+    return new io.vertx.reactivex.core.impl.AsyncResultSingle<FlushResult>(handler -> {
+      flush(handler);
+    });
+  }
+
+  @Override
+  public void commit(Handler<AsyncResult<FlushResult>> handler)
+  {
+    JPAFlush flush = take();
+    ctx.executeBlocking((Future<FlushResult> f) -> {
+      try
+      {
+        f.complete(JPAScriptOperations.inTransaction(conn, ops -> flush.execute(conn),
+          new JPAScriptOperations(vertx, helper, options, ctx, conn, statements)));
+      }
+      catch (Exception e)
+      {
+        f.fail(e);
+      }
+    }, statementsQueue, handler);
+  }
+
+  @Override
+  public Single<FlushResult> rxCommit()
+  {
+    return new io.vertx.reactivex.core.impl.AsyncResultSingle<FlushResult>(handler -> {
+      commit(handler);
+    });
+  }
+}
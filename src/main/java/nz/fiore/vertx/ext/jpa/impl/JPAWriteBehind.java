@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.sql.UpdateResult;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAStatementHelper;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind of the merges of the tables listed in <code>write_behind</code>: a merge is kept in memory by table
+ * and key and its handler is called at once; the merges of a row still pending are coalesced, the later values of
+ * a column replacing the earlier ones. The pending rows are written every <code>write_behind_period</code>
+ * milliseconds, or as soon as there are <code>write_behind_flush_rows</code>, as batched <code>UPDATE</code>s in
+ * one transaction; one flush at a time, in the order the rows became pending.
+ * <p>
+ * When the batch fails each row is written in its own transaction, so a row that always fails (a constraint
+ * violation, an unknown column) is logged and counted as failed without stopping the others. When the database
+ * can not be reached the rows are retried with the next flush, in front of the rows pending since: the pending rows
+ * can then be more than <code>write_behind_max_rows</code> for a while, as no row already acknowledged is dropped.
+ * <p>
+ * At most <code>write_behind_max_rows</code> rows are pending, the merges of new rows beyond are refused. On close
+ * the pending rows are written synchronously, the rows that cannot be written and the merges arriving after are
+ * dropped and counted.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPAWriteBehind
+{
+
+  private static final Logger log = LoggerFactory.getLogger(JPAWriteBehind.class);
+
+  private static final long DEFAULT_PERIOD = 100L;
+  private static final int DEFAULT_FLUSH_ROWS = 1000;
+  private static final int DEFAULT_MAX_ROWS = 10000;
+
+  private final Vertx vertx;
+  private final JPAStatementHelper helper;
+  private final Flush flush;
+  private final Set<String> tables = new HashSet<>();
+  private final int flushRows;
+  private final int maxRows;
+  private final long timer;
+  // one flush at a time, so the rows are written in order
+  private final Object flushLock = new Object();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private LinkedHashMap<Key, Row> pending = new LinkedHashMap<>();
+  private boolean closed;
+
+  private final LongAdder merges = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final LongAdder flushes = new LongAdder();
+  private final LongAdder failedFlushes = new LongAdder();
+  private final LongAdder failedRows = new LongAdder();
+  private volatile long lastFlushLag;
+  private volatile long maxFlushLag;
+
+  JPAWriteBehind(Vertx vertx, JPAStatementHelper helper, JsonObject config, Flush flush)
+  {
+    this.vertx = vertx;
+    this.helper = helper;
+    this.flush = flush;
+    this.maxRows = Math.max(1, config.getInteger("write_behind_max_rows", DEFAULT_MAX_ROWS));
+    this.flushRows = Math.max(1, Math.min(maxRows, config.getInteger("write_behind_flush_rows", DEFAULT_FLUSH_ROWS)));
+    JsonArray names = config.getJsonArray("write_behind");
+    for (int i = 0; i < names.size(); i++)
+    {
+      tables.add(names.getString(i));
+    }
+    long period = Math.max(1L, config.getLong("write_behind_period", DEFAULT_PERIOD));
+    this.timer = vertx.setPeriodic(period, id -> schedule());
+  }
+
+  /*
+  null when no table is written behind
+   */
+  static JPAWriteBehind create(Vertx vertx, JPAStatementHelper helper, JsonObject config, Flush flush)
+  {
+    JsonArray names = config.getJsonArray("write_behind");
+    return names == null || names.isEmpty() ? null : new JPAWriteBehind(vertx, helper, config, flush);
+  }
+
+  boolean writesBehind(String table)
+  {
+    return tables.contains(table);
+  }
+
+  /*
+  the handler is called once the merge is pending, with no updated rows as it is not written yet
+   */
+  void merge(Context ctx, String table, JsonObject params, JsonObject key, Handler<AsyncResult<UpdateResult>> handler)
+  {
+    AsyncResult<UpdateResult> result;
+    boolean full = false;
+    synchronized (this)
+    {
+      Key rowKey = new Key(table, key);
+      Row row = pending.get(rowKey);
+      if (closed)
+      {
+        dropped.increment();
+        result = Future.failedFuture(new IllegalStateException("The write-behind of " + table + " is closed"));
+      }
+      else if (row != null)
+      {
+        row.columns.mergeIn(params);
+        merges.increment();
+        coalesced.increment();
+        result = Future.succeededFuture(new UpdateResult(0, new JsonArray()));
+      }
+      else if (pending.size() >= maxRows)
+      {
+        rejected.increment();
+        result = Future.failedFuture(new SQLTransientException(
+          "The write-behind buffer is full, " + maxRows + " rows are pending"));
+      }
+      else
+      {
+        pending.put(rowKey, new Row(table, rowKey.key, params.copy(), System.nanoTime()));
+        merges.increment();
+        full = pending.size() >= flushRows;
+        result = Future.succeededFuture(new UpdateResult(0, new JsonArray()));
+      }
+    }
+    ctx.runOnContext(v -> handler.handle(result));
+    if (full)
+    {
+      schedule();
+    }
+  }
+
+  private void schedule()
+  {
+    synchronized (this)
+    {
+      if (pending.isEmpty() || closed)
+      {
+        return;
+      }
+    }
+    if (!scheduled.compareAndSet(false, true))
+    {
+      return;
+    }
+    flush.flush(vertx.getOrCreateContext(), ar -> {
+      scheduled.set(false);
+      if (ar.failed())
+      {
+        log.error("Failure in writing behind, the rows are retried with the next flush", ar.cause());
+      }
+      else if (pendingRows() >= flushRows)
+      {
+        schedule();
+      }
+    });
+  }
+
+  /*
+  Writes the pending rows on the connection, called by the flush on a worker
+   */
+  Integer write(Connection conn, ContextInternal ctx) throws SQLException
+  {
+    synchronized (flushLock)
+    {
+      LinkedHashMap<Key, Row> rows = take();
+      if (rows.isEmpty())
+      {
+        return 0;
+      }
+      Map<String, List<JsonObject>> params = new LinkedHashMap<>();
+      Map<String, List<JsonObject>> keys = new LinkedHashMap<>();
+      long oldest = Long.MAX_VALUE;
+      for (Row row : rows.values())
+      {
+        params.computeIfAbsent(row.table, t -> new ArrayList<>()).add(row.columns);
+        keys.computeIfAbsent(row.table, t -> new ArrayList<>()).add(row.key);
+        oldest = Math.min(oldest, row.since);
+      }
+      JPAScriptOperations ops = new JPAScriptOperations(vertx, helper, null, ctx, conn, null);
+      int count;
+      try
+      {
+        JPAScriptOperations.inTransaction(conn, o -> {
+          for (Map.Entry<String, List<JsonObject>> table : params.entrySet())
+          {
+            o.mergeBatch(table.getKey(), table.getValue(), keys.get(table.getKey()));
+          }
+          return null;
+        }, ops);
+        count = rows.size();
+      }
+      catch (SQLException | RuntimeException e)
+      {
+        failedFlushes.increment();
+        if (JPAScriptOperations.unreachable(conn, e))
+        {
+          requeue(rows);
+          throw e;
+        }
+        count = writeEach(conn, rows, ops);
+      }
+      long lag = System.nanoTime() - oldest;
+      lastFlushLag = lag;
+      if (lag > maxFlushLag)
+      {
+        maxFlushLag = lag;
+      }
+      flushes.increment();
+      written.add(count);
+      return count;
+    }
+  }
+
+  /*
+  the rows of a failed batch one by one, each in its own transaction: only the rows in error are lost
+   */
+  private int writeEach(Connection conn, LinkedHashMap<Key, Row> rows, JPAScriptOperations ops) throws SQLException
+  {
+    int count = 0;
+    Iterator<Row> it = rows.values().iterator();
+    while (it.hasNext())
+    {
+      Row row = it.next();
+      try
+      {
+        JPAScriptOperations.inTransaction(conn, o -> o.merge(row.table, row.columns, row.key), ops);
+        count++;
+        it.remove();
+      }
+      catch (SQLException | RuntimeException e)
+      {
+        if (JPAScriptOperations.unreachable(conn, e))
+        {
+          // this row and the ones not tried yet wait for the next flush
+          written.add(count);
+          requeue(rows);
+          throw e;
+        }
+        it.remove();
+        failedRows.increment();
+        log.error("Failure in writing behind the row " + row.key.encode() + " of " + row.table + ", dropped", e);
+      }
+    }
+    return count;
+  }
+
+  private synchronized LinkedHashMap<Key, Row> take()
+  {
+    LinkedHashMap<Key, Row> rows = pending;
+    pending = new LinkedHashMap<>();
+    return rows;
+  }
+
+  /*
+  the rows of a failed flush go back before the rows pending since, whose values are more recent and win; none is
+  dropped, the merges of new rows are refused until the pending rows are back under write_behind_max_rows
+   */
+  private synchronized void requeue(LinkedHashMap<Key, Row> rows)
+  {
+    LinkedHashMap<Key, Row> newer = pending;
+    pending = new LinkedHashMap<>();
+    for (Map.Entry<Key, Row> entry : rows.entrySet())
+    {
+      Row row = entry.getValue();
+      Row update = newer.remove(entry.getKey());
+      if (update != null)
+      {
+        row.columns.mergeIn(update.columns);
+      }
+      pending.put(entry.getKey(), row);
+    }
+    pending.putAll(newer);
+  }
+
+  /**
+   * Writes the pending rows with a connection of the data source on the calling thread, once the flush in progress
+   * if any is completed; the merges arriving after are refused. The rows that cannot be written are dropped.
+   */
+  void drain(DataSource ds)
+  {
+    synchronized (this)
+    {
+      if (closed)
+      {
+        return;
+      }
+      closed = true;
+    }
+    vertx.cancelTimer(timer);
+    try (Connection conn = ds.getConnection())
+    {
+      write(conn, null);
+    }
+    catch (SQLException | RuntimeException e)
+    {
+      int rows = take().size();
+      dropped.add(rows);
+      log.error("Failure in draining the write-behind, " + rows + " rows dropped", e);
+    }
+  }
+
+  public synchronized int pendingRows()
+  {
+    return pending.size();
+  }
+
+  /**
+   * The bound of the pending rows
+   */
+  public int maxRows()
+  {
+    return maxRows;
+  }
+
+  /**
+   * The number of merges accepted, coalesced or not
+   */
+  public long mergeCount()
+  {
+    return merges.sum();
+  }
+
+  /**
+   * The number of merges to a row already pending
+   */
+  public long coalescedCount()
+  {
+    return coalesced.sum();
+  }
+
+  /**
+   * The number of merges refused because write_behind_max_rows rows were pending
+   */
+  public long rejectedCount()
+  {
+    return rejected.sum();
+  }
+
+  /**
+   * The number of rows and merges dropped on close
+   */
+  public long droppedCount()
+  {
+    return dropped.sum();
+  }
+
+  public long writtenCount()
+  {
+    return written.sum();
+  }
+
+  public long flushCount()
+  {
+    return flushes.sum();
+  }
+
+  /**
+   * The number of flushes whose batch failed, retried row by row or with the next flush
+   */
+  public long failedFlushCount()
+  {
+    return failedFlushes.sum();
+  }
+
+  /**
+   * The number of rows dropped because they failed on their own
+   */
+  public long failedRowCount()
+  {
+    return failedRows.sum();
+  }
+
+  /**
+   * The milliseconds the oldest row of the last flush was pending
+   */
+  public double lastFlushLagMillis()
+  {
+    return lastFlushLag / 1000000d;
+  }
+
+  public double maxFlushLagMillis()
+  {
+    return maxFlushLag / 1000000d;
+  }
+
+  public JsonObject toJson()
+  {
+    return new JsonObject()
+      .put("pendingRows", pendingRows())
+      .put("maxRows", maxRows)
+      .put("merges", mergeCount())
+      .put("coalesced", coalescedCount())
+      .put("rejected", rejectedCount())
+      .put("dropped", droppedCount())
+      .put("written", writtenCount())
+      .put("flushes", flushCount())
+      .put("failedFlushes", failedFlushCount())
+      .put("failedRows", failedRowCount())
+      .put("lastFlushLagMillis", lastFlushLagMillis())
+      .put("maxFlushLagMillis", maxFlushLagMillis());
+  }
+
+  /*
+  Runs write on a connection of the pool, the handler is called with the rows written
+   */
+  @FunctionalInterface
+  interface Flush
+  {
+    void flush(Context ctx, Handler<AsyncResult<Integer>> handler);
+  }
+
+  private static final class Key
+  {
+    private final String table;
+    private final JsonObject key;
+    private final int hash;
+
+    Key(String table, JsonObject key)
+    {
+      this.table = table;
+      this.key = key.copy();
+      this.hash = 31 * table.hashCode() + this.key.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+      {
+        return true;
+      }
+      if (!(o instanceof Key))
+      {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash && table.equals(other.table) && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+  }
+
+  private static final class Row
+  {
+    private final String table;
+    private final JsonObject key;
+    private final JsonObject columns;
+    private final long since;
+
+    Row(String table, JsonObject key, JsonObject columns, long since)
+    {
+      this.table = table;
+      this.key = key;
+      this.columns = columns;
+      this.since = since;
+    }
+  }
+}
@@ -25,6 +25,7 @@ import io.vertx.core.impl.TaskQueue;
 import io.vertx.ext.sql.SQLOptions;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 
@@ -39,6 +40,7 @@ public abstract class AbstractJDBCAction<T> {
   protected final SQLOptions options;
   protected final ContextInternal ctx;
   protected final JPAStatementHelper helper;
+  protected JPAStatementCache statementCache;
 
   protected AbstractJDBCAction(Vertx vertx, SQLOptions options, ContextInternal ctx) {
     this(vertx, null, options, ctx);
@@ -63,6 +65,14 @@ public abstract class AbstractJDBCAction<T> {
     }
   }
 
+  /**
+   * Prepared statements will be borrowed from and returned to the given cache of the connection.
+   */
+  public AbstractJDBCAction<T> withStatementCache(JPAStatementCache statementCache) {
+    this.statementCache = statementCache;
+    return this;
+  }
+
   public void execute(Connection conn, TaskQueue statementsQueue, Handler<AsyncResult<T>> resultHandler) {
     ctx.executeBlocking(future -> handle(conn, future), statementsQueue, resultHandler);
   }
@@ -71,6 +81,28 @@ public abstract class AbstractJDBCAction<T> {
 
   protected abstract String name();
 
+  protected PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+    return prepareStatement(conn, sql, JPAStatementCache.DEFAULT_KEYS);
+  }
+
+  protected PreparedStatement prepareStatement(Connection conn, String sql, int autoGeneratedKeys)
+    throws SQLException {
+    if (statementCache != null) {
+      return statementCache.borrow(conn, sql, autoGeneratedKeys);
+    }
+    return autoGeneratedKeys == JPAStatementCache.DEFAULT_KEYS ?
+      conn.prepareStatement(sql) :
+      conn.prepareStatement(sql, autoGeneratedKeys);
+  }
+
+  protected void closeStatement(PreparedStatement statement) throws SQLException {
+    if (statementCache != null) {
+      statementCache.release(statement);
+    } else {
+      statement.close();
+    }
+  }
+
   void applyStatementOptions(Statement statement) throws SQLException {
     if (options != null) {
       if (options.getQueryTimeout() > 0) {
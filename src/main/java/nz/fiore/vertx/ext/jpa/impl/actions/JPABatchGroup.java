@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.json.JsonArray;
+import nz.fiore.vertx.ext.jpa.sql.BatchResult;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The rows of a batch operation sharing the same sql, with the position of each row in the original list so the
+ * update counts and the generated keys can be reported in the order the rows were sent.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+final class JPABatchGroup
+{
+
+  private final JPASqlTemplate template;
+  private final List<Integer> positions = new ArrayList<>();
+  private final List<Object[]> values = new ArrayList<>();
+
+  JPABatchGroup(JPASqlTemplate template)
+  {
+    this.template = template;
+  }
+
+  JPASqlTemplate template()
+  {
+    return template;
+  }
+
+  void add(int position, Object[] in)
+  {
+    positions.add(position);
+    values.add(in);
+  }
+
+  int size()
+  {
+    return values.size();
+  }
+
+  int position(int i)
+  {
+    return positions.get(i);
+  }
+
+  Object[] values(int i)
+  {
+    return values.get(i);
+  }
+
+  /**
+   * Executes the rows in chunks of batchSize, the update count and the generated key of each row are stored in counts
+   * and keys at its original position.
+   */
+  void execute(JPAStatementHelper helper, PreparedStatement statement, int batchSize, int[] counts, Object[] keys)
+    throws SQLException
+  {
+    int size = values.size();
+    int[] types = template.types(helper, statement.getConnection(), statement);
+    for (int from = 0; from < size; from += batchSize)
+    {
+      int to = Math.min(from + batchSize, size);
+      for (int i = from; i < to; i++)
+      {
+        helper.fillStatement(statement, values.get(i), types);
+        statement.addBatch();
+      }
+      int[] chunk = statement.executeBatch();
+      for (int i = 0; i < chunk.length && from + i < to; i++)
+      {
+        counts[positions.get(from + i)] = chunk[i];
+      }
+      generatedKeys(statement, keys, from, to);
+    }
+  }
+
+  /**
+   * Stores the keys generated by the rows from (inclusive) to (exclusive) at their original position; the keys can
+   * be matched to the rows only when the driver returns one for each row, otherwise they are left null.
+   */
+  void generatedKeys(Statement statement, Object[] keys, int from, int to)
+  {
+    List<Object> generated = generatedKeys(statement);
+    if (generated.size() == to - from)
+    {
+      for (int i = from; i < to; i++)
+      {
+        keys[positions.get(i)] = generated.get(i - from);
+      }
+    }
+  }
+
+  private static List<Object> generatedKeys(Statement statement)
+  {
+    List<Object> keys = new ArrayList<>();
+    ResultSet rs = null;
+    try
+    {
+      // the resource might also fail
+      // specially on oracle DBMS
+      rs = statement.getGeneratedKeys();
+      if (rs != null)
+      {
+        while (rs.next())
+        {
+          keys.add(JPAStatementHelper.convertSqlValue(rs.getObject(1)));
+        }
+      }
+    }
+    catch (SQLException e)
+    {
+      // do not crash if no permissions
+    }
+    finally
+    {
+      if (rs != null)
+      {
+        try
+        {
+          rs.close();
+        }
+        catch (SQLException e)
+        {
+          // ignore close error
+        }
+      }
+    }
+    return keys;
+  }
+
+  static BatchResult result(int[] counts, Object[] keys)
+  {
+    int updated = 0;
+    List<Integer> updateCounts = new ArrayList<>(counts.length);
+    for (int count : counts)
+    {
+      if (count > 0)
+      {
+        updated += count;
+      }
+      updateCounts.add(count);
+    }
+    return new BatchResult(updated, updateCounts, new JsonArray(new ArrayList<>(Arrays.asList(keys))));
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPAClose extends AbstractJDBCAction<Void>
+{
+
+  public JPAClose(Vertx vertx, ContextInternal ctx)
+  {
+    super(vertx, null, ctx);
+  }
+
+  @Override
+  public Void execute(Connection conn) throws SQLException
+  {
+    // the cached statements must be closed before the connection goes back to the pool
+    if (statementCache != null)
+    {
+      statementCache.close();
+    }
+    conn.close();
+    return null;
+  }
+
+  @Override
+  protected String name()
+  {
+    return "close";
+  }
+}
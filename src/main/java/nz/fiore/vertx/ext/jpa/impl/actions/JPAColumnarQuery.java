@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLOptions;
+import nz.fiore.vertx.ext.jpa.sql.ColumnarResultSet;
+import nz.fiore.vertx.ext.jpa.util.RestrinctionHandler;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPAColumnarQuery extends AbstractJDBCAction<ColumnarResultSet>
+{
+/*
+SELECT * from table_name WHERE column = :VAR1 ;
+read column by column
+ */
+
+  private final String sql;
+  private final Object[] orderedParams;
+
+  public JPAColumnarQuery(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    String sql, JsonObject params)
+  {
+    super(vertx, helper, options, ctx);
+    JPANamedQuery query = JPANamedQuery.parse(helper, sql);
+    this.sql = query.sql();
+    this.orderedParams = query.bind(params);
+  }
+
+  public JPAColumnarQuery(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    String table, JsonObject params, RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler)
+  {
+    super(vertx, helper, options, ctx);
+    StringBuffer sb = new StringBuffer();
+    restictionHandler.handle(params, table, sb);
+    JPANamedQuery query = JPANamedQuery.parse(helper, sb.toString());
+    this.sql = query.sql();
+    this.orderedParams = query.bind(params);
+  }
+
+  @Override
+  public ColumnarResultSet execute(Connection conn) throws SQLException
+  {
+    PreparedStatement statement = prepareStatement(conn, sql);
+    try
+    {
+      // apply statement options
+      applyStatementOptions(statement);
+
+      helper.fillStatement(statement, orderedParams);
+      try (ResultSet rs = statement.executeQuery())
+      {
+        return helper.asColumns(rs);
+      }
+    }
+    finally
+    {
+      closeStatement(statement);
+    }
+  }
+
+  @Override
+  protected String name()
+  {
+    return "query";
+  }
+}
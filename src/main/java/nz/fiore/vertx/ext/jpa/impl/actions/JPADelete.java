@@ -23,7 +23,6 @@ import io.vertx.ext.sql.SQLOptions;
 import io.vertx.ext.sql.UpdateResult;
 
 import java.sql.*;
-import java.util.StringJoiner;
 
 /**
  * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
@@ -34,41 +33,29 @@ public class JPADelete extends AbstractJDBCAction<UpdateResult>
 DELETE FROM table_name WHERE some_column=some_value;
  */
 
-  private final String table;
-  private final JsonObject key;
-  private final JsonArray in;
-  private String sql;
+  private final JPASqlTemplate template;
+  private final String sql;
+  private final Object[] in;
 
   public JPADelete(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx, String table,
     JsonObject key)
   {
     super(vertx, helper, options, ctx);
-    this.key = key;
-    this.table = table;
-    this.in = new JsonArray();
-    init();
-  }
-
-  private void init()
-  {
-    StringJoiner where = new StringJoiner("=? AND ", "DELETE FROM " + table + " WHERE ", "=? ");
-    this.key.stream().forEach(
-      coppia -> {
-        where.add(coppia.getKey());
-        this.in.add(coppia.getValue());
-      }
-    );
-    this.sql = where.toString();
+    JPASqlTemplate template = JPASqlTemplate.delete(helper, table, key);
+    this.template = template;
+    this.sql = template.sql();
+    this.in = template.bind(null, key);
   }
 
   @Override
   public UpdateResult execute(Connection conn) throws SQLException
   {
     final boolean returKeys = true;
-    try (PreparedStatement statement = conn.prepareStatement(sql, Statement.NO_GENERATED_KEYS))
+    PreparedStatement statement = prepareStatement(conn, sql, Statement.NO_GENERATED_KEYS);
+    try
     {
 
-      helper.fillStatement(statement, in);
+      helper.fillStatement(statement, in, template.types(helper, conn, statement));
 
       int updated = statement.executeUpdate();
       JsonArray keys = new JsonArray();
@@ -116,6 +103,10 @@ DELETE FROM table_name WHERE some_column=some_value;
 
       return new UpdateResult(updated, keys);
     }
+    finally
+    {
+      closeStatement(statement);
+    }
   }
 
   @Override
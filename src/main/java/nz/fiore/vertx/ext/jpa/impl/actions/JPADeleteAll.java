@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.sql.SQLOptions;
+import io.vertx.ext.sql.UpdateResult;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPADeleteAll extends AbstractJDBCAction<UpdateResult>
+{
+/*
+DELETE FROM table_name WHERE some_column IN (value1,value2,...);
+ */
+
+  private final String table;
+  private final String keyColumn;
+  private final JsonArray keys;
+  private final boolean inTransaction;
+
+  public JPADeleteAll(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx, String table,
+    String keyColumn, JsonArray keys, boolean inTransaction)
+  {
+    super(vertx, helper, options, ctx);
+    this.table = table;
+    this.keyColumn = keyColumn;
+    this.keys = keys;
+    this.inTransaction = inTransaction;
+  }
+
+  @Override
+  public UpdateResult execute(Connection conn) throws SQLException
+  {
+    // a transaction already opened by the caller is left to the caller
+    boolean transaction = inTransaction && conn.getAutoCommit();
+    if (transaction)
+    {
+      conn.setAutoCommit(false);
+    }
+    try
+    {
+      int updated = 0;
+      JPAInList chunks = new JPAInList(keys, helper.inListSize());
+      while (chunks.hasNext())
+      {
+        Object[] in = chunks.next();
+        JPASqlTemplate template = JPASqlTemplate.deleteIn(helper, table, keyColumn, in.length);
+        String sql = template.sql();
+        PreparedStatement statement = prepareStatement(conn, sql, Statement.NO_GENERATED_KEYS);
+        try
+        {
+          helper.fillStatement(statement, in, template.types(helper, conn, statement));
+          updated += statement.executeUpdate();
+        }
+        finally
+        {
+          closeStatement(statement);
+        }
+      }
+      if (transaction)
+      {
+        conn.commit();
+      }
+      return new UpdateResult(updated, new JsonArray());
+    }
+    catch (SQLException | RuntimeException e)
+    {
+      if (transaction)
+      {
+        try
+        {
+          conn.rollback();
+        }
+        catch (SQLException re)
+        {
+          e.addSuppressed(re);
+        }
+      }
+      throw e;
+    }
+    finally
+    {
+      if (transaction)
+      {
+        conn.setAutoCommit(true);
+      }
+    }
+  }
+
+  @Override
+  protected String name()
+  {
+    return "deleteAll";
+  }
+}
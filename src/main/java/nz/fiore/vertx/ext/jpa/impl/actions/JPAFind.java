@@ -22,7 +22,6 @@ import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLOptions;
 
 import java.sql.*;
-import java.util.StringJoiner;
 
 /**
  * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
@@ -33,42 +32,30 @@ public class JPAFind extends AbstractJDBCAction<ResultSet>
 SELECT * FROM  table_name WHERE some_column=some_value;
  */
 
-   private final String table;
-   private final JsonObject key;
-   private final JsonObject in;
-   private String sql;
+   private final JPASqlTemplate template;
+   private final String sql;
+   private final Object[] in;
 
    public JPAFind(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx, String table,
             JsonObject key)
    {
       super(vertx, helper, options, ctx);
-      this.key = key;
-      this.table = table;
-      this.in = new JsonObject();
-      init();
-   }
-
-   private void init()
-   {
-      StringJoiner where = new StringJoiner(",", " WHERE ", " ");
-      this.key.stream().forEach(
-               coppia -> {
-                  where.add(coppia.getKey() + "=?");
-                  this.in.put("k_" + coppia.getKey(), coppia.getValue());
-               }
-      );
-      this.sql = "select * FROM " + table + where.toString();
+      JPASqlTemplate template = JPASqlTemplate.find(helper, table, key);
+      this.template = template;
+      this.sql = template.sql();
+      this.in = template.bind(null, key);
    }
 
    @Override
    public ResultSet execute(Connection conn) throws SQLException
    {
-      try (PreparedStatement statement = conn.prepareStatement(sql))
+      PreparedStatement statement = prepareStatement(conn, sql);
+      try
       {
          // apply statement options
          applyStatementOptions(statement);
 
-         helper.fillStatement(statement, in);
+         helper.fillStatement(statement, in, template.types(helper, conn, statement));
          boolean retResult = statement.execute();
 
          io.vertx.ext.sql.ResultSet resultSet = null;
@@ -84,7 +71,7 @@ SELECT * FROM  table_name WHERE some_column=some_value;
                   // 1st rs
                   if (ref == null)
                   {
-                     resultSet = helper.asList(rs);
+                     resultSet = helper.asList(rs, sql);
                      ref = resultSet;
                   }
                   else
@@ -99,6 +86,10 @@ SELECT * FROM  table_name WHERE some_column=some_value;
 
          return resultSet;
       }
+      finally
+      {
+         closeStatement(statement);
+      }
    }
 
    @Override
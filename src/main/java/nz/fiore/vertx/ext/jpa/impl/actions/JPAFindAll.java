@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLOptions;
+import nz.fiore.vertx.ext.jpa.sql.FindAllResult;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPAFindAll extends AbstractJDBCAction<FindAllResult>
+{
+/*
+SELECT * FROM  table_name WHERE some_column IN (value1,value2,...);
+ */
+
+  private final String table;
+  private final String keyColumn;
+  private final JsonArray keys;
+
+  public JPAFindAll(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx, String table,
+    String keyColumn, JsonArray keys)
+  {
+    super(vertx, helper, options, ctx);
+    this.table = table;
+    this.keyColumn = keyColumn;
+    this.keys = keys;
+  }
+
+  @Override
+  public FindAllResult execute(Connection conn) throws SQLException
+  {
+    // the keys are matched by their string form: the driver can return another type (Long for Integer...)
+    Map<String, Object> requested = new LinkedHashMap<>();
+    for (Object key : keys)
+    {
+      if (key != null)
+      {
+        requested.putIfAbsent(key.toString(), key);
+      }
+    }
+
+    Map<String, JsonObject> found = new HashMap<>();
+    JPAInList chunks = new JPAInList(new JsonArray(new ArrayList<>(requested.values())),
+      helper.inListSize());
+    while (chunks.hasNext())
+    {
+      Object[] in = chunks.next();
+      JPASqlTemplate template = JPASqlTemplate.findIn(helper, table, keyColumn, in.length);
+      String sql = template.sql();
+      PreparedStatement statement = prepareStatement(conn, sql);
+      try
+      {
+        // apply statement options
+        applyStatementOptions(statement);
+
+        helper.fillStatement(statement, in, template.types(helper, conn, statement));
+        try (java.sql.ResultSet rs = statement.executeQuery())
+        {
+          ResultSet resultSet = helper.asList(rs, sql);
+          int column = keyColumn(resultSet.getColumnNames());
+          List<JsonArray> results = resultSet.getResults();
+          List<JsonObject> rows = resultSet.getRows();
+          for (int i = 0; i < rows.size(); i++)
+          {
+            Object value = results.get(i).getValue(column);
+            if (value != null)
+            {
+              found.putIfAbsent(value.toString(), rows.get(i));
+            }
+          }
+        }
+      }
+      finally
+      {
+        closeStatement(statement);
+      }
+    }
+
+    Map<Object, JsonObject> rowsByKey = new LinkedHashMap<>();
+    JsonArray missingKeys = new JsonArray();
+    for (Map.Entry<String, Object> key : requested.entrySet())
+    {
+      JsonObject row = found.get(key.getKey());
+      if (row != null)
+      {
+        rowsByKey.put(key.getValue(), row);
+      }
+      else
+      {
+        missingKeys.add(key.getValue());
+      }
+    }
+    return new FindAllResult(rowsByKey, missingKeys);
+  }
+
+  /*
+  the label can differ in case from the requested column, most databases report it upper case
+   */
+  private int keyColumn(List<String> columnNames) throws SQLException
+  {
+    for (int i = 0; i < columnNames.size(); i++)
+    {
+      if (keyColumn.equalsIgnoreCase(columnNames.get(i)))
+      {
+        return i;
+      }
+    }
+    throw new SQLException("Key column " + keyColumn + " not found in " + table);
+  }
+
+  @Override
+  protected String name()
+  {
+    return "findAll";
+  }
+}
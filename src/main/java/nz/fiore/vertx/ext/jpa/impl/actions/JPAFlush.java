@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLOptions;
+import nz.fiore.vertx.ext.jpa.sql.BatchResult;
+import nz.fiore.vertx.ext.jpa.sql.FlushResult;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The writes of a unit of work, grouped as they are queued by kind and sql, executed as JDBC batches: first the
+ * inserts, then the updates and last the deletes.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPAFlush extends AbstractJDBCAction<FlushResult>
+{
+/*
+INSERT INTO table_name (column1,column2,column3,...) VALUES (value1,value2,value3,...);
+UPDATE table_name SET column1=value1,column2=value2,... WHERE some_column=some_value;
+DELETE FROM table_name WHERE some_column=some_value;
+executed with addBatch/executeBatch, one batch for each sql, in this order
+ */
+
+  private final Map<String, JPABatchGroup> persists = new LinkedHashMap<>();
+  private final Map<String, JPABatchGroup> merges = new LinkedHashMap<>();
+  private final Map<String, JPABatchGroup> deletes = new LinkedHashMap<>();
+  private int size;
+
+  public JPAFlush(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx)
+  {
+    super(vertx, helper, options, ctx);
+  }
+
+  /*
+  the values are bound when the write is queued, later changes of the json are not flushed
+   */
+  public void persist(String table, JsonObject params)
+  {
+    JPASqlTemplate template = JPASqlTemplate.persist(helper, table, params);
+    add(persists, template, template.bind(params, null));
+  }
+
+  public void merge(String table, JsonObject params, JsonObject key)
+  {
+    JPASqlTemplate template = JPASqlTemplate.merge(helper, table, params, key);
+    add(merges, template, template.bind(params, key));
+  }
+
+  public void delete(String table, JsonObject key)
+  {
+    JPASqlTemplate template = JPASqlTemplate.delete(helper, table, key);
+    add(deletes, template, template.bind(null, key));
+  }
+
+  private void add(Map<String, JPABatchGroup> groups, JPASqlTemplate template, Object[] in)
+  {
+    groups.computeIfAbsent(template.sql(), sql -> new JPABatchGroup(template)).add(size++, in);
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  @Override
+  public FlushResult execute(Connection conn) throws SQLException
+  {
+    int[] counts = new int[size];
+    Object[] keys = new Object[size];
+    int batchSize = helper.batchSize();
+    int roundTrips = execute(conn, persists, Statement.RETURN_GENERATED_KEYS, batchSize, counts, keys);
+    roundTrips += execute(conn, merges, Statement.NO_GENERATED_KEYS, batchSize, counts, keys);
+    roundTrips += execute(conn, deletes, Statement.NO_GENERATED_KEYS, batchSize, counts, keys);
+    BatchResult result = JPABatchGroup.result(counts, keys);
+    return new FlushResult(result.getUpdated(), result.getUpdateCounts(), result.getKeys(), size, roundTrips);
+  }
+
+  private int execute(Connection conn, Map<String, JPABatchGroup> groups, int autoGeneratedKeys, int batchSize,
+    int[] counts, Object[] keys) throws SQLException
+  {
+    int roundTrips = 0;
+    for (JPABatchGroup group : groups.values())
+    {
+      PreparedStatement statement = prepareStatement(conn, group.template().sql(), autoGeneratedKeys);
+      try
+      {
+        group.execute(helper, statement, batchSize, counts, keys);
+      }
+      finally
+      {
+        closeStatement(statement);
+      }
+      roundTrips += (group.size() + batchSize - 1) / batchSize;
+    }
+    return roundTrips;
+  }
+
+  @Override
+  protected String name()
+  {
+    return "flush";
+  }
+}
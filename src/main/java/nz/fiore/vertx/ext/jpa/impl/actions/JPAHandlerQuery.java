@@ -25,8 +25,6 @@ import io.vertx.ext.sql.SQLOptions;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
@@ -37,41 +35,25 @@ public class JPAHandlerQuery extends AbstractJDBCAction<ResultSet>
 SELECT * from INTO table_name  WHERE column = :VAR1 ;
  */
 
-  private final JsonObject params;
-  private final JsonObject orderedParams;
-  private String table;
-  private String sql;
-  private final RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler;
+  private final String sql;
+  private final Object[] orderedParams;
 
   public JPAHandlerQuery(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx, String table,
     JsonObject params, RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler)
   {
     super(vertx, helper, options, ctx);
-    this.params = params;
-    this.table = table;
-    this.orderedParams = new JsonObject();
-    this.restictionHandler = restictionHandler;
-    init();
-  }
-
-  private void init()
-  {
     StringBuffer sb = new StringBuffer();
     restictionHandler.handle(params, table, sb);
-    Pattern findParametersPattern = Pattern.compile("(?<!')(:[\\w]*)(?!')");
-    Matcher matcher = findParametersPattern.matcher(sb.toString());
-    while (matcher.find())
-    {
-      orderedParams.put(matcher.group().substring(1), params.getValue(matcher.group().substring(1)));
-    }
-    sql = sb.toString().replaceAll(findParametersPattern.pattern(), "?");
-
+    JPANamedQuery query = JPANamedQuery.parse(helper, sb.toString());
+    this.sql = query.sql();
+    this.orderedParams = query.bind(params);
   }
 
   @Override
   public ResultSet execute(Connection conn) throws SQLException
   {
-    try (PreparedStatement statement = conn.prepareStatement(sql))
+    PreparedStatement statement = prepareStatement(conn, sql);
+    try
     {
       // apply statement options
       applyStatementOptions(statement);
@@ -92,7 +74,7 @@ SELECT * from INTO table_name  WHERE column = :VAR1 ;
             // 1st rs
             if (ref == null)
             {
-              resultSet = helper.asList(rs);
+              resultSet = helper.asList(rs, sql);
               ref = resultSet;
             }
             else
@@ -107,6 +89,10 @@ SELECT * from INTO table_name  WHERE column = :VAR1 ;
 
       return resultSet;
     }
+    finally
+    {
+      closeStatement(statement);
+    }
   }
 
   @Override
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.json.JsonArray;
+
+/**
+ * Splits a list of keys in <code>IN (?,?,...)</code> chunks whose sizes are powers of two, so only a few statement
+ * shapes exist for any number of keys. A chunk smaller than its bucket is padded repeating its last key, that does
+ * not change the rows matched.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+final class JPAInList
+{
+
+  private final JsonArray keys;
+  private final int maxSize;
+  private int from;
+
+  JPAInList(JsonArray keys, int maxSize)
+  {
+    this.keys = keys;
+    // the biggest power of two not over maxSize
+    this.maxSize = Integer.highestOneBit(Math.max(1, maxSize));
+  }
+
+  boolean hasNext()
+  {
+    return from < keys.size();
+  }
+
+  /**
+   * The values of the next chunk, its length is the bucket size.
+   */
+  Object[] next()
+  {
+    int size = Math.min(keys.size() - from, maxSize);
+    int bucket = bucket(size);
+    Object[] in = new Object[bucket];
+    for (int i = 0; i < bucket; i++)
+    {
+      in[i] = keys.getValue(from + Math.min(i, size - 1));
+    }
+    from += size;
+    return in;
+  }
+
+  static int bucket(int size)
+  {
+    int bucket = Integer.highestOneBit(size);
+    return bucket == size ? bucket : bucket << 1;
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLOptions;
+import nz.fiore.vertx.ext.jpa.sql.BatchResult;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPAIncrement extends AbstractJDBCAction<BatchResult>
+{
+/*
+UPDATE table_name SET column1=column1+value1 WHERE some_column=some_value;
+executed with addBatch/executeBatch, one batch for each table, column and key set
+ */
+
+  private final List<Delta> deltas;
+
+  public JPAIncrement(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    List<Delta> deltas)
+  {
+    super(vertx, helper, options, ctx);
+    this.deltas = deltas;
+  }
+
+  @Override
+  public BatchResult execute(Connection conn) throws SQLException
+  {
+    Map<String, JPABatchGroup> groups = new LinkedHashMap<>();
+    for (int i = 0; i < deltas.size(); i++)
+    {
+      Delta delta = deltas.get(i);
+      JPASqlTemplate template = JPASqlTemplate.increment(helper, delta.table, delta.column, delta.key);
+      groups.computeIfAbsent(template.sql(), sql -> new JPABatchGroup(template))
+        .add(i, template.bind(new JsonObject().put(delta.column, delta.delta), delta.key));
+    }
+
+    int[] counts = new int[deltas.size()];
+    Object[] generated = new Object[deltas.size()];
+    int batchSize = helper.batchSize();
+    for (JPABatchGroup group : groups.values())
+    {
+      PreparedStatement statement = prepareStatement(conn, group.template().sql(), Statement.NO_GENERATED_KEYS);
+      try
+      {
+        group.execute(helper, statement, batchSize, counts, generated);
+      }
+      finally
+      {
+        closeStatement(statement);
+      }
+    }
+    return JPABatchGroup.result(counts, generated);
+  }
+
+  @Override
+  protected String name()
+  {
+    return "increment";
+  }
+
+  /**
+   * The delta to add to the column of the row with the key.
+   */
+  public static final class Delta
+  {
+    private final String table;
+    private final JsonObject key;
+    private final String column;
+    private final long delta;
+
+    public Delta(String table, JsonObject key, String column, long delta)
+    {
+      this.table = table;
+      this.key = key;
+      this.column = column;
+      this.delta = delta;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The values of a row as returned by the driver, each one converted with
+ * {@link JPAStatementHelper#convertSqlValue(Object)} the first time it is read. Used as the list of a JsonArray,
+ * so the rows of a result set only pay the conversion of the columns the application looks at.
+ * <p>
+ * Large objects and arrays are read at once: they are only valid while the statement and the connection are open.
+ * The row can be changed like any JsonArray: the first add or remove copies the converted values in a list.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+final class JPALazyRow extends AbstractList<Object> implements RandomAccess
+{
+
+  private final Object[] values;
+  private final boolean[] converted;
+  private List<Object> copy;
+
+  JPALazyRow(Object[] values) throws SQLException
+  {
+    this.values = values;
+    this.converted = new boolean[values.length];
+    for (int i = 0; i < values.length; i++)
+    {
+      Object value = values[i];
+      if (value == null || value instanceof Clob || value instanceof Blob || value instanceof Array)
+      {
+        values[i] = JPAStatementHelper.convertSqlValue(value);
+        converted[i] = true;
+      }
+    }
+  }
+
+  @Override
+  public Object get(int index)
+  {
+    if (copy != null)
+    {
+      return copy.get(index);
+    }
+    if (!converted[index])
+    {
+      try
+      {
+        values[index] = JPAStatementHelper.convertSqlValue(values[index]);
+      }
+      catch (SQLException e)
+      {
+        throw new RuntimeException(e);
+      }
+      converted[index] = true;
+    }
+    return values[index];
+  }
+
+  @Override
+  public Object set(int index, Object element)
+  {
+    if (copy != null)
+    {
+      return copy.set(index, element);
+    }
+    Object previous = get(index);
+    values[index] = element;
+    return previous;
+  }
+
+  @Override
+  public void add(int index, Object element)
+  {
+    copy().add(index, element);
+    modCount++;
+  }
+
+  @Override
+  public Object remove(int index)
+  {
+    Object previous = copy().remove(index);
+    modCount++;
+    return previous;
+  }
+
+  @Override
+  public int size()
+  {
+    return copy != null ? copy.size() : values.length;
+  }
+
+  private List<Object> copy()
+  {
+    if (copy == null)
+    {
+      List<Object> list = new ArrayList<>(values.length + 1);
+      for (int i = 0; i < values.length; i++)
+      {
+        list.add(get(i));
+      }
+      copy = list;
+    }
+    return copy;
+  }
+}
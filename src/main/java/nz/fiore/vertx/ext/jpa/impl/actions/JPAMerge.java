@@ -23,7 +23,6 @@ import io.vertx.ext.sql.SQLOptions;
 import io.vertx.ext.sql.UpdateResult;
 
 import java.sql.*;
-import java.util.StringJoiner;
 
 /**
  * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
@@ -34,48 +33,29 @@ public class JPAMerge extends AbstractJDBCAction<UpdateResult>
 UPDATE table_name SET column1=value1,column2=value2,... WHERE some_column=some_value;
  */
 
-  private final String table;
-  private final JsonObject params;
-  private final JsonObject key;
-  private final JsonObject in;
-  private String sql;
+  private final JPASqlTemplate template;
+  private final String sql;
+  private final Object[] in;
 
 
-  public JPAMerge(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx, JsonObject params, String table, JsonObject key) {
+  public JPAMerge(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    JsonObject params, String table, JsonObject key) {
     super(vertx, helper, options, ctx);
-    this.params = params;
-    this.key = key;
-    this.table = table;
-    this.in = new JsonObject();
-    init();
-  }
-
-  private void init() {
-    StringJoiner toSet = new StringJoiner("=?, ", "UPDATE " + table + " SET ", "=? ");
-    StringJoiner where = new StringJoiner(",", " WHERE ", " ");
-    this.params.stream().forEach(
-      coppia -> {
-        in.put("p_" + coppia.getKey(), coppia.getValue());
-        toSet.add(coppia.getKey());
-      }
-    );
-    this.key.stream().forEach(
-      coppia -> {
-        where.add(coppia.getKey() + "=?");
-        this.in.put("k_" + coppia.getKey(), coppia.getValue());
-      }
-    );
-    this.sql = toSet.toString() + where.toString();
+    JPASqlTemplate template = JPASqlTemplate.merge(helper, table, params, key);
+    this.template = template;
+    this.sql = template.sql();
+    this.in = template.bind(params, key);
   }
 
   @Override
   public UpdateResult execute(Connection conn) throws SQLException
   {
     final boolean returKeys = true;
-    try (PreparedStatement statement = conn.prepareStatement(sql, Statement.NO_GENERATED_KEYS)) {
+    PreparedStatement statement = prepareStatement(conn, sql, Statement.NO_GENERATED_KEYS);
+    try {
 
 
-      helper.fillStatement(statement, in);
+      helper.fillStatement(statement, in, template.types(helper, conn, statement));
 
       int updated = statement.executeUpdate();
       JsonArray keys = new JsonArray();
@@ -109,6 +89,8 @@ UPDATE table_name SET column1=value1,column2=value2,... WHERE some_column=some_v
       }
 
       return new UpdateResult(updated, keys);
+    } finally {
+      closeStatement(statement);
     }
   }
 
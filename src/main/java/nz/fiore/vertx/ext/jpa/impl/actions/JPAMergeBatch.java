@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLOptions;
+import nz.fiore.vertx.ext.jpa.sql.BatchResult;
+
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPAMergeBatch extends AbstractJDBCAction<BatchResult>
+{
+/*
+UPDATE table_name SET column1=value1,column2=value2,... WHERE some_column=some_value;
+executed with addBatch/executeBatch, one batch for each column and key set
+ */
+
+  private final List<JsonObject> params;
+  private final Map<String, JPABatchGroup> groups;
+
+  public JPAMergeBatch(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    String table, List<JsonObject> params, List<JsonObject> keys)
+  {
+    super(vertx, helper, options, ctx);
+    // checked before a connection is borrowed
+    if (params.size() != keys.size())
+    {
+      throw new IllegalArgumentException(
+        "params and keys must have the same size: " + params.size() + " != " + keys.size());
+    }
+    this.params = params;
+    this.groups = new LinkedHashMap<>();
+    for (int i = 0; i < params.size(); i++)
+    {
+      JsonObject row = params.get(i);
+      JsonObject key = keys.get(i);
+      JPASqlTemplate template = JPASqlTemplate.merge(helper, table, row, key);
+      groups.computeIfAbsent(template.sql(), sql -> new JPABatchGroup(template))
+        .add(i, template.bind(row, key));
+    }
+  }
+
+  @Override
+  public BatchResult execute(Connection conn) throws SQLException
+  {
+    int[] counts = new int[params.size()];
+    Object[] generated = new Object[params.size()];
+    int batchSize = helper.batchSize();
+    for (JPABatchGroup group : groups.values())
+    {
+      PreparedStatement statement = prepareStatement(conn, group.template().sql(), Statement.NO_GENERATED_KEYS);
+      try
+      {
+        group.execute(helper, statement, batchSize, counts, generated);
+      }
+      finally
+      {
+        closeStatement(statement);
+      }
+    }
+    return JPABatchGroup.result(counts, generated);
+  }
+
+  @Override
+  protected String name()
+  {
+    return "mergeBatch";
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A sql with named parameters (<code>:NAME</code>) parsed once: the sql rewritten with positional <code>?</code>
+ * and the ordered list of the parameter names to bind.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPANamedQuery
+{
+
+  private static final Pattern PARAMETERS = Pattern.compile("(?<!')(:[\\w]*)(?!')");
+
+  private final String sql;
+  private final String[] names;
+
+  private JPANamedQuery(String sql, String[] names)
+  {
+    this.sql = sql;
+    this.names = names;
+  }
+
+  public static JPANamedQuery parse(JPAStatementHelper helper, String sql)
+  {
+    return helper.namedQueries().get(sql, JPANamedQuery::parse);
+  }
+
+  private static JPANamedQuery parse(String sql)
+  {
+    List<String> names = new ArrayList<>();
+    StringBuffer positional = new StringBuffer(sql.length());
+    Matcher matcher = PARAMETERS.matcher(sql);
+    while (matcher.find())
+    {
+      names.add(matcher.group().substring(1));
+      matcher.appendReplacement(positional, "?");
+    }
+    matcher.appendTail(positional);
+    return new JPANamedQuery(positional.toString(), names.toArray(new String[names.size()]));
+  }
+
+  public String sql()
+  {
+    return sql;
+  }
+
+  public String[] names()
+  {
+    return names;
+  }
+
+  public Object[] bind(JsonObject params)
+  {
+    Object[] values = new Object[names.length];
+    for (int i = 0; i < names.length; i++)
+    {
+      values[i] = params.getValue(names[i]);
+    }
+    return values;
+  }
+}
@@ -23,7 +23,6 @@ import io.vertx.ext.sql.SQLOptions;
 import io.vertx.ext.sql.UpdateResult;
 
 import java.sql.*;
-import java.util.StringJoiner;
 
 /**
  * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
@@ -34,38 +33,28 @@ public class JPAPersist extends AbstractJDBCAction<UpdateResult>
 INSERT INTO table_name (column1,column2,column3,...) VALUES (value1,value2,value3,...);
  */
 
-  private final String table;
-  private final JsonObject params;
-  private String sql;
+  private final JPASqlTemplate template;
+  private final String sql;
+  private final Object[] in;
 
 
-  public JPAPersist(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,  JsonObject params, String table) {
+  public JPAPersist(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    JsonObject params, String table) {
     super(vertx, helper, options, ctx);
-    this.params = params;
-    this.table = table;
-    init();
-  }
-
-  private void init() {
-    StringJoiner columns = new StringJoiner(",", "INSERT INTO " + table + " ( ", " ) ");
-    StringJoiner values = new StringJoiner(",", " VALUES ( ", " )");
-
-    params.stream().forEach(
-      coppia -> {
-        columns.add(coppia.getKey());
-        values.add("?");
-      }
-    );
-    this.sql = columns.toString() + values.toString();
+    JPASqlTemplate template = JPASqlTemplate.persist(helper, table, params);
+    this.template = template;
+    this.sql = template.sql();
+    this.in = template.bind(params, null);
   }
 
   @Override
   public UpdateResult execute(Connection conn) throws SQLException
   {
     final boolean returKeys = true;
-    try (PreparedStatement statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+    PreparedStatement statement = prepareStatement(conn, sql, Statement.RETURN_GENERATED_KEYS);
+    try {
 
-      helper.fillStatement(statement, params);
+      helper.fillStatement(statement, in, template.types(helper, conn, statement));
 
       int updated = statement.executeUpdate();
       JsonArray keys = new JsonArray();
@@ -99,6 +88,8 @@ INSERT INTO table_name (column1,column2,column3,...) VALUES (value1,value2,value
       }
 
       return new UpdateResult(updated, keys);
+    } finally {
+      closeStatement(statement);
     }
   }
 
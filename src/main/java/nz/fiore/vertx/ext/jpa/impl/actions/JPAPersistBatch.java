@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLOptions;
+import nz.fiore.vertx.ext.jpa.sql.BatchResult;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPAPersistBatch extends AbstractJDBCAction<BatchResult>
+{
+/*
+INSERT INTO table_name (column1,column2,column3,...) VALUES (value1,value2,value3,...);
+executed with addBatch/executeBatch, one batch for each column set
+or
+INSERT INTO table_name (column1,column2,column3,...) VALUES (value1,value2,value3,...), (value1,value2,value3,...);
+ */
+
+  private final String table;
+  private final List<JsonObject> rows;
+  private final Map<String, JPABatchGroup> groups;
+
+  public JPAPersistBatch(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    String table, List<JsonObject> rows)
+  {
+    super(vertx, helper, options, ctx);
+    this.table = table;
+    this.rows = rows;
+    this.groups = new LinkedHashMap<>();
+    for (int i = 0; i < rows.size(); i++)
+    {
+      JsonObject row = rows.get(i);
+      JPASqlTemplate template = JPASqlTemplate.persist(helper, table, row);
+      groups.computeIfAbsent(template.sql(), sql -> new JPABatchGroup(template))
+        .add(i, template.bind(row, null));
+    }
+  }
+
+  @Override
+  public BatchResult execute(Connection conn) throws SQLException
+  {
+    int[] counts = new int[rows.size()];
+    Object[] keys = new Object[rows.size()];
+    int batchSize = helper.batchSize();
+    for (JPABatchGroup group : groups.values())
+    {
+      if (helper.multiValuesPersist() && group.template().columns().length > 0)
+      {
+        executeValues(conn, group, counts, keys);
+        continue;
+      }
+      PreparedStatement statement = prepareStatement(conn, group.template().sql(), Statement.RETURN_GENERATED_KEYS);
+      try
+      {
+        group.execute(helper, statement, batchSize, counts, keys);
+      }
+      finally
+      {
+        closeStatement(statement);
+      }
+    }
+    return JPABatchGroup.result(counts, keys);
+  }
+
+  /*
+  the rows of a chunk are limited by the bind parameters the driver accepts, the sql of each chunk size is cached;
+  an insert cannot be padded as an IN list, so the chunk sizes are powers of two and a tail of 13 rows is sent as
+  8, 4 and 1 rows: only a few statement shapes exist for any number of rows
+   */
+  private void executeValues(Connection conn, JPABatchGroup group, int[] counts, Object[] keys) throws SQLException
+  {
+    String[] columns = group.template().columns();
+    int rowsPerChunk = Math.max(1, Math.min(helper.batchSize(), helper.maxBindParameters() / columns.length));
+    int size = group.size();
+    for (int from = 0, to; from < size; from = to)
+    {
+      to = from + Integer.highestOneBit(Math.min(size - from, rowsPerChunk));
+      JPASqlTemplate template = JPASqlTemplate.persistValues(helper, table, columns, to - from);
+      Object[] in = new Object[(to - from) * columns.length];
+      for (int i = from; i < to; i++)
+      {
+        System.arraycopy(group.values(i), 0, in, (i - from) * columns.length, columns.length);
+      }
+      PreparedStatement statement = prepareStatement(conn, template.sql(), Statement.RETURN_GENERATED_KEYS);
+      try
+      {
+        helper.fillStatement(statement, in, template.types(helper, conn, statement));
+        int updated = statement.executeUpdate();
+        // a multi row insert only reports the total
+        int count = updated == to - from ? 1 : Statement.SUCCESS_NO_INFO;
+        for (int i = from; i < to; i++)
+        {
+          counts[group.position(i)] = count;
+        }
+        group.generatedKeys(statement, keys, from, to);
+      }
+      finally
+      {
+        closeStatement(statement);
+      }
+    }
+  }
+
+  @Override
+  protected String name()
+  {
+    return "persistBatch";
+  }
+}
@@ -24,8 +24,6 @@ import io.vertx.ext.sql.SQLOptions;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
@@ -36,36 +34,23 @@ public class JPAQuery extends AbstractJDBCAction<ResultSet>
 SELECT * from INTO table_name  WHERE column = :VAR1 ;
  */
 
-  private final JsonObject params;
-  private final JsonObject orderedParams;
-  private String sql;
+  private final String sql;
+  private final Object[] orderedParams;
 
   public JPAQuery(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx, JsonObject params,
     String sql)
   {
     super(vertx, helper, options, ctx);
-    this.params = params;
-    this.sql = sql;
-    this.orderedParams = new JsonObject();
-    init();
-  }
-
-  private void init()
-  {
-    Pattern findParametersPattern = Pattern.compile("(?<!')(:[\\w]*)(?!')");
-    Matcher matcher = findParametersPattern.matcher(sql);
-    while (matcher.find())
-    {
-      orderedParams.put(matcher.group().substring(1), params.getValue(matcher.group().substring(1)));
-    }
-    sql = sql.replaceAll(findParametersPattern.pattern(), "?");
-
+    JPANamedQuery query = JPANamedQuery.parse(helper, sql);
+    this.sql = query.sql();
+    this.orderedParams = query.bind(params);
   }
 
   @Override
   public ResultSet execute(Connection conn) throws SQLException
   {
-    try (PreparedStatement statement = conn.prepareStatement(sql))
+    PreparedStatement statement = prepareStatement(conn, sql);
+    try
     {
       // apply statement options
       applyStatementOptions(statement);
@@ -86,7 +71,7 @@ SELECT * from INTO table_name  WHERE column = :VAR1 ;
             // 1st rs
             if (ref == null)
             {
-              resultSet = helper.asList(rs);
+              resultSet = helper.asList(rs, sql);
               ref = resultSet;
             }
             else
@@ -101,6 +86,10 @@ SELECT * from INTO table_name  WHERE column = :VAR1 ;
 
       return resultSet;
     }
+    finally
+    {
+      closeStatement(statement);
+    }
   }
 
   @Override
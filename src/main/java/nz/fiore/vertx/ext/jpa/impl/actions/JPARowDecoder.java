@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.json.JsonArray;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+
+/**
+ * The converters of the columns of a result, chosen once from the {@link ResultSetMetaData}: each cell is read
+ * with the typed getter of its column and converted as {@link JPAStatementHelper#convertSqlValue(Object)} would,
+ * without testing the class of every value. The converters are int codes dispatched by a switch, so the decode
+ * loop has no virtual call.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPARowDecoder
+{
+
+  private static final int OBJECT = 0;
+  private static final int BOOLEAN = 1;
+  private static final int STRING = 2;
+  private static final int INT = 3;
+  private static final int LONG = 4;
+  private static final int DOUBLE = 5;
+  private static final int DECIMAL = 6;
+  private static final int DATE = 7;
+  private static final int TIME = 8;
+  private static final int TIMESTAMP = 9;
+  private static final int BYTES = 10;
+
+  private final int[] sqlTypes;
+  private final int[] converters;
+
+  private JPARowDecoder(int[] sqlTypes, int[] converters)
+  {
+    this.sqlTypes = sqlTypes;
+    this.converters = converters;
+  }
+
+  public static JPARowDecoder of(ResultSetMetaData metaData) throws SQLException
+  {
+    int cols = metaData.getColumnCount();
+    int[] sqlTypes = new int[cols];
+    int[] converters = new int[cols];
+    for (int i = 0; i < cols; i++)
+    {
+      sqlTypes[i] = metaData.getColumnType(i + 1);
+      converters[i] = converter(metaData, i + 1, sqlTypes[i]);
+    }
+    return new JPARowDecoder(sqlTypes, converters);
+  }
+
+  /*
+  only the types whose getObject class is fixed by the JDBC spec, the others keep the generic conversion
+   */
+  private static int converter(ResultSetMetaData metaData, int column, int sqlType) throws SQLException
+  {
+    switch (sqlType)
+    {
+      case Types.BOOLEAN:
+        return BOOLEAN;
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+        return STRING;
+      case Types.INTEGER:
+        // unsigned integers are returned as Long by some drivers
+        return metaData.isSigned(column) ? INT : OBJECT;
+      case Types.BIGINT:
+        return metaData.isSigned(column) ? LONG : OBJECT;
+      case Types.DOUBLE:
+      case Types.FLOAT:
+        return DOUBLE;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return DECIMAL;
+      case Types.DATE:
+        return DATE;
+      case Types.TIME:
+        return TIME;
+      case Types.TIMESTAMP:
+        return TIMESTAMP;
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+        return BYTES;
+      default:
+        return OBJECT;
+    }
+  }
+
+  /**
+   * True when the columns have the types this decoder was built for.
+   */
+  public boolean matches(ResultSetMetaData metaData) throws SQLException
+  {
+    int cols = metaData.getColumnCount();
+    if (cols != sqlTypes.length)
+    {
+      return false;
+    }
+    for (int i = 0; i < cols; i++)
+    {
+      if (metaData.getColumnType(i + 1) != sqlTypes[i])
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int size()
+  {
+    return converters.length;
+  }
+
+  /**
+   * Converts the current row of the result set.
+   */
+  public JsonArray decode(ResultSet rs) throws SQLException
+  {
+    int cols = converters.length;
+    JsonArray result = new JsonArray(new ArrayList<>(cols));
+    for (int i = 0; i < cols; i++)
+    {
+      Object res = read(rs, i + 1, converters[i]);
+      if (res != null)
+      {
+        result.add(res);
+      }
+      else
+      {
+        result.addNull();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Converts a cell of the current row of the result set.
+   */
+  public Object read(ResultSet rs, int column) throws SQLException
+  {
+    return read(rs, column, converters[column - 1]);
+  }
+
+  private static Object read(ResultSet rs, int column, int converter) throws SQLException
+  {
+    switch (converter)
+    {
+      case BOOLEAN:
+      {
+        boolean value = rs.getBoolean(column);
+        return rs.wasNull() ? null : value;
+      }
+      case STRING:
+        return rs.getString(column);
+      case INT:
+      {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+      }
+      case LONG:
+      {
+        long value = rs.getLong(column);
+        return rs.wasNull() ? null : value;
+      }
+      case DOUBLE:
+      {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+      }
+      case DECIMAL:
+      {
+        BigDecimal value = rs.getBigDecimal(column);
+        return value == null ? null : JPAStatementHelper.convertDecimal(value);
+      }
+      case DATE:
+      {
+        Date value = rs.getDate(column);
+        return value == null ? null : JPAStatementHelper.convertDate(value);
+      }
+      case TIME:
+      {
+        Time value = rs.getTime(column);
+        return value == null ? null : JPAStatementHelper.convertTime(value);
+      }
+      case TIMESTAMP:
+      {
+        Timestamp value = rs.getTimestamp(column);
+        return value == null ? null : JPAStatementHelper.convertTimestamp(value);
+      }
+      case BYTES:
+        return rs.getBytes(column);
+      default:
+        return JPAStatementHelper.convertSqlValue(rs.getObject(column));
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.reactivex.Flowable;
+import io.vertx.core.Context;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLRowStream;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The rows of a {@link SQLRowStream} as a {@link Flowable} of {@link JsonObject}: the stream is resumed while the
+ * subscriber has outstanding requests and paused as soon as they are served, so the rows are read from the
+ * database one fetch size at a time following the demand. The stream is closed on completion, error or
+ * cancellation.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPARowFlowable extends Flowable<JsonObject>
+{
+
+  /* the subscription of a subscriber that is refused, there is nothing to request or cancel */
+  private static final Subscription NONE = new Subscription()
+  {
+    @Override
+    public void request(long n)
+    {
+    }
+
+    @Override
+    public void cancel()
+    {
+    }
+  };
+
+  private final Context ctx;
+  private final SQLRowStream stream;
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
+  public JPARowFlowable(Context ctx, SQLRowStream stream)
+  {
+    this.ctx = ctx;
+    this.stream = stream;
+  }
+
+  @Override
+  protected void subscribeActual(Subscriber<? super JsonObject> subscriber)
+  {
+    if (!subscribed.compareAndSet(false, true))
+    {
+      subscriber.onSubscribe(NONE);
+      subscriber.onError(new IllegalStateException("The rows can be subscribed only once"));
+      return;
+    }
+    new RowSubscription(subscriber).start();
+  }
+
+  private final class RowSubscription implements Subscription
+  {
+    private final Subscriber<? super JsonObject> subscriber;
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicBoolean done = new AtomicBoolean();
+    private boolean started;
+    private List<String> columns;
+
+    RowSubscription(Subscriber<? super JsonObject> subscriber)
+    {
+      this.subscriber = subscriber;
+    }
+
+    void start()
+    {
+      stream.exceptionHandler(this::fail);
+      stream.endHandler(v -> {
+        if (done.compareAndSet(false, true))
+        {
+          subscriber.onComplete();
+        }
+      });
+      subscriber.onSubscribe(this);
+    }
+
+    private void row(JsonArray values)
+    {
+      if (done.get())
+      {
+        return;
+      }
+      if (columns == null)
+      {
+        columns = stream.columns();
+      }
+      JsonObject row = new JsonObject();
+      for (int i = 0; i < columns.size(); i++)
+      {
+        row.put(columns.get(i), values.getValue(i));
+      }
+      if (requested.decrementAndGet() == 0)
+      {
+        stream.pause();
+      }
+      subscriber.onNext(row);
+    }
+
+    private void fail(Throwable t)
+    {
+      if (done.compareAndSet(false, true))
+      {
+        stream.close();
+        subscriber.onError(t);
+      }
+    }
+
+    @Override
+    public void request(long n)
+    {
+      if (n <= 0)
+      {
+        fail(new IllegalArgumentException("request must be > 0, was " + n));
+        return;
+      }
+      long previous;
+      long next;
+      do
+      {
+        previous = requested.get();
+        next = previous + n < 0 ? Long.MAX_VALUE : previous + n;
+      }
+      while (!requested.compareAndSet(previous, next));
+      if (previous == 0)
+      {
+        // the stream delivers the rows on its context
+        ctx.runOnContext(v -> {
+          if (done.get())
+          {
+            return;
+          }
+          if (started)
+          {
+            stream.resume();
+          }
+          else
+          {
+            // setting the handler starts reading the first rows
+            started = true;
+            stream.handler(this::row);
+          }
+        });
+      }
+    }
+
+    @Override
+    public void cancel()
+    {
+      if (done.compareAndSet(false, true))
+      {
+        ctx.runOnContext(v -> stream.close());
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded, thread safe cache for values that are expensive to compute from the sql shape (generated sql,
+ * parsed named parameters...). Once the cache is full new shapes are still computed but no longer stored, so a
+ * caller sending unbounded distinct shapes can not grow the heap.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPASqlCache<K, V>
+{
+
+  private final ConcurrentHashMap<K, V> cache = new ConcurrentHashMap<>();
+  private final int maxSize;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public JPASqlCache(int maxSize)
+  {
+    this.maxSize = maxSize;
+  }
+
+  public V get(K key, Function<K, V> factory)
+  {
+    V value = cache.get(key);
+    if (value != null)
+    {
+      hits.increment();
+      return value;
+    }
+    misses.increment();
+    if (cache.size() >= maxSize)
+    {
+      return factory.apply(key);
+    }
+    return cache.computeIfAbsent(key, factory);
+  }
+
+  /**
+   * For values that can not be computed by a function (the factory needs a checked exception or more context).
+   */
+  public V getIfPresent(K key)
+  {
+    V value = cache.get(key);
+    if (value != null)
+    {
+      hits.increment();
+    }
+    else
+    {
+      misses.increment();
+    }
+    return value;
+  }
+
+  public void put(K key, V value)
+  {
+    if (cache.size() < maxSize || cache.containsKey(key))
+    {
+      cache.put(key, value);
+    }
+  }
+
+  public long hitCount()
+  {
+    return hits.sum();
+  }
+
+  public long missCount()
+  {
+    return misses.sum();
+  }
+
+  public int size()
+  {
+    return cache.size();
+  }
+
+  public int maxSize()
+  {
+    return maxSize;
+  }
+
+  public void clear()
+  {
+    cache.clear();
+  }
+}
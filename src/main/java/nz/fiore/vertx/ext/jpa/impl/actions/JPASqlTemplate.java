@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.json.JsonObject;
+
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * The precomputed sql of a persist/merge/delete/find for one table and column shape, together with its binding
+ * plan: the ordered column names whose values fill the statement, first the columns then the keys.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPASqlTemplate
+{
+
+  public enum Kind
+  {
+    PERSIST, PERSIST_VALUES, MERGE, INCREMENT, DELETE, DELETE_IN, FIND, FIND_IN
+  }
+
+  private static final String[] NONE = new String[0];
+
+  private final String sql;
+  private final Kind kind;
+  private final String table;
+  private final String[] columns;
+  private final String[] keys;
+  private final int rows;
+  private volatile Types types;
+
+  private JPASqlTemplate(String sql, Shape shape)
+  {
+    this.sql = sql;
+    this.kind = shape.kind;
+    this.table = shape.table;
+    this.columns = shape.columns;
+    this.keys = shape.keys;
+    this.rows = shape.rows;
+  }
+
+  public static JPASqlTemplate persist(JPAStatementHelper helper, String table, JsonObject params)
+  {
+    return helper.templates().get(new Shape(Kind.PERSIST, table, names(params), NONE), JPASqlTemplate::build);
+  }
+
+  /**
+   * A multi row insert: <code>INSERT INTO table_name (column1,...) VALUES (?,...), (?,...), ...</code>
+   */
+  public static JPASqlTemplate persistValues(JPAStatementHelper helper, String table, String[] columns, int rows)
+  {
+    return helper.templates().get(new Shape(Kind.PERSIST_VALUES, table, columns, NONE, rows), JPASqlTemplate::build);
+  }
+
+  public static JPASqlTemplate merge(JPAStatementHelper helper, String table, JsonObject params, JsonObject key)
+  {
+    return helper.templates().get(new Shape(Kind.MERGE, table, names(params), names(key)), JPASqlTemplate::build);
+  }
+
+  /**
+   * An update adding the bound delta to the column: <code>UPDATE table_name SET column = column + ? WHERE ...</code>
+   */
+  public static JPASqlTemplate increment(JPAStatementHelper helper, String table, String column, JsonObject key)
+  {
+    return helper.templates()
+             .get(new Shape(Kind.INCREMENT, table, new String[] { column }, names(key)), JPASqlTemplate::build);
+  }
+
+  public static JPASqlTemplate delete(JPAStatementHelper helper, String table, JsonObject key)
+  {
+    return helper.templates().get(new Shape(Kind.DELETE, table, NONE, names(key)), JPASqlTemplate::build);
+  }
+
+  /**
+   * A delete by a list of keys: <code>DELETE FROM table_name WHERE key_column IN (?,?,...)</code>
+   */
+  public static JPASqlTemplate deleteIn(JPAStatementHelper helper, String table, String keyColumn, int size)
+  {
+    return helper.templates()
+             .get(new Shape(Kind.DELETE_IN, table, NONE, new String[] { keyColumn }, size), JPASqlTemplate::build);
+  }
+
+  public static JPASqlTemplate find(JPAStatementHelper helper, String table, JsonObject key)
+  {
+    return helper.templates().get(new Shape(Kind.FIND, table, NONE, names(key)), JPASqlTemplate::build);
+  }
+
+  /**
+   * A find by a list of keys: <code>select * FROM table_name WHERE key_column IN (?,?,...)</code>
+   */
+  public static JPASqlTemplate findIn(JPAStatementHelper helper, String table, String keyColumn, int size)
+  {
+    return helper.templates()
+             .get(new Shape(Kind.FIND_IN, table, NONE, new String[] { keyColumn }, size), JPASqlTemplate::build);
+  }
+
+  private static String[] names(JsonObject json)
+  {
+    return json == null ? NONE : json.getMap().keySet().toArray(NONE);
+  }
+
+  private static JPASqlTemplate build(Shape shape)
+  {
+    switch (shape.kind)
+    {
+      case PERSIST:
+      {
+        /*
+        INSERT INTO table_name (column1,column2,column3,...) VALUES (value1,value2,value3,...);
+         */
+        StringJoiner columns = new StringJoiner(",", "INSERT INTO " + shape.table + " ( ", " ) ");
+        StringJoiner values = new StringJoiner(",", " VALUES ( ", " )");
+        for (String column : shape.columns)
+        {
+          columns.add(column);
+          values.add("?");
+        }
+        return new JPASqlTemplate(columns.toString() + values.toString(), shape);
+      }
+      case PERSIST_VALUES:
+      {
+        StringJoiner columns = new StringJoiner(",", "INSERT INTO " + shape.table + " ( ", " ) VALUES ");
+        StringJoiner values = new StringJoiner(",", "( ", " )");
+        for (String column : shape.columns)
+        {
+          columns.add(column);
+          values.add("?");
+        }
+        String row = values.toString();
+        StringBuilder sql = new StringBuilder(columns.toString());
+        for (int i = 0; i < shape.rows; i++)
+        {
+          if (i > 0)
+          {
+            sql.append(", ");
+          }
+          sql.append(row);
+        }
+        return new JPASqlTemplate(sql.toString(), shape);
+      }
+      case MERGE:
+      {
+        /*
+        UPDATE table_name SET column1=value1,column2=value2,... WHERE some_column=some_value;
+         */
+        StringJoiner toSet = new StringJoiner("=?, ", "UPDATE " + shape.table + " SET ", "=? ");
+        for (String column : shape.columns)
+        {
+          toSet.add(column);
+        }
+        return new JPASqlTemplate(toSet.toString() + where(shape.keys), shape);
+      }
+      case INCREMENT:
+      {
+        /*
+        UPDATE table_name SET column1=column1+value1 WHERE some_column=some_value;
+         */
+        String column = shape.columns[0];
+        return new JPASqlTemplate("UPDATE " + shape.table + " SET " + column + "=" + column + "+?" + where(shape.keys),
+          shape);
+      }
+      case DELETE:
+      {
+        /*
+        DELETE FROM table_name WHERE some_column=some_value;
+         */
+        return new JPASqlTemplate("DELETE FROM " + shape.table + where(shape.keys), shape);
+      }
+      case DELETE_IN:
+      {
+        /*
+        DELETE FROM table_name WHERE some_column IN (value1,value2,...);
+         */
+        return new JPASqlTemplate("DELETE FROM " + shape.table + whereIn(shape.keys[0], shape.rows), shape);
+      }
+      case FIND_IN:
+      {
+        /*
+        SELECT * FROM  table_name WHERE some_column IN (value1,value2,...);
+         */
+        return new JPASqlTemplate("select * FROM " + shape.table + whereIn(shape.keys[0], shape.rows), shape);
+      }
+      default:
+      {
+        /*
+        SELECT * FROM  table_name WHERE some_column=some_value;
+         */
+        return new JPASqlTemplate("select * FROM " + shape.table + where(shape.keys), shape);
+      }
+    }
+  }
+
+  private static String where(String[] keys)
+  {
+    StringJoiner where = new StringJoiner(" AND ", " WHERE ", " ");
+    for (String key : keys)
+    {
+      where.add(key + "=?");
+    }
+    return where.toString();
+  }
+
+  private static String whereIn(String key, int size)
+  {
+    StringJoiner where = new StringJoiner(",", " WHERE " + key + " IN ( ", " ) ");
+    for (int i = 0; i < size; i++)
+    {
+      where.add("?");
+    }
+    return where.toString();
+  }
+
+  public String sql()
+  {
+    return sql;
+  }
+
+  public String[] columns()
+  {
+    return columns;
+  }
+
+  public String[] keys()
+  {
+    return keys;
+  }
+
+  public String table()
+  {
+    return table;
+  }
+
+  /**
+   * The sql type of each parameter of the statement, resolved from the table columns or, if the table is not found,
+   * from the parameter metadata of the statement; null when the types are not known or the schema binding is
+   * disabled, the values are then bound guessing the type from the value. The resolved types are kept until the
+   * table metadata is cleared, the types not resolved are looked up again at the next execution.
+   */
+  public int[] types(JPAStatementHelper helper, Connection conn, PreparedStatement statement) throws SQLException
+  {
+    if (!helper.schemaBinding())
+    {
+      return null;
+    }
+    int generation = helper.tables().generation();
+    Types types = this.types;
+    if (types == null || types.generation != generation)
+    {
+      int[] resolved = resolve(helper, conn, statement);
+      if (resolved == null)
+      {
+        return null;
+      }
+      types = new Types(generation, resolved);
+      this.types = types;
+    }
+    return types.types;
+  }
+
+  private int[] resolve(JPAStatementHelper helper, Connection conn, PreparedStatement statement)
+    throws SQLException
+  {
+    String[] names = parameters();
+    Map<String, Integer> tableColumns = helper.tables().columns(conn, table);
+    if (!tableColumns.isEmpty())
+    {
+      int[] types = new int[names.length];
+      for (int i = 0; i < names.length; i++)
+      {
+        Integer type = tableColumns.get(names[i].toUpperCase(Locale.ROOT));
+        types[i] = type == null ? JPATableMetadata.UNKNOWN : type;
+      }
+      return types;
+    }
+    try
+    {
+      ParameterMetaData metaData = statement.getParameterMetaData();
+      if (metaData != null && metaData.getParameterCount() == names.length)
+      {
+        int[] types = new int[names.length];
+        for (int i = 0; i < names.length; i++)
+        {
+          types[i] = metaData.getParameterType(i + 1);
+        }
+        return types;
+      }
+    }
+    catch (SQLException | AbstractMethodError e)
+    {
+      // not supported by every driver
+    }
+    return null;
+  }
+
+  /*
+  the column of each parameter, in the order they are bound
+   */
+  private String[] parameters()
+  {
+    switch (kind)
+    {
+      case PERSIST_VALUES:
+      {
+        String[] names = new String[columns.length * rows];
+        for (int i = 0; i < rows; i++)
+        {
+          System.arraycopy(columns, 0, names, i * columns.length, columns.length);
+        }
+        return names;
+      }
+      case DELETE_IN:
+      case FIND_IN:
+      {
+        String[] names = new String[rows];
+        Arrays.fill(names, keys[0]);
+        return names;
+      }
+      default:
+      {
+        String[] names = Arrays.copyOf(columns, columns.length + keys.length);
+        System.arraycopy(keys, 0, names, columns.length, keys.length);
+        return names;
+      }
+    }
+  }
+
+  /**
+   * Fills the values to bind following the binding plan, no intermediate json is created.
+   */
+  public Object[] bind(JsonObject params, JsonObject key)
+  {
+    Object[] values = new Object[columns.length + keys.length];
+    if (columns.length > 0)
+    {
+      Map<String, Object> map = params.getMap();
+      for (int i = 0; i < columns.length; i++)
+      {
+        values[i] = map.get(columns[i]);
+      }
+    }
+    if (keys.length > 0)
+    {
+      Map<String, Object> map = key.getMap();
+      for (int i = 0; i < keys.length; i++)
+      {
+        values[columns.length + i] = map.get(keys[i]);
+      }
+    }
+    return values;
+  }
+
+  public static final class Shape
+  {
+    final Kind kind;
+    final String table;
+    final String[] columns;
+    final String[] keys;
+    final int rows;
+    private final int hash;
+
+    Shape(Kind kind, String table, String[] columns, String[] keys)
+    {
+      this(kind, table, columns, keys, 1);
+    }
+
+    Shape(Kind kind, String table, String[] columns, String[] keys, int rows)
+    {
+      this.kind = kind;
+      this.table = table;
+      this.columns = columns;
+      this.keys = keys;
+      this.rows = rows;
+      this.hash = 31 * (31 * (31 * (31 * kind.hashCode() + table.hashCode()) + Arrays.hashCode(columns))
+               + Arrays.hashCode(keys)) + rows;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+      {
+        return true;
+      }
+      if (!(o instanceof Shape))
+      {
+        return false;
+      }
+      Shape other = (Shape) o;
+      return hash == other.hash && kind == other.kind && rows == other.rows && table.equals(other.table)
+               && Arrays.equals(columns, other.columns) && Arrays.equals(keys, other.keys);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash;
+    }
+  }
+
+  /*
+  the parameter types with the generation of the table metadata they were resolved from
+   */
+  private static final class Types
+  {
+    private final int generation;
+    private final int[] types;
+
+    Types(int generation, int[] types)
+    {
+      this.generation = generation;
+      this.types = types;
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A LRU cache of the prepared statements of one borrowed connection, from the borrow to its close: the statements are
+ * not kept across borrows, so only a JPAConnection or a script that repeats its statements gets hits. An action borrows
+ * a statement, that is removed from the cache while in use, and returns it once done with its parameters and pending
+ * batch cleared and the query timeout, fetch size and fetch direction it was prepared with; the least recently used
+ * statements are closed when the cache is full and all of them when the connection is closed.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPAStatementCache
+{
+
+  private static final Logger log = LoggerFactory.getLogger(JPAStatementCache.class);
+
+  /*
+  used as autoGeneratedKeys for statements prepared without it
+   */
+  static final int DEFAULT_KEYS = -1;
+
+  private final int maxSize;
+  private final Stats stats;
+  private final LinkedHashMap<Key, Entry> statements;
+  private final Map<PreparedStatement, Entry> borrowed = new IdentityHashMap<>();
+  private long hits;
+  private long misses;
+
+  public JPAStatementCache(int maxSize, Stats stats)
+  {
+    this.maxSize = maxSize;
+    this.stats = stats;
+    this.statements = new LinkedHashMap<Key, Entry>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+      {
+        if (size() > JPAStatementCache.this.maxSize)
+        {
+          closeQuietly(eldest.getValue().statement);
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  public synchronized PreparedStatement borrow(Connection conn, String sql, int autoGeneratedKeys)
+    throws SQLException
+  {
+    Key key = new Key(sql, autoGeneratedKeys);
+    Entry entry = statements.remove(key);
+    if (entry != null)
+    {
+      hits++;
+      if (stats != null)
+      {
+        stats.hits.increment();
+      }
+    }
+    else
+    {
+      misses++;
+      if (stats != null)
+      {
+        stats.misses.increment();
+      }
+      PreparedStatement statement = autoGeneratedKeys == DEFAULT_KEYS ?
+        conn.prepareStatement(sql) :
+        conn.prepareStatement(sql, autoGeneratedKeys);
+      try
+      {
+        entry = new Entry(key, statement);
+      }
+      catch (SQLException e)
+      {
+        closeQuietly(statement);
+        throw e;
+      }
+    }
+    borrowed.put(entry.statement, entry);
+    return entry.statement;
+  }
+
+  public synchronized void release(PreparedStatement statement)
+  {
+    Entry entry = borrowed.remove(statement);
+    if (entry == null || statements.containsKey(entry.key))
+    {
+      closeQuietly(statement);
+      return;
+    }
+    try
+    {
+      // a batch that failed halfway leaves its rows queued, the next executeBatch would send them again
+      statement.clearBatch();
+      statement.clearParameters();
+      entry.resetOptions();
+      statements.put(entry.key, entry);
+    }
+    catch (SQLException e)
+    {
+      closeQuietly(statement);
+    }
+  }
+
+  public synchronized void close()
+  {
+    Iterator<Entry> iterator = statements.values().iterator();
+    while (iterator.hasNext())
+    {
+      closeQuietly(iterator.next().statement);
+      iterator.remove();
+    }
+    for (PreparedStatement statement : borrowed.keySet())
+    {
+      closeQuietly(statement);
+    }
+    borrowed.clear();
+    if (log.isDebugEnabled())
+    {
+      log.debug("Statement cache closed, hits: " + hits + ", misses: " + misses + ", hit ratio: " + hitRatio());
+    }
+  }
+
+  public synchronized long hitCount()
+  {
+    return hits;
+  }
+
+  public synchronized long missCount()
+  {
+    return misses;
+  }
+
+  public synchronized double hitRatio()
+  {
+    long total = hits + misses;
+    return total == 0 ? 0d : (double) hits / total;
+  }
+
+  public synchronized int size()
+  {
+    return statements.size();
+  }
+
+  private static void closeQuietly(PreparedStatement statement)
+  {
+    try
+    {
+      statement.close();
+    }
+    catch (SQLException e)
+    {
+      // ignore close error
+    }
+  }
+
+  /**
+   * Counters shared by all the statement caches of a client, to size the cache by the overall hit ratio.
+   */
+  public static final class Stats
+  {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public long hitCount()
+    {
+      return hits.sum();
+    }
+
+    public long missCount()
+    {
+      return misses.sum();
+    }
+
+    public double hitRatio()
+    {
+      long h = hits.sum();
+      long total = h + misses.sum();
+      return total == 0 ? 0d : (double) h / total;
+    }
+  }
+
+  /*
+  a statement with the options it was prepared with, restored when it is returned: the options of the action that
+  used it must not be inherited by the next one
+   */
+  private static final class Entry
+  {
+    private final Key key;
+    private final PreparedStatement statement;
+    private final int queryTimeout;
+    private final int fetchSize;
+    private final int fetchDirection;
+
+    Entry(Key key, PreparedStatement statement) throws SQLException
+    {
+      this.key = key;
+      this.statement = statement;
+      this.queryTimeout = statement.getQueryTimeout();
+      this.fetchSize = statement.getFetchSize();
+      this.fetchDirection = statement.getFetchDirection();
+    }
+
+    void resetOptions() throws SQLException
+    {
+      if (statement.getQueryTimeout() != queryTimeout)
+      {
+        statement.setQueryTimeout(queryTimeout);
+      }
+      if (statement.getFetchSize() != fetchSize)
+      {
+        statement.setFetchSize(fetchSize);
+      }
+      if (statement.getFetchDirection() != fetchDirection)
+      {
+        statement.setFetchDirection(fetchDirection);
+      }
+    }
+  }
+
+  private static final class Key
+  {
+    private final String sql;
+    private final int autoGeneratedKeys;
+
+    Key(String sql, int autoGeneratedKeys)
+    {
+      this.sql = sql;
+      this.autoGeneratedKeys = autoGeneratedKeys;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+      {
+        return true;
+      }
+      if (!(o instanceof Key))
+      {
+        return false;
+      }
+      Key other = (Key) o;
+      return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * sql.hashCode() + autoGeneratedKeys;
+    }
+  }
+}
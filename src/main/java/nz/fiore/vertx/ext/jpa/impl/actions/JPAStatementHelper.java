@@ -20,6 +20,7 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import nz.fiore.vertx.ext.jpa.sql.ColumnarResultSet;
 
 import java.math.BigDecimal;
 import java.sql.*;
@@ -28,7 +29,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.TimeZone;
-import java.util.regex.Pattern;
 
 import static java.time.format.DateTimeFormatter.*;
 
@@ -45,13 +45,24 @@ public final class JPAStatementHelper
   private static final JsonArray EMPTY = new JsonArray(Collections.unmodifiableList(new ArrayList<>()));
   private static final JsonObject EMPTY_OBJ = new JsonObject();
 
-
-  private static final Pattern DATETIME = Pattern.compile("^\\d{4}-(?:0[0-9]|1[0-2])-[0-9]{2}T\\d{2}:\\d{2}:\\d{2}(\\.\\d{3,9})?Z$");
-  private static final Pattern DATE = Pattern.compile("^\\d{4}-(?:0[0-9]|1[0-2])-[0-9]{2}$");
-  private static final Pattern TIME = Pattern.compile("^\\d{2}:\\d{2}:\\d{2}$");
-  private static final Pattern UUID = Pattern.compile("^[a-fA-F0-9]{8}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{12}$");
+  private static final int DEFAULT_TEMPLATE_CACHE_SIZE = 512;
+  private static final int DEFAULT_NAMED_QUERY_CACHE_SIZE = 1024;
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+  private static final int DEFAULT_MAX_BIND_PARAMETERS = 2000;
+  private static final int DEFAULT_IN_LIST_SIZE = 128;
+  private static final int DEFAULT_TABLE_METADATA_CACHE_SIZE = 256;
 
   private final boolean castUUID;
+  private final JPASqlCache<JPASqlTemplate.Shape, JPASqlTemplate> templates;
+  private final JPASqlCache<String, JPANamedQuery> namedQueries;
+  private final int batchSize;
+  private final boolean multiValuesPersist;
+  private final int maxBindParameters;
+  private final int inListSize;
+  private final boolean lazyRows;
+  private final JPASqlCache<String, JPARowDecoder> rowDecoders;
+  private final boolean schemaBinding;
+  private final JPATableMetadata tables;
 
   public JPAStatementHelper() {
     this(new JsonObject());
@@ -59,6 +70,109 @@ public final class JPAStatementHelper
 
   public JPAStatementHelper(JsonObject config) {
     this.castUUID = config.getBoolean("castUUID", false);
+    this.templates = new JPASqlCache<>(config.getInteger("template_cache_size", DEFAULT_TEMPLATE_CACHE_SIZE));
+    this.namedQueries = new JPASqlCache<>(
+      config.getInteger("named_query_cache_size", DEFAULT_NAMED_QUERY_CACHE_SIZE));
+    this.batchSize = Math.max(1, config.getInteger("batch_size", DEFAULT_BATCH_SIZE));
+    this.multiValuesPersist = "values".equals(config.getString("persist_batch_mode", "batch"));
+    this.maxBindParameters = Math.max(1, config.getInteger("max_bind_parameters", DEFAULT_MAX_BIND_PARAMETERS));
+    this.inListSize = Math.max(1, Math.min(maxBindParameters, config.getInteger("in_list_size", DEFAULT_IN_LIST_SIZE)));
+    this.lazyRows = config.getBoolean("lazy_rows", false);
+    this.rowDecoders = new JPASqlCache<>(config.getInteger("row_decoder_cache_size", DEFAULT_NAMED_QUERY_CACHE_SIZE));
+    this.schemaBinding = config.getBoolean("schema_binding", false);
+    this.tables = new JPATableMetadata(
+      config.getInteger("table_metadata_cache_size", DEFAULT_TABLE_METADATA_CACHE_SIZE));
+  }
+
+  /**
+   * The cache of the sql generated by persist/merge/delete/find, its hit and miss counters can be used to verify
+   * that the column shapes sent by the application are really reused.
+   */
+  public JPASqlCache<JPASqlTemplate.Shape, JPASqlTemplate> templates() {
+    return templates;
+  }
+
+  /**
+   * The cache of the sql with named parameters already rewritten with positional parameters.
+   */
+  public JPASqlCache<String, JPANamedQuery> namedQueries() {
+    return namedQueries;
+  }
+
+  /**
+   * The maximum number of rows sent with a single executeBatch.
+   */
+  public int batchSize() {
+    return batchSize;
+  }
+
+  /**
+   * When true the bulk persists are sent as multi row <code>INSERT ... VALUES (...), (...)</code> instead of JDBC
+   * batches (config <code>persist_batch_mode</code>: <code>batch</code> or <code>values</code>).
+   */
+  public boolean multiValuesPersist() {
+    return multiValuesPersist;
+  }
+
+  /**
+   * The maximum number of bind parameters the driver accepts in a single statement.
+   */
+  public int maxBindParameters() {
+    return maxBindParameters;
+  }
+
+  /**
+   * The maximum number of keys in a single <code>IN (...)</code> list.
+   */
+  public int inListSize() {
+    return inListSize;
+  }
+
+  /**
+   * When true the rows keep the values read from the driver and convert each one the first time it is read
+   * (config <code>lazy_rows</code>).
+   */
+  public boolean lazyRows() {
+    return lazyRows;
+  }
+
+  /**
+   * When true persist/merge/delete/find bind the values with the setter of the column type, read from the table
+   * metadata (config <code>schema_binding</code>, false by default).
+   */
+  public boolean schemaBinding() {
+    return schemaBinding;
+  }
+
+  /**
+   * The column types of the tables used by persist/merge/delete/find.
+   */
+  public JPATableMetadata tables() {
+    return tables;
+  }
+
+  /**
+   * The converters of the result columns by sql.
+   */
+  public JPASqlCache<String, JPARowDecoder> rowDecoders() {
+    return rowDecoders;
+  }
+
+  /**
+   * The converters of the columns of a result, the cached ones are checked against the column types since the
+   * same sql can return different shapes (multiple results or a changed table).
+   */
+  JPARowDecoder rowDecoder(String sql, ResultSetMetaData metaData) throws SQLException {
+    if (sql == null) {
+      return JPARowDecoder.of(metaData);
+    }
+    JPARowDecoder decoder = rowDecoders.getIfPresent(sql);
+    if (decoder != null && decoder.matches(metaData)) {
+      return decoder;
+    }
+    decoder = JPARowDecoder.of(metaData);
+    rowDecoders.put(sql, decoder);
+    return decoder;
   }
 
   public void fillStatement(PreparedStatement statement, JsonArray in) throws SQLException {
@@ -81,6 +195,75 @@ public final class JPAStatementHelper
     }
   }
 
+  public void fillStatement(PreparedStatement statement, Object[] in) throws SQLException {
+    for (int i = 0; i < in.length; i++) {
+      Object value = in[i];
+      if (value instanceof String) {
+        statement.setObject(i + 1, optimisticCast((String) value));
+      } else {
+        statement.setObject(i + 1, value);
+      }
+    }
+  }
+
+  /**
+   * Binds the values with the setter of the sql type of each parameter, a string is only parsed when the column
+   * is temporal, so a text that looks like a date stays a text. Without types, or for an unknown type, the type
+   * is guessed from the value as {@link #fillStatement(PreparedStatement, Object[])} does.
+   */
+  public void fillStatement(PreparedStatement statement, Object[] in, int[] types) throws SQLException {
+    if (types == null) {
+      fillStatement(statement, in);
+      return;
+    }
+    for (int i = 0; i < in.length; i++) {
+      Object value = in[i];
+      int type = types[i];
+      if (type == JPATableMetadata.UNKNOWN) {
+        statement.setObject(i + 1, value instanceof String ? optimisticCast((String) value) : value);
+      } else if (value == null) {
+        statement.setNull(i + 1, type);
+      } else if (value instanceof String) {
+        setString(statement, i + 1, (String) value, type);
+      } else {
+        statement.setObject(i + 1, value);
+      }
+    }
+  }
+
+  private void setString(PreparedStatement statement, int index, String value, int type) throws SQLException {
+    try {
+      switch (type) {
+        case Types.DATE:
+          statement.setDate(index, castDate(value));
+          return;
+        case Types.TIME:
+          statement.setTime(index, castTime(value));
+          return;
+        case Types.TIMESTAMP:
+        case Types.TIMESTAMP_WITH_TIMEZONE:
+          if (value.endsWith("Z")) {
+            statement.setTimestamp(index, castTimestamp(value));
+            return;
+          }
+          // other formats are left to the driver
+          break;
+        case Types.OTHER:
+        case Types.BINARY:
+          if (castUUID) {
+            statement.setObject(index, optimisticCast(value));
+            return;
+          }
+          break;
+        default:
+          break;
+      }
+    } catch (RuntimeException e) {
+      log.debug(e);
+    }
+    statement.setString(index, value);
+  }
+
   public void fillStatement(PreparedStatement statement, JsonObject in) throws SQLException {
     if (in == null) {
       in = EMPTY_OBJ;
@@ -158,6 +341,13 @@ public final class JPAStatementHelper
   }
 
   public io.vertx.ext.sql.ResultSet asList(ResultSet rs) throws SQLException {
+    return asList(rs, null);
+  }
+
+  /**
+   * Reads the rows with the converters of the result columns, built once for each sql.
+   */
+  public io.vertx.ext.sql.ResultSet asList(ResultSet rs, String sql) throws SQLException {
 
     List<String> columnNames = new ArrayList<>();
     ResultSetMetaData metaData = rs.getMetaData();
@@ -167,23 +357,113 @@ public final class JPAStatementHelper
     }
 
     List<JsonArray> results = new ArrayList<>();
+    JPARowDecoder decoder = lazyRows ? null : rowDecoder(sql, metaData);
 
     while (rs.next()) {
-      JsonArray result = new JsonArray();
-      for (int i = 1; i <= cols; i++) {
-        Object res = convertSqlValue(rs.getObject(i));
-        if (res != null) {
-          result.add(res);
-        } else {
-          result.addNull();
+      if (lazyRows) {
+        Object[] values = new Object[cols];
+        for (int i = 1; i <= cols; i++) {
+          values[i - 1] = rs.getObject(i);
         }
+        results.add(new JsonArray(new JPALazyRow(values)));
+        continue;
       }
-      results.add(result);
+      results.add(decoder.decode(rs));
     }
 
     return new io.vertx.ext.sql.ResultSet(columnNames, results, null);
   }
 
+  /**
+   * Reads the rows column by column: numbers and booleans in primitive arrays, strings in a dictionary, the other
+   * values converted as in {@link #asList(ResultSet)}.
+   */
+  public ColumnarResultSet asColumns(ResultSet rs) throws SQLException {
+
+    List<String> columnNames = new ArrayList<>();
+    ResultSetMetaData metaData = rs.getMetaData();
+    int cols = metaData.getColumnCount();
+    ColumnarResultSet.Type[] types = new ColumnarResultSet.Type[cols];
+    for (int i = 1; i <= cols; i++) {
+      columnNames.add(metaData.getColumnLabel(i));
+      types[i - 1] = columnType(metaData, i);
+    }
+
+    ColumnarResultSet.Builder builder = new ColumnarResultSet.Builder(columnNames, types);
+    while (rs.next()) {
+      for (int i = 1; i <= cols; i++) {
+        switch (types[i - 1]) {
+          case LONG:
+          case INTEGER:
+            long l = rs.getLong(i);
+            if (rs.wasNull()) {
+              builder.addNull(i - 1);
+            } else {
+              builder.addLong(i - 1, l);
+            }
+            break;
+          case DOUBLE:
+            double d = rs.getDouble(i);
+            if (rs.wasNull()) {
+              builder.addNull(i - 1);
+            } else {
+              builder.addDouble(i - 1, d);
+            }
+            break;
+          case BOOLEAN:
+            boolean b = rs.getBoolean(i);
+            if (rs.wasNull()) {
+              builder.addNull(i - 1);
+            } else {
+              builder.addBoolean(i - 1, b);
+            }
+            break;
+          case STRING:
+            builder.addString(i - 1, rs.getString(i));
+            break;
+          default:
+            builder.addObject(i - 1, convertSqlValue(rs.getObject(i)));
+        }
+      }
+      builder.endRow();
+    }
+
+    return builder.build();
+  }
+
+  private static ColumnarResultSet.Type columnType(ResultSetMetaData metaData, int column) throws SQLException {
+    switch (metaData.getColumnType(column)) {
+      case Types.BIGINT:
+        return ColumnarResultSet.Type.LONG;
+      case Types.INTEGER:
+      case Types.SMALLINT:
+      case Types.TINYINT:
+        return ColumnarResultSet.Type.INTEGER;
+      case Types.DOUBLE:
+      case Types.FLOAT:
+        return ColumnarResultSet.Type.DOUBLE;
+      case Types.REAL:
+        // a Float for the JDBC spec but a Double for some drivers, kept as getObject returns it like asList does
+        return ColumnarResultSet.Type.OBJECT;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        // as convertSqlValue, decimals with a scale are read as double
+        return metaData.getScale(column) > 0 ? ColumnarResultSet.Type.DOUBLE : ColumnarResultSet.Type.OBJECT;
+      case Types.BOOLEAN:
+      case Types.BIT:
+        return ColumnarResultSet.Type.BOOLEAN;
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+        return ColumnarResultSet.Type.STRING;
+      default:
+        return ColumnarResultSet.Type.OBJECT;
+    }
+  }
+
   public static Object convertSqlValue(Object value) throws SQLException {
     if (value == null) {
       return null;
@@ -197,13 +477,7 @@ public final class JPAStatementHelper
     // numeric values
     if (value instanceof Number) {
       if (value instanceof BigDecimal) {
-        BigDecimal d = (BigDecimal) value;
-        if (d.scale() == 0) {
-          return ((BigDecimal) value).toBigInteger();
-        } else {
-          // we might loose precision here
-          return ((BigDecimal) value).doubleValue();
-        }
+        return convertDecimal((BigDecimal) value);
       }
 
       return value;
@@ -211,15 +485,15 @@ public final class JPAStatementHelper
 
     // temporal values
     if (value instanceof Time) {
-      return ((Time) value).toLocalTime().atOffset(ZoneOffset.UTC).format(ISO_LOCAL_TIME);
+      return convertTime((Time) value);
     }
 
     if (value instanceof Date) {
-      return ((Date) value).toLocalDate().format(ISO_LOCAL_DATE);
+      return convertDate((Date) value);
     }
 
     if (value instanceof Timestamp) {
-      return OffsetDateTime.ofInstant(((Timestamp) value).toInstant(), ZoneOffset.UTC).format(ISO_OFFSET_DATE_TIME);
+      return convertTimestamp((Timestamp) value);
     }
 
     // large objects
@@ -272,41 +546,75 @@ public final class JPAStatementHelper
     return value.toString();
   }
 
+  static Object convertDecimal(BigDecimal d) {
+    if (d.scale() == 0) {
+      return d.toBigInteger();
+    } else {
+      // we might loose precision here
+      return d.doubleValue();
+    }
+  }
+
+  static String convertTime(Time t) {
+    return t.toLocalTime().atOffset(ZoneOffset.UTC).format(ISO_LOCAL_TIME);
+  }
+
+  static String convertDate(Date d) {
+    return d.toLocalDate().format(ISO_LOCAL_DATE);
+  }
+
+  static String convertTimestamp(Timestamp t) {
+    return OffsetDateTime.ofInstant(t.toInstant(), ZoneOffset.UTC).format(ISO_OFFSET_DATE_TIME);
+  }
+
+  static Time castTime(String value) {
+    // convert from local time to instant
+    Instant instant = LocalTime.parse(value).atDate(LocalDate.of(1970, 1, 1)).toInstant(ZoneOffset.UTC);
+    // calculate the timezone offset in millis
+    int offset = TimeZone.getDefault().getOffset(instant.toEpochMilli());
+    // need to remove the offset since time has no TZ component
+    return new Time(instant.toEpochMilli() - offset);
+  }
+
+  static Date castDate(String value) {
+    // convert from local date to instant
+    Instant instant = LocalDate.parse(value).atTime(LocalTime.of(0, 0, 0, 0)).toInstant(ZoneOffset.UTC);
+    // calculate the timezone offset in millis
+    int offset = TimeZone.getDefault().getOffset(instant.toEpochMilli());
+    // need to remove the offset since time has no TZ component
+    return new Date(instant.toEpochMilli() - offset);
+  }
+
+  static Timestamp castTimestamp(String value) {
+    Instant instant = Instant.from(ISO_INSTANT.parse(value));
+    return Timestamp.from(instant);
+  }
+
   public Object optimisticCast(String value) {
     if (value == null) {
       return null;
     }
 
     try {
-      // sql time
-      if (TIME.matcher(value).matches()) {
-        // convert from local time to instant
-        Instant instant = LocalTime.parse(value).atDate(LocalDate.of(1970, 1, 1)).toInstant(ZoneOffset.UTC);
-        // calculate the timezone offset in millis
-        int offset = TimeZone.getDefault().getOffset(instant.toEpochMilli());
-        // need to remove the offset since time has no TZ component
-        return new Time(instant.toEpochMilli() - offset);
-      }
-
-      // sql date
-      if (DATE.matcher(value).matches()) {
-        // convert from local date to instant
-        Instant instant = LocalDate.parse(value).atTime(LocalTime.of(0, 0, 0, 0)).toInstant(ZoneOffset.UTC);
-        // calculate the timezone offset in millis
-        int offset = TimeZone.getDefault().getOffset(instant.toEpochMilli());
-        // need to remove the offset since time has no TZ component
-        return new Date(instant.toEpochMilli() - offset);
-      }
-
-      // sql timestamp
-      if (DATETIME.matcher(value).matches()) {
-        Instant instant = Instant.from(ISO_INSTANT.parse(value));
-        return Timestamp.from(instant);
-      }
-
-      // sql uuid
-      if (castUUID && UUID.matcher(value).matches()) {
-        return java.util.UUID.fromString(value);
+      // a single pass on the chars, the value is parsed only if it has the shape
+      switch (JPAStringShape.classify(value)) {
+        case TIME:
+          // sql time
+          return castTime(value);
+        case DATE:
+          // sql date
+          return castDate(value);
+        case DATETIME:
+          // sql timestamp
+          return castTimestamp(value);
+        case UUID:
+          // sql uuid
+          if (castUUID) {
+            return java.util.UUID.fromString(value);
+          }
+          break;
+        default:
+          break;
       }
 
     } catch (RuntimeException e) {
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.ContextInternal;
+import io.vertx.core.impl.TaskQueue;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLOptions;
+import io.vertx.ext.sql.SQLRowStream;
+import nz.fiore.vertx.ext.jpa.util.RestrinctionHandler;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPAStreamQuery extends AbstractJDBCAction<SQLRowStream>
+{
+/*
+SELECT * from table_name WHERE column = :VAR1 ;
+read fetchSize rows at a time
+ */
+
+  private static final int DEFAULT_ROW_STREAM_FETCH_SIZE = 128;
+
+  private final String sql;
+  private final Object[] orderedParams;
+  private final TaskQueue statementsQueue;
+
+  public JPAStreamQuery(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    TaskQueue statementsQueue, String sql, JsonObject params)
+  {
+    super(vertx, helper, options, ctx);
+    JPANamedQuery query = JPANamedQuery.parse(helper, sql);
+    this.sql = query.sql();
+    this.orderedParams = query.bind(params);
+    this.statementsQueue = statementsQueue;
+  }
+
+  public JPAStreamQuery(Vertx vertx, JPAStatementHelper helper, SQLOptions options, ContextInternal ctx,
+    TaskQueue statementsQueue, String table, JsonObject params,
+    RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler)
+  {
+    super(vertx, helper, options, ctx);
+    StringBuffer sb = new StringBuffer();
+    restictionHandler.handle(params, table, sb);
+    JPANamedQuery query = JPANamedQuery.parse(helper, sb.toString());
+    this.sql = query.sql();
+    this.orderedParams = query.bind(params);
+    this.statementsQueue = statementsQueue;
+  }
+
+  @Override
+  public SQLRowStream execute(Connection conn) throws SQLException
+  {
+    PreparedStatement st = null;
+
+    try
+    {
+      // the stream owns the statement until it is closed, so it does not come from the statement cache
+      st = conn.prepareStatement(sql);
+      // apply statement options
+      applyStatementOptions(st);
+
+      helper.fillStatement(st, orderedParams);
+      ResultSet rs = null;
+
+      try
+      {
+        rs = st.executeQuery();
+
+        final int fetchSize;
+
+        if (options != null && options.getFetchSize() > 0)
+        {
+          fetchSize = options.getFetchSize();
+        }
+        else
+        {
+          fetchSize = DEFAULT_ROW_STREAM_FETCH_SIZE;
+        }
+
+        return new JPASQLRowStream(ctx, this.statementsQueue, st, rs, fetchSize,
+          helper.rowDecoder(sql, rs.getMetaData()));
+      }
+      catch (SQLException e)
+      {
+        if (rs != null)
+        {
+          rs.close();
+        }
+        throw e;
+      }
+    }
+    catch (SQLException e)
+    {
+      if (st != null)
+      {
+        st.close();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  protected String name()
+  {
+    return "stream";
+  }
+}
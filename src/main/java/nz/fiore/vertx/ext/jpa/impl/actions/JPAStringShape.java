@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+/**
+ * The shape of a string parameter, recognized in a single pass over its chars by length and separator positions,
+ * without regex or allocation. Only the shape is checked, the value is parsed once a shape matches:
+ * <ul>
+ * <li>TIME: <code>hh:mm:ss</code></li>
+ * <li>DATE: <code>yyyy-MM-dd</code>, with a month from 00 to 12</li>
+ * <li>DATETIME: <code>yyyy-MM-ddThh:mm:ss[.fffffffff]Z</code>, with 3 to 9 fraction digits</li>
+ * <li>UUID: <code>8-4-4-4-12</code> hex digits</li>
+ * </ul>
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public enum JPAStringShape
+{
+  TEXT, TIME, DATE, DATETIME, UUID;
+
+  public static JPAStringShape classify(String value)
+  {
+    int length = value.length();
+    switch (length)
+    {
+      case 8:
+        return isTime(value, 0) ? TIME : TEXT;
+      case 10:
+        return isDate(value) ? DATE : TEXT;
+      case 20:
+      case 24:
+      case 25:
+      case 26:
+      case 27:
+      case 28:
+      case 29:
+      case 30:
+        return isDateTime(value, length) ? DATETIME : TEXT;
+      case 36:
+        return isUuid(value) ? UUID : TEXT;
+      default:
+        return TEXT;
+    }
+  }
+
+  /*
+  hh:mm:ss from offset
+   */
+  private static boolean isTime(String value, int offset)
+  {
+    return digit(value, offset) && digit(value, offset + 1) && value.charAt(offset + 2) == ':'
+      && digit(value, offset + 3) && digit(value, offset + 4) && value.charAt(offset + 5) == ':'
+      && digit(value, offset + 6) && digit(value, offset + 7);
+  }
+
+  /*
+  yyyy-MM-dd from 0
+   */
+  private static boolean isDate(String value)
+  {
+    if (!(digit(value, 0) && digit(value, 1) && digit(value, 2) && digit(value, 3) && value.charAt(4) == '-'
+      && value.charAt(7) == '-' && digit(value, 8) && digit(value, 9)))
+    {
+      return false;
+    }
+    char m0 = value.charAt(5);
+    char m1 = value.charAt(6);
+    return (m0 == '0' && m1 >= '0' && m1 <= '9') || (m0 == '1' && m1 >= '0' && m1 <= '2');
+  }
+
+  private static boolean isDateTime(String value, int length)
+  {
+    if (value.charAt(length - 1) != 'Z' || value.charAt(10) != 'T' || !isDate(value) || !isTime(value, 11))
+    {
+      return false;
+    }
+    if (length == 20)
+    {
+      return true;
+    }
+    // .fff to .fffffffff
+    if (value.charAt(19) != '.')
+    {
+      return false;
+    }
+    for (int i = 20; i < length - 1; i++)
+    {
+      if (!digit(value, i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isUuid(String value)
+  {
+    for (int i = 0; i < 36; i++)
+    {
+      char c = value.charAt(i);
+      if (i == 8 || i == 13 || i == 18 || i == 23)
+      {
+        if (c != '-')
+        {
+          return false;
+        }
+      }
+      else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean digit(String value, int index)
+  {
+    char c = value.charAt(index);
+    return c >= '0' && c <= '9';
+  }
+}
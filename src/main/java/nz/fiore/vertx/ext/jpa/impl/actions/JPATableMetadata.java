@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.actions;
+
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The sql types of the columns of the tables, read lazily with {@link DatabaseMetaData#getColumns} the first time
+ * a table is used and kept until {@link #clear()}. The column names are matched ignoring the case.
+ * <p>
+ * A table that is not found is not cached, so it's looked up again once created. After a change of the columns of
+ * a table {@link #clear()} must be called, the types already resolved by the sql templates are then resolved again.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPATableMetadata
+{
+
+  private static final Logger log = LoggerFactory.getLogger(JPATableMetadata.class);
+
+  /**
+   * The type of a column that is not known, its values are bound as before, guessing the type from the value.
+   */
+  public static final int UNKNOWN = Integer.MIN_VALUE;
+
+  private final JPASqlCache<String, Map<String, Integer>> tables;
+  private final AtomicInteger generation = new AtomicInteger();
+
+  public JPATableMetadata(int maxSize)
+  {
+    this.tables = new JPASqlCache<>(maxSize);
+  }
+
+  /**
+   * The sql type of a column, or {@link #UNKNOWN}
+   */
+  public int columnType(Connection conn, String table, String column) throws SQLException
+  {
+    Map<String, Integer> columns = columns(conn, table);
+    Integer type = columns.get(column.toUpperCase(Locale.ROOT));
+    return type == null ? UNKNOWN : type;
+  }
+
+  /**
+   * The sql types of the columns of a table by upper case name, empty if the table is not found.
+   */
+  public Map<String, Integer> columns(Connection conn, String table) throws SQLException
+  {
+    Map<String, Integer> columns = tables.getIfPresent(table);
+    if (columns == null)
+    {
+      columns = read(conn, table);
+      if (!columns.isEmpty())
+      {
+        tables.put(table, columns);
+      }
+    }
+    return columns;
+  }
+
+  public JPASqlCache<String, Map<String, Integer>> cache()
+  {
+    return tables;
+  }
+
+  /**
+   * Forgets the columns of all the tables, to be called after the schema changed.
+   */
+  public void clear()
+  {
+    generation.incrementAndGet();
+    tables.clear();
+  }
+
+  /**
+   * Incremented by {@link #clear()}, the types resolved in an older generation must be resolved again.
+   */
+  public int generation()
+  {
+    return generation.get();
+  }
+
+  private static Map<String, Integer> read(Connection conn, String table) throws SQLException
+  {
+    DatabaseMetaData metaData = conn.getMetaData();
+    String schema = null;
+    String name = table;
+    int dot = table.lastIndexOf('.');
+    if (dot > 0)
+    {
+      schema = identifier(metaData, table.substring(0, dot));
+      name = table.substring(dot + 1);
+    }
+    name = identifier(metaData, name);
+    String current = schema != null ? schema : currentSchema(conn);
+
+    // the names are patterns, an underscore would also match other tables: they are escaped and checked again
+    // the same table name can exist in more schemas, the current one wins
+    String escape = metaData.getSearchStringEscape();
+    Map<String, Map<String, Integer>> bySchema = new HashMap<>();
+    try (ResultSet rs = metaData.getColumns(conn.getCatalog(), escape(schema, escape), escape(name, escape), "%"))
+    {
+      while (rs.next())
+      {
+        if (!name.equals(rs.getString("TABLE_NAME"))
+          || (schema != null && !schema.equals(rs.getString("TABLE_SCHEM"))))
+        {
+          continue;
+        }
+        String tableSchema = rs.getString("TABLE_SCHEM");
+        bySchema.computeIfAbsent(tableSchema == null ? "" : tableSchema, s -> new HashMap<>())
+          .put(rs.getString("COLUMN_NAME").toUpperCase(Locale.ROOT), rs.getInt("DATA_TYPE"));
+      }
+    }
+    if (bySchema.isEmpty())
+    {
+      log.debug("No columns found for table: " + table);
+      return Collections.emptyMap();
+    }
+    Map<String, Integer> columns = current != null ? bySchema.get(current) : null;
+    if (columns == null)
+    {
+      columns = bySchema.values().iterator().next();
+    }
+    return Collections.unmodifiableMap(columns);
+  }
+
+  private static String identifier(DatabaseMetaData metaData, String identifier) throws SQLException
+  {
+    if (identifier.startsWith("\"") && identifier.endsWith("\"") && identifier.length() > 1)
+    {
+      return identifier.substring(1, identifier.length() - 1);
+    }
+    if (metaData.storesUpperCaseIdentifiers())
+    {
+      return identifier.toUpperCase(Locale.ROOT);
+    }
+    if (metaData.storesLowerCaseIdentifiers())
+    {
+      return identifier.toLowerCase(Locale.ROOT);
+    }
+    return identifier;
+  }
+
+  private static String escape(String pattern, String escape)
+  {
+    if (pattern == null || escape == null || escape.isEmpty())
+    {
+      return pattern;
+    }
+    StringBuilder escaped = new StringBuilder(pattern.length() + 8);
+    for (int i = 0; i < pattern.length(); i++)
+    {
+      char c = pattern.charAt(i);
+      if (c == '_' || c == '%' || escape.indexOf(c) >= 0)
+      {
+        escaped.append(escape);
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+
+  private static String currentSchema(Connection conn)
+  {
+    try
+    {
+      return conn.getSchema();
+    }
+    catch (SQLException | AbstractMethodError e)
+    {
+      // optional since 1.7
+      return null;
+    }
+  }
+}
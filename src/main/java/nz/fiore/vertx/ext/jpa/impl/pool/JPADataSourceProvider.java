@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.pool;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.spi.DataSourceProvider;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * The data source provider of the native pool, select it with:
+ * <pre>
+ * "provider_class": "nz.fiore.vertx.ext.jpa.impl.pool.JPADataSourceProvider"
+ * </pre>
+ * It reads the same keys of the C3P0 provider (<code>url</code>, <code>driver_class</code>, <code>user</code>,
+ * <code>password</code>, <code>max_pool_size</code>, <code>min_pool_size</code>, <code>initial_pool_size</code>,
+ * <code>max_idle_time</code>) plus <code>max_lifetime</code> (seconds), <code>checkout_timeout</code> and
+ * <code>housekeeping_period</code> (milliseconds).
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class JPADataSourceProvider implements DataSourceProvider
+{
+
+  @Override
+  public DataSource getDataSource(JsonObject config) throws SQLException
+  {
+    return new JPAPooledDataSource(config);
+  }
+
+  @Override
+  public void close(DataSource dataSource) throws SQLException
+  {
+    if (dataSource instanceof JPAPooledDataSource)
+    {
+      ((JPAPooledDataSource) dataSource).close();
+    }
+  }
+
+  @Override
+  public int maximumPoolSize(DataSource dataSource, JsonObject config) throws SQLException
+  {
+    if (dataSource instanceof JPAPooledDataSource)
+    {
+      return ((JPAPooledDataSource) dataSource).maxPoolSize();
+    }
+    return -1;
+  }
+}
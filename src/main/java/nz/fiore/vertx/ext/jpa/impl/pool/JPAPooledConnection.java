@@ -0,0 +1,494 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.pool;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * The handle of a pooled connection given to a borrower: closing it returns the physical connection to the pool,
+ * after a rollback of the open transaction, with the statements left open by the borrower closed and the auto
+ * commit, read only, isolation, catalog and schema changed by the borrower restored.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+final class JPAPooledConnection implements Connection
+{
+
+  private final JPAPooledDataSource pool;
+  private final JPAPooledDataSource.Entry entry;
+  private boolean closed;
+  private boolean autoCommit;
+  private boolean readOnlyChanged;
+  private boolean isolationChanged;
+  private boolean catalogChanged;
+  private boolean schemaChanged;
+  private final List<Statement> statements = new ArrayList<>();
+  private int purgeAt = 16;
+
+  JPAPooledConnection(JPAPooledDataSource pool, JPAPooledDataSource.Entry entry)
+  {
+    this.pool = pool;
+    this.entry = entry;
+    this.autoCommit = entry.autoCommit;
+  }
+
+  private Connection delegate() throws SQLException
+  {
+    if (closed)
+    {
+      throw new SQLException("The connection is closed");
+    }
+    return entry.connection;
+  }
+
+  @Override
+  public void close()
+  {
+    if (closed)
+    {
+      return;
+    }
+    closed = true;
+    boolean reusable = true;
+    Connection conn = entry.connection;
+    for (Statement statement : statements)
+    {
+      try
+      {
+        statement.close();
+      }
+      catch (SQLException e)
+      {
+        // ignore close error
+      }
+    }
+    statements.clear();
+    try
+    {
+      if (!autoCommit)
+      {
+        conn.rollback();
+      }
+      if (autoCommit != entry.autoCommit)
+      {
+        conn.setAutoCommit(entry.autoCommit);
+      }
+      if (readOnlyChanged)
+      {
+        conn.setReadOnly(entry.readOnly);
+      }
+      if (isolationChanged)
+      {
+        conn.setTransactionIsolation(entry.transactionIsolation);
+      }
+      if (catalogChanged && entry.catalog != null)
+      {
+        conn.setCatalog(entry.catalog);
+      }
+      if (schemaChanged)
+      {
+        conn.setSchema(entry.schema);
+      }
+    }
+    catch (SQLException e)
+    {
+      // a connection that cannot be restored is not given to the next borrower
+      reusable = false;
+    }
+    pool.release(entry, reusable);
+  }
+
+  /*
+  the statements are kept to be closed on return, the ones already closed by the borrower are dropped each time
+  the list doubles
+   */
+  private <S extends Statement> S register(S statement)
+  {
+    if (statements.size() >= purgeAt)
+    {
+      statements.removeIf(JPAPooledConnection::isClosed);
+      purgeAt = Math.max(16, statements.size() * 2);
+    }
+    statements.add(statement);
+    return statement;
+  }
+
+  private static boolean isClosed(Statement statement)
+  {
+    try
+    {
+      return statement.isClosed();
+    }
+    catch (SQLException e)
+    {
+      return true;
+    }
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException
+  {
+    return closed || entry.connection.isClosed();
+  }
+
+  @Override
+  public void abort(Executor executor) throws SQLException
+  {
+    if (closed)
+    {
+      return;
+    }
+    closed = true;
+    pool.release(entry, false);
+  }
+
+  @Override
+  public boolean isValid(int timeout) throws SQLException
+  {
+    return !closed && entry.connection.isValid(timeout);
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) throws SQLException
+  {
+    delegate().setAutoCommit(autoCommit);
+    this.autoCommit = autoCommit;
+  }
+
+  @Override
+  public void setReadOnly(boolean readOnly) throws SQLException
+  {
+    delegate().setReadOnly(readOnly);
+    readOnlyChanged = true;
+  }
+
+  @Override
+  public void setTransactionIsolation(int level) throws SQLException
+  {
+    delegate().setTransactionIsolation(level);
+    isolationChanged = true;
+  }
+
+  @Override
+  public void setCatalog(String catalog) throws SQLException
+  {
+    delegate().setCatalog(catalog);
+    catalogChanged = true;
+  }
+
+  @Override
+  public void setClientInfo(String name, String value) throws SQLClientInfoException
+  {
+    entry.connection.setClientInfo(name, value);
+  }
+
+  @Override
+  public void setClientInfo(Properties properties) throws SQLClientInfoException
+  {
+    entry.connection.setClientInfo(properties);
+  }
+
+  @Override
+  public String getClientInfo(String name) throws SQLException
+  {
+    return delegate().getClientInfo(name);
+  }
+
+  @Override
+  public Properties getClientInfo() throws SQLException
+  {
+    return delegate().getClientInfo();
+  }
+
+  @Override
+  public Statement createStatement() throws SQLException
+  {
+    return register(delegate().createStatement());
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql) throws SQLException
+  {
+    return register(delegate().prepareStatement(sql));
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql) throws SQLException
+  {
+    return register(delegate().prepareCall(sql));
+  }
+
+  @Override
+  public String nativeSQL(String sql) throws SQLException
+  {
+    return delegate().nativeSQL(sql);
+  }
+
+  @Override
+  public boolean getAutoCommit() throws SQLException
+  {
+    return delegate().getAutoCommit();
+  }
+
+  @Override
+  public void commit() throws SQLException
+  {
+    delegate().commit();
+  }
+
+  @Override
+  public void rollback() throws SQLException
+  {
+    delegate().rollback();
+  }
+
+  @Override
+  public DatabaseMetaData getMetaData() throws SQLException
+  {
+    return delegate().getMetaData();
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException
+  {
+    return delegate().isReadOnly();
+  }
+
+  @Override
+  public String getCatalog() throws SQLException
+  {
+    return delegate().getCatalog();
+  }
+
+  @Override
+  public int getTransactionIsolation() throws SQLException
+  {
+    return delegate().getTransactionIsolation();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException
+  {
+    return delegate().getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException
+  {
+    delegate().clearWarnings();
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException
+  {
+    return register(delegate().createStatement(resultSetType, resultSetConcurrency));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException
+  {
+    return register(delegate().prepareStatement(sql, resultSetType, resultSetConcurrency));
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException
+  {
+    return register(delegate().prepareCall(sql, resultSetType, resultSetConcurrency));
+  }
+
+  @Override
+  public Map<String, Class<?>> getTypeMap() throws SQLException
+  {
+    return delegate().getTypeMap();
+  }
+
+  @Override
+  public void setTypeMap(Map<String, Class<?>> map) throws SQLException
+  {
+    delegate().setTypeMap(map);
+  }
+
+  @Override
+  public void setHoldability(int holdability) throws SQLException
+  {
+    delegate().setHoldability(holdability);
+  }
+
+  @Override
+  public int getHoldability() throws SQLException
+  {
+    return delegate().getHoldability();
+  }
+
+  @Override
+  public Savepoint setSavepoint() throws SQLException
+  {
+    return delegate().setSavepoint();
+  }
+
+  @Override
+  public Savepoint setSavepoint(String name) throws SQLException
+  {
+    return delegate().setSavepoint(name);
+  }
+
+  @Override
+  public void rollback(Savepoint savepoint) throws SQLException
+  {
+    delegate().rollback(savepoint);
+  }
+
+  @Override
+  public void releaseSavepoint(Savepoint savepoint) throws SQLException
+  {
+    delegate().releaseSavepoint(savepoint);
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+    throws SQLException
+  {
+    return register(delegate().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+    int resultSetHoldability) throws SQLException
+  {
+    return register(delegate().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+    int resultSetHoldability) throws SQLException
+  {
+    return register(delegate().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException
+  {
+    return register(delegate().prepareStatement(sql, autoGeneratedKeys));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException
+  {
+    return register(delegate().prepareStatement(sql, columnIndexes));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException
+  {
+    return register(delegate().prepareStatement(sql, columnNames));
+  }
+
+  @Override
+  public Clob createClob() throws SQLException
+  {
+    return delegate().createClob();
+  }
+
+  @Override
+  public Blob createBlob() throws SQLException
+  {
+    return delegate().createBlob();
+  }
+
+  @Override
+  public NClob createNClob() throws SQLException
+  {
+    return delegate().createNClob();
+  }
+
+  @Override
+  public SQLXML createSQLXML() throws SQLException
+  {
+    return delegate().createSQLXML();
+  }
+
+  @Override
+  public Array createArrayOf(String typeName, Object[] elements) throws SQLException
+  {
+    return delegate().createArrayOf(typeName, elements);
+  }
+
+  @Override
+  public Struct createStruct(String typeName, Object[] attributes) throws SQLException
+  {
+    return delegate().createStruct(typeName, attributes);
+  }
+
+  @Override
+  public void setSchema(String schema) throws SQLException
+  {
+    delegate().setSchema(schema);
+    schemaChanged = true;
+  }
+
+  @Override
+  public String getSchema() throws SQLException
+  {
+    return delegate().getSchema();
+  }
+
+  @Override
+  public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException
+  {
+    delegate().setNetworkTimeout(executor, milliseconds);
+  }
+
+  @Override
+  public int getNetworkTimeout() throws SQLException
+  {
+    return delegate().getNetworkTimeout();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException
+  {
+    if (iface.isInstance(this))
+    {
+      return iface.cast(this);
+    }
+    return delegate().unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException
+  {
+    return iface.isInstance(this) || delegate().isWrapperFor(iface);
+  }
+}
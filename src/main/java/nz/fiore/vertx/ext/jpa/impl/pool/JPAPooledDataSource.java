@@ -0,0 +1,690 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.impl.pool;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A connection pool without locks on the borrow and return paths.
+ * <p>
+ * The connections are kept in an array replaced on each add or remove, that are rare, and each one has an atomic
+ * state: a borrower takes a connection moving it from idle to in use with a compare and set. A thread scans the
+ * array starting from a position given by its id, so the borrowers do not all compete for the first entries. When
+ * the pool is exhausted the borrower waits for a connection handed off by the next return, or found idle by its next
+ * scan, up to <code>checkout_timeout</code>.
+ * <p>
+ * A housekeeping task closes the connections idle for more than <code>max_idle_time</code> seconds, above
+ * <code>min_pool_size</code>, and the ones older than <code>max_lifetime</code> seconds; a connection in use
+ * past its lifetime is closed when returned.
+ * <p>
+ * The pool can be resized between <code>min_pool_size</code> and <code>max_pool_size</code> while in use: a larger
+ * size opens connections when borrowers need them, a smaller one closes the idle connections above it and the
+ * ones returned while the pool is over it.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public final class JPAPooledDataSource implements DataSource, AutoCloseable
+{
+
+  private static final Logger log = LoggerFactory.getLogger(JPAPooledDataSource.class);
+
+  static final int IDLE = 0;
+  static final int IN_USE = 1;
+  static final int REMOVED = -1;
+
+  private static final int DEFAULT_MAX_POOL_SIZE = 15;
+  private static final int DEFAULT_MAX_LIFETIME = 1800;
+  private static final long DEFAULT_CHECKOUT_TIMEOUT = 30000L;
+  private static final long DEFAULT_HOUSEKEEPING_PERIOD = 30000L;
+  // a waiting borrower scans the pool again at least this often, it finds the connections not handed off to it
+  private static final long HANDOFF_SLICE = TimeUnit.MILLISECONDS.toNanos(10);
+  // a connection idle for less is not validated when borrowed
+  private static final long VALIDATION_BYPASS = TimeUnit.MILLISECONDS.toNanos(500);
+  private static final int VALIDATION_TIMEOUT = 5;
+
+  private final String url;
+  private final Driver driver;
+  private final Properties properties = new Properties();
+  private final int maxPoolSize;
+  private final int minPoolSize;
+  private final long maxIdleNanos;
+  private final long maxLifetimeNanos;
+  private final long checkoutTimeoutNanos;
+  private volatile int targetPoolSize;
+
+  private volatile Entry[] entries = new Entry[0];
+  private final SynchronousQueue<Entry> handoff = new SynchronousQueue<>(true);
+  private final AtomicInteger total = new AtomicInteger();
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final LongAdder created = new LongAdder();
+  private final LongAdder retired = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final ScheduledExecutorService housekeeper;
+  private volatile boolean closed;
+  private volatile PrintWriter logWriter;
+  private volatile int loginTimeout;
+
+  public JPAPooledDataSource(JsonObject config) throws SQLException
+  {
+    this.url = config.getString("url");
+    if (url == null)
+    {
+      throw new NullPointerException("url cannot be null");
+    }
+    this.driver = driver(config.getString("driver_class"));
+    if (config.getString("user") != null)
+    {
+      properties.setProperty("user", config.getString("user"));
+    }
+    if (config.getString("password") != null)
+    {
+      properties.setProperty("password", config.getString("password"));
+    }
+    this.maxPoolSize = Math.max(1, config.getInteger("max_pool_size", DEFAULT_MAX_POOL_SIZE));
+    this.minPoolSize = Math.max(0, Math.min(maxPoolSize, config.getInteger("min_pool_size", 0)));
+    this.targetPoolSize = maxPoolSize;
+    int initialPoolSize = Math.max(minPoolSize, Math.min(maxPoolSize,
+      config.getInteger("initial_pool_size", minPoolSize)));
+    this.maxIdleNanos = TimeUnit.SECONDS.toNanos(Math.max(0, config.getInteger("max_idle_time", 0)));
+    this.maxLifetimeNanos = TimeUnit.SECONDS.toNanos(Math.max(0, config.getInteger("max_lifetime",
+      DEFAULT_MAX_LIFETIME)));
+    this.checkoutTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, config.getLong("checkout_timeout",
+      DEFAULT_CHECKOUT_TIMEOUT)));
+    this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "vertx-jpa-pool-housekeeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try
+    {
+      for (int i = 0; i < initialPoolSize && reserve(); i++)
+      {
+        create(IDLE);
+      }
+    }
+    catch (SQLException e)
+    {
+      close();
+      throw e;
+    }
+    long period = Math.max(1L, config.getLong("housekeeping_period", DEFAULT_HOUSEKEEPING_PERIOD));
+    housekeeper.scheduleWithFixedDelay(this::housekeepQuietly, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  private static Driver driver(String driverClass) throws SQLException
+  {
+    if (driverClass == null)
+    {
+      return null;
+    }
+    ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+    try
+    {
+      Class<?> clazz;
+      try
+      {
+        clazz = tccl != null ?
+          tccl.loadClass(driverClass) :
+          JPAPooledDataSource.class.getClassLoader().loadClass(driverClass);
+      }
+      catch (ClassNotFoundException e)
+      {
+        clazz = JPAPooledDataSource.class.getClassLoader().loadClass(driverClass);
+      }
+      return (Driver) clazz.getDeclaredConstructor().newInstance();
+    }
+    catch (ReflectiveOperationException | ClassCastException e)
+    {
+      throw new SQLException("Cannot load the driver " + driverClass, e);
+    }
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException
+  {
+    return new JPAPooledConnection(this, borrow());
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException
+  {
+    throw new SQLFeatureNotSupportedException("The pool connects with the user of its configuration");
+  }
+
+  private Entry borrow() throws SQLException
+  {
+    long start = System.nanoTime();
+    boolean waiting = false;
+    try
+    {
+      while (true)
+      {
+        if (closed)
+        {
+          throw new SQLException("The pool is closed");
+        }
+        Entry entry = takeIdle();
+        if (entry == null && reserve())
+        {
+          return create(IN_USE);
+        }
+        if (entry == null)
+        {
+          long remaining = checkoutTimeoutNanos == 0 ?
+            HANDOFF_SLICE :
+            checkoutTimeoutNanos - (System.nanoTime() - start);
+          if (remaining <= 0)
+          {
+            timeouts.increment();
+            throw new SQLTransientConnectionException("No connection available in " +
+              TimeUnit.NANOSECONDS.toMillis(checkoutTimeoutNanos) + " ms, all the " + targetPoolSize +
+              " connections of the pool are in use");
+          }
+          if (!waiting)
+          {
+            // scan once more after registering, a connection returned meanwhile was not handed off
+            waiting = true;
+            waiters.incrementAndGet();
+            continue;
+          }
+          try
+          {
+            entry = handoff.poll(Math.min(remaining, HANDOFF_SLICE), TimeUnit.NANOSECONDS);
+          }
+          catch (InterruptedException e)
+          {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+          }
+          if (entry == null || !entry.state.compareAndSet(IDLE, IN_USE))
+          {
+            continue;
+          }
+        }
+        if (usable(entry))
+        {
+          return entry;
+        }
+        retire(entry);
+      }
+    }
+    finally
+    {
+      if (waiting)
+      {
+        waiters.decrementAndGet();
+      }
+    }
+  }
+
+  private Entry takeIdle()
+  {
+    Entry[] all = entries;
+    int size = all.length;
+    if (size == 0)
+    {
+      return null;
+    }
+    int from = (int) (Thread.currentThread().getId() % size);
+    for (int i = 0; i < size; i++)
+    {
+      Entry entry = all[(from + i) % size];
+      if (entry.state.get() == IDLE && entry.state.compareAndSet(IDLE, IN_USE))
+      {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private boolean usable(Entry entry)
+  {
+    long now = System.nanoTime();
+    if (expired(entry, now))
+    {
+      return false;
+    }
+    if (now - entry.lastUsed > VALIDATION_BYPASS)
+    {
+      try
+      {
+        return entry.connection.isValid(VALIDATION_TIMEOUT);
+      }
+      catch (SQLException e)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean expired(Entry entry, long now)
+  {
+    return maxLifetimeNanos > 0 && now - entry.createdAt > entry.lifetime;
+  }
+
+  /*
+  called by the connection handle once closed, with the physical connection restored to its defaults
+   */
+  void release(Entry entry, boolean reusable)
+  {
+    long now = System.nanoTime();
+    if (!reusable || closed || expired(entry, now) || total.get() > targetPoolSize)
+    {
+      retire(entry);
+      return;
+    }
+    entry.lastUsed = now;
+    entry.state.set(IDLE);
+    if (closed && entry.state.compareAndSet(IDLE, REMOVED))
+    {
+      retire(entry);
+      return;
+    }
+    // hand it to a borrower polling for one, a borrower between two polls finds it idle on its next scan
+    if (waiters.get() > 0)
+    {
+      handoff.offer(entry);
+    }
+  }
+
+  private boolean reserve()
+  {
+    while (true)
+    {
+      int size = total.get();
+      if (size >= targetPoolSize)
+      {
+        return false;
+      }
+      if (total.compareAndSet(size, size + 1))
+      {
+        return true;
+      }
+    }
+  }
+
+  /*
+  opens a connection for a place already reserved
+   */
+  private Entry create(int state) throws SQLException
+  {
+    try
+    {
+      Connection conn = driver != null ? driver.connect(url, properties) : DriverManager.getConnection(url, properties);
+      if (conn == null)
+      {
+        throw new SQLException("The driver " + driver.getClass().getName() + " does not accept the url " + url);
+      }
+      long lifetime = maxLifetimeNanos == 0 ?
+        0L :
+        // a little variance so the connections opened together are not all closed together
+        maxLifetimeNanos - ThreadLocalRandom.current().nextLong(maxLifetimeNanos / 40 + 1);
+      Entry entry;
+      try
+      {
+        entry = new Entry(conn, state, lifetime);
+      }
+      catch (SQLException e)
+      {
+        conn.close();
+        throw e;
+      }
+      add(entry);
+      created.increment();
+      return entry;
+    }
+    catch (SQLException | RuntimeException e)
+    {
+      total.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /*
+  closes a connection owned by the caller, in use or just moved from idle
+   */
+  private void retire(Entry entry)
+  {
+    entry.state.set(REMOVED);
+    remove(entry);
+    total.decrementAndGet();
+    retired.increment();
+    try
+    {
+      entry.connection.close();
+    }
+    catch (SQLException e)
+    {
+      // ignore close error
+    }
+  }
+
+  private synchronized void add(Entry entry)
+  {
+    Entry[] all = Arrays.copyOf(entries, entries.length + 1);
+    all[all.length - 1] = entry;
+    entries = all;
+  }
+
+  private synchronized void remove(Entry entry)
+  {
+    Entry[] all = entries;
+    for (int i = 0; i < all.length; i++)
+    {
+      if (all[i] == entry)
+      {
+        Entry[] smaller = new Entry[all.length - 1];
+        System.arraycopy(all, 0, smaller, 0, i);
+        System.arraycopy(all, i + 1, smaller, i, all.length - i - 1);
+        entries = smaller;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Sets the connections the pool can open, between <code>min_pool_size</code> (at least one) and
+   * <code>max_pool_size</code>. The idle connections above the new size are closed by the housekeeping thread.
+   *
+   * @return the size set
+   */
+  public int resize(int size)
+  {
+    int target = Math.max(Math.max(1, minPoolSize), Math.min(maxPoolSize, size));
+    int previous = targetPoolSize;
+    targetPoolSize = target;
+    if (target < previous && !closed)
+    {
+      try
+      {
+        housekeeper.execute(this::trim);
+      }
+      catch (RejectedExecutionException e)
+      {
+        // closed meanwhile
+      }
+    }
+    return target;
+  }
+
+  /*
+  closes the idle connections above the size of the pool
+   */
+  private void trim()
+  {
+    for (Entry entry : entries)
+    {
+      if (total.get() <= targetPoolSize)
+      {
+        return;
+      }
+      if (entry.state.compareAndSet(IDLE, REMOVED))
+      {
+        retire(entry);
+      }
+    }
+  }
+
+  /**
+   * Closes the idle connections past <code>max_idle_time</code> above <code>min_pool_size</code> and the ones
+   * past <code>max_lifetime</code>, then opens connections up to <code>min_pool_size</code>. Runs every
+   * <code>housekeeping_period</code> milliseconds.
+   */
+  public void housekeep() throws SQLException
+  {
+    trim();
+    long now = System.nanoTime();
+    int evictable = total.get() - minPoolSize;
+    for (Entry entry : entries)
+    {
+      if (expired(entry, now))
+      {
+        if (entry.state.compareAndSet(IDLE, REMOVED))
+        {
+          retire(entry);
+          evictable--;
+        }
+      }
+      else if (maxIdleNanos > 0 && evictable > 0 && now - entry.lastUsed > maxIdleNanos &&
+        entry.state.compareAndSet(IDLE, REMOVED))
+      {
+        retire(entry);
+        evictable--;
+      }
+    }
+    while (!closed && total.get() < minPoolSize && reserve())
+    {
+      create(IDLE);
+    }
+  }
+
+  private void housekeepQuietly()
+  {
+    try
+    {
+      housekeep();
+    }
+    catch (SQLException | RuntimeException e)
+    {
+      log.warn("Failed to refill the pool of " + url, e);
+    }
+  }
+
+  /**
+   * Closes the idle connections, the ones in use are closed when returned.
+   */
+  @Override
+  public void close()
+  {
+    closed = true;
+    housekeeper.shutdownNow();
+    for (Entry entry : entries)
+    {
+      if (entry.state.compareAndSet(IDLE, REMOVED))
+      {
+        retire(entry);
+      }
+    }
+  }
+
+  public boolean isClosed()
+  {
+    return closed;
+  }
+
+  public int maxPoolSize()
+  {
+    return maxPoolSize;
+  }
+
+  public int minPoolSize()
+  {
+    return minPoolSize;
+  }
+
+  /**
+   * The connections the pool can open now, <code>max_pool_size</code> unless resized
+   */
+  public int targetPoolSize()
+  {
+    return targetPoolSize;
+  }
+
+  /**
+   * The open connections, idle or in use
+   */
+  public int totalConnections()
+  {
+    return total.get();
+  }
+
+  public int idleConnections()
+  {
+    int idle = 0;
+    for (Entry entry : entries)
+    {
+      if (entry.state.get() == IDLE)
+      {
+        idle++;
+      }
+    }
+    return idle;
+  }
+
+  public int activeConnections()
+  {
+    int active = 0;
+    for (Entry entry : entries)
+    {
+      if (entry.state.get() == IN_USE)
+      {
+        active++;
+      }
+    }
+    return active;
+  }
+
+  /**
+   * The borrowers waiting for a connection now
+   */
+  public int waitingBorrowers()
+  {
+    return waiters.get();
+  }
+
+  public long createdCount()
+  {
+    return created.sum();
+  }
+
+  /**
+   * The connections closed because idle, expired, broken or returned after the pool was closed
+   */
+  public long retiredCount()
+  {
+    return retired.sum();
+  }
+
+  public long timeoutCount()
+  {
+    return timeouts.sum();
+  }
+
+  @Override
+  public PrintWriter getLogWriter()
+  {
+    return logWriter;
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out)
+  {
+    this.logWriter = out;
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds)
+  {
+    this.loginTimeout = seconds;
+  }
+
+  @Override
+  public int getLoginTimeout()
+  {
+    return loginTimeout;
+  }
+
+  @Override
+  public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException
+  {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException
+  {
+    if (iface.isInstance(this))
+    {
+      return iface.cast(this);
+    }
+    throw new SQLException("Not a wrapper for " + iface.getName());
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface)
+  {
+    return iface.isInstance(this);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "target: " + targetPoolSize() + ", total: " + totalConnections() + ", idle: " + idleConnections() +
+      ", active: " + activeConnections() + ", waiting: " + waitingBorrowers() + ", created: " + createdCount() +
+      ", retired: " + retiredCount() + ", timeouts: " + timeoutCount();
+  }
+
+  /**
+   * A physical connection with its state in the pool and the defaults restored when it is returned.
+   */
+  static final class Entry
+  {
+    final Connection connection;
+    final AtomicInteger state;
+    final long createdAt = System.nanoTime();
+    final long lifetime;
+    final boolean autoCommit;
+    final boolean readOnly;
+    final int transactionIsolation;
+    final String catalog;
+    final String schema;
+    volatile long lastUsed = createdAt;
+
+    Entry(Connection connection, int state, long lifetime) throws SQLException
+    {
+      this.connection = connection;
+      this.state = new AtomicInteger(state);
+      this.lifetime = lifetime;
+      this.autoCommit = connection.getAutoCommit();
+      this.readOnly = connection.isReadOnly();
+      this.transactionIsolation = connection.getTransactionIsolation();
+      this.catalog = connection.getCatalog();
+      this.schema = connection.getSchema();
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.sql;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+
+/**
+ * The result of a batch operation: the total of the updated rows, the update count of each row, in the same order
+ * of the rows sent, and the generated key of each row, in the same order, when the driver supports them.
+ * <p>
+ * A row count can be {@link java.sql.Statement#SUCCESS_NO_INFO} when the driver does not report it.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class BatchResult
+{
+
+  private final int updated;
+  private final List<Integer> updateCounts;
+  private final JsonArray keys;
+
+  public BatchResult(int updated, List<Integer> updateCounts, JsonArray keys)
+  {
+    this.updated = updated;
+    this.updateCounts = updateCounts;
+    this.keys = keys;
+  }
+
+  /**
+   * Get the total number of rows updated
+   *
+   * @return number of rows updated
+   */
+  public int getUpdated()
+  {
+    return updated;
+  }
+
+  /**
+   * Get the update count of each row
+   *
+   * @return the update counts
+   */
+  public List<Integer> getUpdateCounts()
+  {
+    return updateCounts;
+  }
+
+  /**
+   * Get the generated key of each row, null for the rows without one
+   *
+   * @return generated keys
+   */
+  public JsonArray getKeys()
+  {
+    return keys;
+  }
+
+  public JsonObject toJson()
+  {
+    return new JsonObject()
+      .put("updated", updated)
+      .put("updateCounts", new JsonArray(updateCounts))
+      .put("keys", keys);
+  }
+
+  @Override
+  public String toString()
+  {
+    return toJson().encode();
+  }
+}
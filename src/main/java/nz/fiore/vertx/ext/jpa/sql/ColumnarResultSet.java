@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.sql;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.sql.ResultSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A result set stored column by column: numeric and boolean columns in primitive arrays with a bitmap of the
+ * nulls, string columns as codes of a dictionary of the distinct values and the other columns as converted
+ * values. The rows are read with a {@link Cursor} or by row and column index, {@link #toResultSet()} builds the
+ * usual row based result when needed.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class ColumnarResultSet
+{
+
+  /**
+   * The storage of a column, INTEGER is stored as LONG and read back as an Integer.
+   */
+  public enum Type
+  {
+    LONG, INTEGER, DOUBLE, BOOLEAN, STRING, OBJECT
+  }
+
+  private final List<String> columnNames;
+  private final Column[] columns;
+  private final int numRows;
+
+  private ColumnarResultSet(List<String> columnNames, Column[] columns, int numRows)
+  {
+    this.columnNames = columnNames;
+    this.columns = columns;
+    this.numRows = numRows;
+  }
+
+  public List<String> getColumnNames()
+  {
+    return columnNames;
+  }
+
+  public int getNumColumns()
+  {
+    return columns.length;
+  }
+
+  public int getNumRows()
+  {
+    return numRows;
+  }
+
+  /**
+   * Get the index of a column by its name, ignoring the case
+   *
+   * @return the index or -1 if there is no such column
+   */
+  public int column(String name)
+  {
+    for (int i = 0; i < columnNames.size(); i++)
+    {
+      if (columnNames.get(i).equalsIgnoreCase(name))
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public Type getType(int column)
+  {
+    return columns[column].type;
+  }
+
+  public boolean isNull(int row, int column)
+  {
+    return columns[column].nulls.get(row);
+  }
+
+  public long getLong(int row, int column)
+  {
+    Column c = columns[column];
+    switch (c.type)
+    {
+      case LONG:
+      case INTEGER:
+        return c.longs[row];
+      case DOUBLE:
+        return (long) c.doubles[row];
+      default:
+        Object value = getValue(row, column);
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+  }
+
+  public double getDouble(int row, int column)
+  {
+    Column c = columns[column];
+    switch (c.type)
+    {
+      case DOUBLE:
+        return c.doubles[row];
+      case LONG:
+      case INTEGER:
+        return c.longs[row];
+      default:
+        Object value = getValue(row, column);
+        return value == null ? 0d : ((Number) value).doubleValue();
+    }
+  }
+
+  public boolean getBoolean(int row, int column)
+  {
+    Column c = columns[column];
+    if (c.type == Type.BOOLEAN)
+    {
+      return c.booleans[row];
+    }
+    Object value = getValue(row, column);
+    return value != null && (Boolean) value;
+  }
+
+  public String getString(int row, int column)
+  {
+    Column c = columns[column];
+    if (c.nulls.get(row))
+    {
+      return null;
+    }
+    if (c.type == Type.STRING)
+    {
+      return c.dictionary[c.codes[row]];
+    }
+    return String.valueOf(getValue(row, column));
+  }
+
+  /**
+   * Get a value boxed, as it would be in the rows of {@link #toResultSet()}
+   */
+  public Object getValue(int row, int column)
+  {
+    Column c = columns[column];
+    if (c.nulls.get(row))
+    {
+      return null;
+    }
+    switch (c.type)
+    {
+      case LONG:
+        return c.longs[row];
+      case INTEGER:
+        return (int) c.longs[row];
+      case DOUBLE:
+        return c.doubles[row];
+      case BOOLEAN:
+        return c.booleans[row];
+      case STRING:
+        return c.dictionary[c.codes[row]];
+      default:
+        return c.objects[row];
+    }
+  }
+
+  /**
+   * Get the distinct values of a string column, the code of each row is an index in this array
+   */
+  public String[] getDictionary(int column)
+  {
+    return columns[column].dictionary;
+  }
+
+  public Cursor cursor()
+  {
+    return new Cursor();
+  }
+
+  /**
+   * Build the row based result set, each row boxed in a JsonArray
+   */
+  public ResultSet toResultSet()
+  {
+    List<JsonArray> results = new ArrayList<>(numRows);
+    for (int row = 0; row < numRows; row++)
+    {
+      JsonArray result = new JsonArray(new ArrayList<>(columns.length));
+      for (int column = 0; column < columns.length; column++)
+      {
+        Object value = getValue(row, column);
+        if (value != null)
+        {
+          result.add(value);
+        }
+        else
+        {
+          result.addNull();
+        }
+      }
+      results.add(result);
+    }
+    return new ResultSet(columnNames, results, null);
+  }
+
+  /**
+   * A forward only view on the rows, <code>next()</code> must be called before reading the first row.
+   */
+  public final class Cursor
+  {
+    private int row = -1;
+
+    public boolean next()
+    {
+      if (row + 1 < numRows)
+      {
+        row++;
+        return true;
+      }
+      return false;
+    }
+
+    public int row()
+    {
+      return row;
+    }
+
+    public boolean isNull(int column)
+    {
+      return ColumnarResultSet.this.isNull(row, column);
+    }
+
+    public long getLong(int column)
+    {
+      return ColumnarResultSet.this.getLong(row, column);
+    }
+
+    public double getDouble(int column)
+    {
+      return ColumnarResultSet.this.getDouble(row, column);
+    }
+
+    public boolean getBoolean(int column)
+    {
+      return ColumnarResultSet.this.getBoolean(row, column);
+    }
+
+    public String getString(int column)
+    {
+      return ColumnarResultSet.this.getString(row, column);
+    }
+
+    public Object getValue(int column)
+    {
+      return ColumnarResultSet.this.getValue(row, column);
+    }
+
+    /**
+     * Get a value by the column name, ignoring the case
+     *
+     * @throws IllegalArgumentException if there is no such column
+     */
+    public Object getValue(String column)
+    {
+      int index = column(column);
+      if (index < 0)
+      {
+        throw new IllegalArgumentException("No column " + column + " in " + columnNames);
+      }
+      return ColumnarResultSet.this.getValue(row, index);
+    }
+  }
+
+  /**
+   * Fills the columns one value at a time, row by row: a value or a null for each column, then
+   * <code>endRow()</code>.
+   */
+  public static final class Builder
+  {
+    private final List<String> columnNames;
+    private final Column[] columns;
+    private int numRows;
+
+    public Builder(List<String> columnNames, Type[] types)
+    {
+      this.columnNames = columnNames;
+      this.columns = new Column[types.length];
+      for (int i = 0; i < types.length; i++)
+      {
+        columns[i] = new Column(types[i]);
+      }
+    }
+
+    public Type type(int column)
+    {
+      return columns[column].type;
+    }
+
+    public Builder addLong(int column, long value)
+    {
+      Column c = columns[column];
+      c.ensureCapacity(numRows);
+      c.longs[numRows] = value;
+      return this;
+    }
+
+    public Builder addDouble(int column, double value)
+    {
+      Column c = columns[column];
+      c.ensureCapacity(numRows);
+      c.doubles[numRows] = value;
+      return this;
+    }
+
+    public Builder addBoolean(int column, boolean value)
+    {
+      Column c = columns[column];
+      c.ensureCapacity(numRows);
+      c.booleans[numRows] = value;
+      return this;
+    }
+
+    public Builder addString(int column, String value)
+    {
+      if (value == null)
+      {
+        return addNull(column);
+      }
+      Column c = columns[column];
+      c.ensureCapacity(numRows);
+      c.codes[numRows] = c.encode(value);
+      return this;
+    }
+
+    public Builder addObject(int column, Object value)
+    {
+      if (value == null)
+      {
+        return addNull(column);
+      }
+      Column c = columns[column];
+      c.ensureCapacity(numRows);
+      c.objects[numRows] = value;
+      return this;
+    }
+
+    public Builder addNull(int column)
+    {
+      Column c = columns[column];
+      c.ensureCapacity(numRows);
+      c.nulls.set(numRows);
+      return this;
+    }
+
+    public Builder endRow()
+    {
+      numRows++;
+      return this;
+    }
+
+    public ColumnarResultSet build()
+    {
+      for (Column column : columns)
+      {
+        column.trim(numRows);
+      }
+      return new ColumnarResultSet(columnNames, columns, numRows);
+    }
+  }
+
+  private static final class Column
+  {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Type type;
+    private final BitSet nulls = new BitSet();
+    private long[] longs;
+    private double[] doubles;
+    private boolean[] booleans;
+    private int[] codes;
+    private Object[] objects;
+    private String[] dictionary;
+    private Map<String, Integer> encoding;
+    private int capacity;
+
+    Column(Type type)
+    {
+      this.type = type;
+      if (type == Type.STRING)
+      {
+        encoding = new HashMap<>();
+        dictionary = new String[INITIAL_CAPACITY];
+      }
+    }
+
+    void ensureCapacity(int row)
+    {
+      if (row < capacity)
+      {
+        return;
+      }
+      capacity = Math.max(INITIAL_CAPACITY, capacity * 2);
+      resize(capacity);
+    }
+
+    void trim(int rows)
+    {
+      if (rows != capacity)
+      {
+        capacity = rows;
+        resize(rows);
+      }
+      if (type == Type.STRING)
+      {
+        dictionary = Arrays.copyOf(dictionary, encoding.size());
+        encoding = null;
+      }
+    }
+
+    private void resize(int size)
+    {
+      switch (type)
+      {
+        case LONG:
+        case INTEGER:
+          longs = longs == null ? new long[size] : Arrays.copyOf(longs, size);
+          break;
+        case DOUBLE:
+          doubles = doubles == null ? new double[size] : Arrays.copyOf(doubles, size);
+          break;
+        case BOOLEAN:
+          booleans = booleans == null ? new boolean[size] : Arrays.copyOf(booleans, size);
+          break;
+        case STRING:
+          codes = codes == null ? new int[size] : Arrays.copyOf(codes, size);
+          break;
+        default:
+          objects = objects == null ? new Object[size] : Arrays.copyOf(objects, size);
+      }
+    }
+
+    int encode(String value)
+    {
+      Integer code = encoding.get(value);
+      if (code == null)
+      {
+        code = encoding.size();
+        if (code == dictionary.length)
+        {
+          dictionary = Arrays.copyOf(dictionary, code * 2);
+        }
+        dictionary[code] = value;
+        encoding.put(value, code);
+      }
+      return code;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.sql;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a find by a list of keys: the rows found, in the order the keys were requested or by key, and
+ * the keys without a row.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class FindAllResult
+{
+
+  private final Map<Object, JsonObject> rowsByKey;
+  private final JsonArray missingKeys;
+
+  public FindAllResult(Map<Object, JsonObject> rowsByKey, JsonArray missingKeys)
+  {
+    this.rowsByKey = rowsByKey;
+    this.missingKeys = missingKeys;
+  }
+
+  /**
+   * Get the rows found, in the order the keys were requested
+   *
+   * @return the rows
+   */
+  public List<JsonObject> getRows()
+  {
+    return new ArrayList<>(rowsByKey.values());
+  }
+
+  /**
+   * Get the rows found by the requested key, iterated in the order the keys were requested
+   *
+   * @return the rows by key
+   */
+  public Map<Object, JsonObject> getRowsByKey()
+  {
+    return rowsByKey;
+  }
+
+  /**
+   * Get the requested keys without a row
+   *
+   * @return the missing keys
+   */
+  public JsonArray getMissingKeys()
+  {
+    return missingKeys;
+  }
+
+  public JsonObject toJson()
+  {
+    return new JsonObject()
+      .put("rows", new JsonArray(getRows()))
+      .put("missingKeys", missingKeys);
+  }
+
+  @Override
+  public String toString()
+  {
+    return toJson().encode();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.sql;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+
+/**
+ * The result of the flush of a {@link JPAUnitOfWork}: the update count of each write, in the order the writes were
+ * queued, and the round trips to the database, one for each JDBC batch executed, compared to the writes that would
+ * have been executed one by one.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class FlushResult extends BatchResult
+{
+
+  private final int writes;
+  private final int roundTrips;
+
+  public FlushResult(int updated, List<Integer> updateCounts, JsonArray keys, int writes, int roundTrips)
+  {
+    super(updated, updateCounts, keys);
+    this.writes = writes;
+    this.roundTrips = roundTrips;
+  }
+
+  /**
+   * Get the number of writes flushed
+   *
+   * @return number of writes
+   */
+  public int getWrites()
+  {
+    return writes;
+  }
+
+  /**
+   * Get the number of batches sent to the database
+   *
+   * @return number of round trips
+   */
+  public int getRoundTrips()
+  {
+    return roundTrips;
+  }
+
+  /**
+   * Get the round trips saved compared to one statement for each write
+   *
+   * @return number of round trips saved
+   */
+  public int getRoundTripsSaved()
+  {
+    return writes - roundTrips;
+  }
+
+  @Override
+  public JsonObject toJson()
+  {
+    return super.toJson()
+      .put("writes", writes)
+      .put("roundTrips", roundTrips)
+      .put("roundTripsSaved", getRoundTripsSaved());
+  }
+}
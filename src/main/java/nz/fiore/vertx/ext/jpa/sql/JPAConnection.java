@@ -15,15 +15,20 @@
  */
 package nz.fiore.vertx.ext.jpa.sql;
 
+import io.reactivex.Flowable;
 import io.reactivex.Single;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.SQLRowStream;
 import io.vertx.ext.sql.UpdateResult;
 import nz.fiore.vertx.ext.jpa.util.RestrinctionHandler;
 
+import java.util.List;
+
 /**
  * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
  */
@@ -76,6 +81,30 @@ public interface JPAConnection extends SQLConnection
 
   Single<UpdateResult> rxPersist(String table, JsonObject params);
 
+  /**
+   * Executes the given prepared statements which may be <code>INSERT</code>
+   * statements with the given rows, sent with JDBC batches. Rows with different column sets are grouped in
+   * separate batches.
+   *
+   * @param table         the table to execute.
+   * @param rows          the rows to insert, the parameters name with values of each statement.
+   * @param resultHandler the handler which is called once the operation completes.
+   * @see java.sql.Statement#executeBatch()
+   */
+
+  SQLConnection persistBatch(String table, List<JsonObject> rows, Handler<AsyncResult<BatchResult>> resultHandler);
+
+  /**
+   * Executes the given prepared statements which may be <code>INSERT</code>
+   * statements with the given rows, sent with JDBC batches.
+   *
+   * @param table the table to execute.
+   * @param rows  the rows to insert, the parameters name with values of each statement.
+   * @see java.sql.Statement#executeBatch()
+   */
+
+  Single<BatchResult> rxPersistBatch(String table, List<JsonObject> rows);
+
   /**
    * Executes the given prepared statement which may be an <code>UPDATE</code>
    * statement with the given parameters
@@ -104,6 +133,33 @@ public interface JPAConnection extends SQLConnection
 
   Single<UpdateResult> rxMerge(String table, JsonObject params, JsonObject key);
 
+  /**
+   * Executes the given prepared statements which may be <code>UPDATE</code>
+   * statements with the given parameters, sent with JDBC batches: one prepared statement is used for each
+   * column and key set.
+   *
+   * @param table         the table to execute.
+   * @param params        the parameters to fill each statement.
+   * @param keys          name and value of table key of each statement, in the same order of params.
+   * @param resultHandler the handler which is called once the operation completes.
+   * @see java.sql.Statement#executeBatch()
+   */
+
+  SQLConnection mergeBatch(String table, List<JsonObject> params, List<JsonObject> keys,
+    Handler<AsyncResult<BatchResult>> resultHandler);
+
+  /**
+   * Executes the given prepared statements which may be <code>UPDATE</code>
+   * statements with the given parameters, sent with JDBC batches.
+   *
+   * @param table  the table to execute.
+   * @param params the parameters to fill each statement.
+   * @param keys   name and value of table key of each statement, in the same order of params.
+   * @see java.sql.Statement#executeBatch()
+   */
+
+  Single<BatchResult> rxMergeBatch(String table, List<JsonObject> params, List<JsonObject> keys);
+
   /**
    * Executes the given prepared statement which may be an <code>DELETE</code>
    * statement with the given parameters
@@ -129,6 +185,46 @@ public interface JPAConnection extends SQLConnection
 
   Single<UpdateResult> rxDelete(String table, JsonObject key);
 
+  /**
+   * Executes the given prepared statements which may be <code>DELETE ... WHERE key IN (...)</code>
+   * statements with the given keys, split in IN lists of few bucketed sizes.
+   *
+   * @param table         the table to execute.
+   * @param keyColumn     the name of table key.
+   * @param keys          the values of table key of the rows to delete.
+   * @param inTransaction true to run all the statements in one transaction, when the connection is in auto commit.
+   * @param resultHandler the handler which is called once the operation completes, with the total rows deleted.
+   * @see java.sql.Statement#executeUpdate(String)
+   * @see java.sql.PreparedStatement#executeUpdate(String)
+   */
+
+  SQLConnection deleteAll(String table, String keyColumn, JsonArray keys, boolean inTransaction,
+    Handler<AsyncResult<UpdateResult>> resultHandler);
+
+  /**
+   * Like {@link #deleteAll(String, String, JsonArray, boolean, Handler)} without opening a transaction.
+   *
+   * @param table         the table to execute.
+   * @param keyColumn     the name of table key.
+   * @param keys          the values of table key of the rows to delete.
+   * @param resultHandler the handler which is called once the operation completes, with the total rows deleted.
+   */
+
+  SQLConnection deleteAll(String table, String keyColumn, JsonArray keys,
+    Handler<AsyncResult<UpdateResult>> resultHandler);
+
+  /**
+   * Executes the given prepared statements which may be <code>DELETE ... WHERE key IN (...)</code>
+   * statements with the given keys, split in IN lists of few bucketed sizes.
+   *
+   * @param table         the table to execute.
+   * @param keyColumn     the name of table key.
+   * @param keys          the values of table key of the rows to delete.
+   * @param inTransaction true to run all the statements in one transaction, when the connection is in auto commit.
+   */
+
+  Single<UpdateResult> rxDeleteAll(String table, String keyColumn, JsonArray keys, boolean inTransaction);
+
   /**
    * Executes the given prepared statement which may be an <code>SELECT</code>
    * statement with the named parameters
@@ -207,4 +303,188 @@ public interface JPAConnection extends SQLConnection
 
   Single<ResultSet> rxFind(String table, JsonObject key);
 
+  /**
+   * Executes the given prepared statements which may be <code>SELECT * FROM TABLE WHERE key IN (...)</code>
+   * statements with the given keys, split in IN lists of few bucketed sizes.
+   *
+   * @param table         the table to execute.
+   * @param keyColumn     the name of table key.
+   * @param keys          the values of table key of the rows to find.
+   * @param resultHandler the handler which is called once the operation completes.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+  SQLConnection findAll(String table, String keyColumn, JsonArray keys,
+    Handler<AsyncResult<FindAllResult>> resultHandler);
+
+  /**
+   * Executes the given prepared statements which may be <code>SELECT * FROM TABLE WHERE key IN (...)</code>
+   * statements with the given keys, split in IN lists of few bucketed sizes.
+   *
+   * @param table     the table to execute.
+   * @param keyColumn the name of table key.
+   * @param keys      the values of table key of the rows to find.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+
+  Single<FindAllResult> rxFindAll(String table, String keyColumn, JsonArray keys);
+
+  /**
+   * Executes the given prepared statement which may be an <code>SELECT</code>
+   * statement with the named parameters, the rows are read in chunks of
+   * {@link io.vertx.ext.sql.SQLOptions#getFetchSize()} while the stream is not paused.
+   *
+   * @param sql     the query to execute.
+   * @param params  these are the parameters name with values to fill the statement.
+   * @param handler the handler which is called once the operation completes.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+  SQLConnection queryStream(String sql, JsonObject params, Handler<AsyncResult<SQLRowStream>> handler);
+
+  /**
+   * Executes the given prepared statement which may be an <code>SELECT</code>
+   * statement with the named parameters, the rows are read in chunks of
+   * {@link io.vertx.ext.sql.SQLOptions#getFetchSize()} while the stream is not paused.
+   *
+   * @param sql    the query to execute.
+   * @param params these are the parameters name with values to fill the statement.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+
+  Single<SQLRowStream> rxQueryStream(String sql, JsonObject params);
+
+  /**
+   * Executes the given prepared statement which may be an <code>SELECT</code>
+   * statement using a restrictions handler, the rows are read in chunks of
+   * {@link io.vertx.ext.sql.SQLOptions#getFetchSize()} while the stream is not paused.
+   *
+   * @param table             the table to execute.
+   * @param params            these are the parameters name with values to fill the statement.
+   * @param restictionHandler the handler which is called to generate the query.
+   * @param handler           the handler which is called once the operation completes.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+  SQLConnection queryStream(String table, JsonObject params,
+    RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler,
+    Handler<AsyncResult<SQLRowStream>> handler);
+
+  /**
+   * Executes the given prepared statement which may be an <code>SELECT</code>
+   * statement using a restrictions handler, the rows are read in chunks of
+   * {@link io.vertx.ext.sql.SQLOptions#getFetchSize()} while the stream is not paused.
+   *
+   * @param table             the table to execute.
+   * @param params            these are the parameters name with values to fill the statement.
+   * @param restictionHandler the handler which is called to generate the query.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+
+  Single<SQLRowStream> rxQueryStream(String table, JsonObject params,
+    RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler);
+
+  /**
+   * Executes the given prepared statement which may be an <code>SELECT</code>
+   * statement with the named parameters and emits the rows as they are requested: the rows are read in chunks
+   * of {@link io.vertx.ext.sql.SQLOptions#getFetchSize()} only while there is demand, the statement is closed on
+   * completion, error or cancellation.
+   *
+   * @param sql    the query to execute.
+   * @param params these are the parameters name with values to fill the statement.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+
+  Flowable<JsonObject> rxQueryFlowable(String sql, JsonObject params);
+
+  /**
+   * Executes the given prepared statement which may be an <code>SELECT</code>
+   * statement with the named parameters, the rows are stored column by column in primitive arrays and string
+   * dictionaries.
+   *
+   * @param sql           the query to execute.
+   * @param params        these are the parameters name with values to fill the statement.
+   * @param resultHandler the handler which is called once the operation completes.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+  SQLConnection queryColumnar(String sql, JsonObject params, Handler<AsyncResult<ColumnarResultSet>> resultHandler);
+
+  /**
+   * Executes the given prepared statement which may be an <code>SELECT</code>
+   * statement with the named parameters, the rows are stored column by column in primitive arrays and string
+   * dictionaries.
+   *
+   * @param sql    the query to execute.
+   * @param params these are the parameters name with values to fill the statement.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+
+  Single<ColumnarResultSet> rxQueryColumnar(String sql, JsonObject params);
+
+  /**
+   * Executes the given prepared statement which may be an <code>SELECT</code>
+   * statement using a restrictions handler, the rows are stored column by column in primitive arrays and string
+   * dictionaries.
+   *
+   * @param table             the table to execute.
+   * @param params            these are the parameters name with values to fill the statement.
+   * @param restictionHandler the handler which is called to generate the query.
+   * @param resultHandler     the handler which is called once the operation completes.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+  SQLConnection queryColumnar(String table, JsonObject params,
+    RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler,
+    Handler<AsyncResult<ColumnarResultSet>> resultHandler);
+
+  /**
+   * Executes the given prepared statement which may be an <code>SELECT</code>
+   * statement using a restrictions handler, the rows are stored column by column in primitive arrays and string
+   * dictionaries.
+   *
+   * @param table             the table to execute.
+   * @param params            these are the parameters name with values to fill the statement.
+   * @param restictionHandler the handler which is called to generate the query.
+   * @see java.sql.PreparedStatement#executeQuery()
+   */
+
+  Single<ColumnarResultSet> rxQueryColumnar(String table, JsonObject params,
+    RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler);
+
+
+  /**
+   * Runs the script as one blocking task on this connection, with its current auto commit.
+   *
+   * @param script        the operations to run.
+   * @param resultHandler the handler which is called with the result of the script.
+   */
+  <T> JPAConnection script(JPAScript<T> script, Handler<AsyncResult<T>> resultHandler);
+
+  /**
+   * Runs the script as one blocking task on this connection.
+   *
+   * @param script the operations to run.
+   */
+  <T> Single<T> rxScript(JPAScript<T> script);
+
+  /**
+   * Runs the script as one blocking task in a transaction: the auto commit is disabled, the script is run and
+   * committed, or rolled back if it fails, and the auto commit is restored.
+   *
+   * @param script        the operations to run.
+   * @param resultHandler the handler which is called with the result of the script once committed.
+   */
+  <T> JPAConnection inTransaction(JPAScript<T> script, Handler<AsyncResult<T>> resultHandler);
+
+  /**
+   * Runs the script as one blocking task in a transaction.
+   *
+   * @param script the operations to run.
+   */
+  <T> Single<T> rxInTransaction(JPAScript<T> script);
+
+  /**
+   * Returns a unit of work that queues the writes in memory and sends them to the database as JDBC batches when
+   * flushed or committed, on this connection.
+   *
+   * @return the unit of work
+   */
+  JPAUnitOfWork unitOfWork();
+
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.sql;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.UpdateResult;
+import nz.fiore.vertx.ext.jpa.util.RestrinctionHandler;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * A unit of work run as one blocking task on one connection: the operations are executed one after the other on
+ * the worker, each one can use the results of the previous ones, and only the result of the script goes back to
+ * the caller.
+ * <pre>
+ * connection.inTransaction(ops -&gt; {
+ *   ResultSet found = ops.find("whiskies", new JsonObject().put("uuid", uuid));
+ *   return ops.merge("whiskies", found.getRows().get(0).put("NAME", "new name"), key);
+ * }, result -&gt; {});
+ * </pre>
+ * The script runs on a worker thread, it must not wait for other asynchronous operations.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+@FunctionalInterface
+public interface JPAScript<T>
+{
+
+  T run(Operations ops) throws SQLException;
+
+  /**
+   * The blocking JPA operations of a script, on the connection of the script.
+   */
+  interface Operations
+  {
+
+    void create(String sql) throws SQLException;
+
+    UpdateResult persist(String table, JsonObject params) throws SQLException;
+
+    BatchResult persistBatch(String table, List<JsonObject> rows) throws SQLException;
+
+    UpdateResult merge(String table, JsonObject params, JsonObject key) throws SQLException;
+
+    BatchResult mergeBatch(String table, List<JsonObject> params, List<JsonObject> keys) throws SQLException;
+
+    UpdateResult delete(String table, JsonObject key) throws SQLException;
+
+    UpdateResult deleteAll(String table, String keyColumn, JsonArray keys) throws SQLException;
+
+    ResultSet query(String sql, JsonObject params) throws SQLException;
+
+    ResultSet query(String table, JsonObject params,
+      RestrinctionHandler<JsonObject, String, StringBuffer> restictionHandler) throws SQLException;
+
+    ResultSet find(String table, JsonObject key) throws SQLException;
+
+    FindAllResult findAll(String table, String keyColumn, JsonArray keys) throws SQLException;
+
+    /**
+     * The connection of the script, for plain JDBC; it must not be closed nor its auto commit changed.
+     */
+    Connection connection();
+  }
+}
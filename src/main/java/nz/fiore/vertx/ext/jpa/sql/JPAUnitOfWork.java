@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.sql;
+
+import io.reactivex.Single;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Writes queued in memory and sent to the database at flush time. The writes are ordered as the inserts first,
+ * then the updates and last the deletes, each kind grouped by table and column shape in the order the shapes were
+ * first queued; each group is executed as JDBC batches of batch_size rows.
+ * <p>
+ * As the writes are reordered, a delete followed by an insert of the same key must be flushed in between. A unit
+ * of work is bound to its connection and must be used from one thread at a time, like the connection.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public interface JPAUnitOfWork
+{
+
+  /**
+   * Queues an <code>INSERT</code> of the given parameters.
+   *
+   * @param table  the table to insert into.
+   * @param params these are the parameters name with values to fill the statement.
+   */
+  JPAUnitOfWork persist(String table, JsonObject params);
+
+  /**
+   * Queues an <code>UPDATE</code> of the given parameters for the row with the given key.
+   *
+   * @param table  the table to update.
+   * @param params these are the parameters name with values to fill the statement.
+   * @param key    these are the key names with values of the row to update.
+   */
+  JPAUnitOfWork merge(String table, JsonObject params, JsonObject key);
+
+  /**
+   * Queues a <code>DELETE</code> of the row with the given key.
+   *
+   * @param table the table to delete from.
+   * @param key   these are the key names with values of the row to delete.
+   */
+  JPAUnitOfWork delete(String table, JsonObject key);
+
+  /**
+   * @return the number of writes queued and not yet flushed.
+   */
+  int size();
+
+  /**
+   * Sends the queued writes with the current auto commit of the connection; the queue is emptied even if the flush
+   * fails.
+   *
+   * @param handler the handler which is called once the writes are executed.
+   */
+  void flush(Handler<AsyncResult<FlushResult>> handler);
+
+  Single<FlushResult> rxFlush();
+
+  /**
+   * Sends the queued writes in a transaction: they are all committed, or all rolled back if one fails.
+   *
+   * @param handler the handler which is called once the writes are committed.
+   */
+  void commit(Handler<AsyncResult<FlushResult>> handler);
+
+  Single<FlushResult> rxCommit();
+}
@@ -42,7 +42,7 @@ public abstract class AbstractBaseTest
    public static String SELECT_QUERY = "select * from " + TABLE;
    public static String SELECT_COUNT_AS_NUM_QUERY = "select count(*) as NUM from " + TABLE;
    public static String COUNT_ALIAS = "NUM";
-   static JsonObject config = new JsonObject()
+   protected static JsonObject config = new JsonObject()
             .put("url", "jdbc:hsqldb:mem:test?shutdown=true")
             .put("driver_class", "org.hsqldb.jdbcDriver")
             .put("max_pool_size", 30);
@@ -52,7 +52,7 @@ public abstract class AbstractBaseTest
    protected static Whisky whiskyP2;
    protected static Whisky whiskyU;
 
-   private static Vertx vertx;
+   protected static Vertx vertx;
 
    @BeforeClass
    public static void setUp()
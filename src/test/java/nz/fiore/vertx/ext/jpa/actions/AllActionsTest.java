@@ -15,18 +15,53 @@
  */
 package nz.fiore.vertx.ext.jpa.actions;
 
+import io.reactivex.Flowable;
 import io.reactivex.Single;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLOptions;
+import io.vertx.ext.sql.SQLRowStream;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 import nz.fiore.vertx.ext.jpa.AbstractBaseTest;
+import nz.fiore.vertx.ext.jpa.JPAClient;
+import nz.fiore.vertx.ext.jpa.impl.JPAAcquireStats;
+import nz.fiore.vertx.ext.jpa.impl.JPAClientImpl;
+import nz.fiore.vertx.ext.jpa.impl.JPACounters;
+import nz.fiore.vertx.ext.jpa.impl.JPAPersistBatcher;
+import nz.fiore.vertx.ext.jpa.impl.JPAWriteBehind;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPANamedQuery;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPARowDecoder;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPASqlCache;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPASqlTemplate;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAStatementCache;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPATableMetadata;
+import nz.fiore.vertx.ext.jpa.impl.pool.JPAPooledDataSource;
+import nz.fiore.vertx.ext.jpa.model.Whisky;
+import nz.fiore.vertx.ext.jpa.sql.ColumnarResultSet;
 import nz.fiore.vertx.ext.jpa.sql.JPAConnection;
+import nz.fiore.vertx.ext.jpa.sql.JPAUnitOfWork;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
 /**
  * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
  */
@@ -34,6 +69,26 @@ import org.junit.runner.RunWith;
 public class AllActionsTest extends AbstractBaseTest
 {
 
+   private static final AtomicInteger sleeping = new AtomicInteger();
+   private static final AtomicInteger maxSleeping = new AtomicInteger();
+
+   /*
+   the java function sleep_millis of hsqldb, used by oneShotParallel
+    */
+   public static int sleep(int millis) throws InterruptedException
+   {
+      maxSleeping.accumulateAndGet(sleeping.incrementAndGet(), Math::max);
+      try
+      {
+         Thread.sleep(millis);
+      }
+      finally
+      {
+         sleeping.decrementAndGet();
+      }
+      return millis;
+   }
+
    @Test
    public void create(TestContext context)
    {
@@ -295,6 +350,296 @@ public class AllActionsTest extends AbstractBaseTest
       });
    }
 
+   @Test
+   public void templateCache(TestContext context)
+   {
+      Async async = context.async();
+      JPASqlCache<JPASqlTemplate.Shape, JPASqlTemplate> cache = ((JPAClientImpl) jpaClient).templateCache();
+      jpaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> jpaClient.rxFind(TABLE, new JsonObject().put(TABLE_KEY, whiskyP.uuid)))
+               .flatMap(result2 -> {
+                  long hits = cache.hitCount();
+                  return jpaClient.rxFind(TABLE, new JsonObject().put(TABLE_KEY, whiskyP1.uuid))
+                           .doOnSuccess(result3 -> Assert.assertEquals(hits + 1, cache.hitCount()));
+               }).subscribe(resultSet -> {
+         Assert.assertTrue(cache.size() > 0);
+         async.complete();
+      }, context::fail);
+   }
+
+   @Test
+   public void statementCache(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient cachingClient = JPAClient.createNonShared(vertx, config.copy().put("statement_cache_size", 16));
+      JPAStatementCache.Stats stats = ((JPAClientImpl) cachingClient).statementCacheStats();
+      cachingClient.rxGetConnection()
+               .flatMap(conn -> {
+                  Single<ResultSet> resa = conn.rxCreate(CREATE_TABLE_QUERY)
+                           .flatMap(result1 -> conn.rxFind(TABLE, new JsonObject().put(TABLE_KEY, whiskyP.uuid)))
+                           .flatMap(result2 -> {
+                              long hits = stats.hitCount();
+                              return conn.rxFind(TABLE, new JsonObject().put(TABLE_KEY, whiskyP1.uuid))
+                                       .doOnSuccess(result3 -> Assert.assertEquals(hits + 1, stats.hitCount()));
+                           });
+                  return resa.doAfterTerminate(conn::close);
+               }).doAfterTerminate(cachingClient::close).subscribe(resultSet -> {
+         Assert.assertTrue(stats.hitRatio() > 0);
+         async.complete();
+      }, context::fail);
+   }
+
+   @Test
+   public void statementCacheResetsOptions(TestContext context)
+   {
+      Async async = context.async();
+      jpaClient.getJPAConnection(ar -> {
+         context.assertTrue(ar.succeeded());
+         JPAConnection conn = ar.result();
+         java.sql.Connection jdbc = conn.unwrap();
+         JPAStatementCache cache = new JPAStatementCache(4, null);
+         try
+         {
+            PreparedStatement statement = cache.borrow(jdbc, SELECT_QUERY, Statement.NO_GENERATED_KEYS);
+            int fetchSize = statement.getFetchSize();
+            statement.setQueryTimeout(7);
+            statement.setFetchSize(fetchSize + 13);
+            cache.release(statement);
+            // the next action gets the statement as it was prepared
+            PreparedStatement reused = cache.borrow(jdbc, SELECT_QUERY, Statement.NO_GENERATED_KEYS);
+            context.assertTrue(statement == reused);
+            context.assertEquals(0, reused.getQueryTimeout());
+            context.assertEquals(fetchSize, reused.getFetchSize());
+            cache.release(reused);
+         }
+         catch (SQLException e)
+         {
+            context.fail(e);
+         }
+         finally
+         {
+            cache.close();
+            conn.close();
+         }
+         async.complete();
+      });
+   }
+
+   @Test
+   public void statementCacheFailedBatch(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient cachingClient = JPAClient.createNonShared(vertx, config.copy().put("statement_cache_size", 16));
+      String name = "halfway " + UUID.randomUUID().toString().substring(0, 8);
+      // the second row fails to bind after the first one was added to the batch
+      List<JsonObject> failing = Arrays.asList(
+               new JsonObject().put("uuid", UUID.randomUUID().toString()).put("name", name).put("amount", 1),
+               new JsonObject().put("uuid", UUID.randomUUID().toString()).put("name", name).put("amount", "abc"));
+      List<JsonObject> rows = Arrays.asList(
+               new JsonObject().put("uuid", UUID.randomUUID().toString()).put("name", name).put("amount", 2));
+      cachingClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> cachingClient.rxGetConnection())
+               .flatMap(conn -> conn.rxPersistBatch(TABLE, failing)
+                        .map(result2 -> false)
+                        .onErrorReturnItem(true)
+                        .flatMap(failed -> {
+                           Assert.assertTrue(failed);
+                           return conn.rxPersistBatch(TABLE, rows);
+                        })
+                        .doAfterTerminate(conn::close))
+               .flatMap(batch -> {
+                  Assert.assertEquals(Arrays.asList(1), batch.getUpdateCounts());
+                  return cachingClient.rxQuery("select count(*) from " + TABLE + " where name = :name",
+                           new JsonObject().put("name", name));
+               })
+               .doAfterTerminate(cachingClient::close)
+               .subscribe(result -> {
+                  // the row queued by the failed batch is not inserted by the next one
+                  Assert.assertEquals(1, result.getResults().get(0).getInteger(0).intValue());
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void persistBatch(TestContext context)
+   {
+      Async async = context.async();
+      List<JsonObject> rows = new ArrayList<>();
+      for (int i = 0; i < 5; i++)
+      {
+         rows.add(new Whisky(UUID.randomUUID().toString(), "batch " + i).toJson());
+         rows.add(new JsonObject().put("uuid", UUID.randomUUID().toString()).put("name", "batch short " + i));
+      }
+      jpaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> jpaClient.rxPersistBatch(TABLE, rows))
+               .subscribe(result -> {
+                  Assert.assertEquals(rows.size(), result.getUpdated());
+                  Assert.assertEquals(rows.size(), result.getUpdateCounts().size());
+                  result.getUpdateCounts().forEach(count -> Assert.assertEquals(1, count.intValue()));
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void persistBatchKeys(TestContext context)
+   {
+      Async async = context.async();
+      String table = "batch_keys";
+      List<JsonObject> rows = new ArrayList<>();
+      for (int i = 0; i < 6; i++)
+      {
+         // rows with different columns go in different batches, the keys still follow the order of the rows
+         JsonObject row = new JsonObject().put("name", "keys " + i);
+         rows.add(i % 2 == 0 ? row : row.put("label", "odd"));
+      }
+      jpaClient.rxCreate("create table IF NOT EXISTS " + table
+               + " (id integer generated by default as identity primary key, name varchar(20), label varchar(20))")
+               .flatMap(result1 -> jpaClient.rxCreate("delete from " + table))
+               .flatMap(result2 -> jpaClient.rxPersistBatch(table, rows))
+               .flatMap(batch -> jpaClient.rxQuery("select id, name from " + table, new JsonObject())
+                        .map(query -> {
+                           Assert.assertEquals(rows.size(), batch.getKeys().size());
+                           Map<String, Object> ids = new HashMap<>();
+                           query.getResults().forEach(result -> ids.put(result.getString(1), result.getValue(0)));
+                           for (int i = 0; i < rows.size(); i++)
+                           {
+                              Assert.assertEquals(ids.get(rows.get(i).getString("name")), batch.getKeys().getValue(i));
+                           }
+                           return batch;
+                        }))
+               .subscribe(result -> async.complete(), context::fail);
+   }
+
+   @Test
+   public void persistBatchValues(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient valuesClient = JPAClient.createNonShared(vertx, config.copy()
+               .put("persist_batch_mode", "values")
+               .put("max_bind_parameters", 10));
+      List<JsonObject> rows = new ArrayList<>();
+      for (int i = 0; i < 7; i++)
+      {
+         rows.add(new JsonObject().put("uuid", UUID.randomUUID().toString()).put("name", "values " + i));
+      }
+      JPASqlCache<JPASqlTemplate.Shape, JPASqlTemplate> cache = ((JPAClientImpl) valuesClient).templateCache();
+      valuesClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> valuesClient.rxPersistBatch(TABLE, rows))
+               .flatMap(result2 -> {
+                  // 5 rows fit in 10 parameters: the 7 rows went as 4, 2 and 1 rows, so the 6 rows reuse 4 and 2
+                  int templates = cache.size();
+                  return valuesClient.rxPersistBatch(TABLE, rows.subList(0, 6).stream()
+                           .map(row -> row.copy().put("uuid", UUID.randomUUID().toString()))
+                           .collect(Collectors.toList()))
+                           .doOnSuccess(result3 -> Assert.assertEquals(templates, cache.size()))
+                           .map(result3 -> result2);
+               })
+               .doAfterTerminate(valuesClient::close)
+               .subscribe(result -> {
+                  Assert.assertEquals(rows.size(), result.getUpdated());
+                  result.getUpdateCounts().forEach(count -> Assert.assertEquals(1, count.intValue()));
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void mergeBatch(TestContext context)
+   {
+      Async async = context.async();
+      List<JsonObject> rows = new ArrayList<>();
+      List<JsonObject> params = new ArrayList<>();
+      List<JsonObject> keys = new ArrayList<>();
+      for (int i = 0; i < 4; i++)
+      {
+         String uuid = UUID.randomUUID().toString();
+         rows.add(new JsonObject().put("uuid", uuid).put("name", "to merge " + i));
+         params.add(i % 2 == 0 ?
+                  new JsonObject().put("name", "merged " + i) :
+                  new JsonObject().put("name", "merged " + i).put("collection_name", "merged collection"));
+         keys.add(new JsonObject().put(TABLE_KEY, uuid));
+      }
+      params.add(new JsonObject().put("name", "missing"));
+      keys.add(new JsonObject().put(TABLE_KEY, UUID.randomUUID().toString()));
+      jpaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> jpaClient.rxPersistBatch(TABLE, rows))
+               .flatMap(result2 -> jpaClient.rxMergeBatch(TABLE, params, keys))
+               .subscribe(result -> {
+                  Assert.assertEquals(rows.size(), result.getUpdated());
+                  Assert.assertEquals(Arrays.asList(1, 1, 1, 1, 0), result.getUpdateCounts());
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void mergeBatchSizeMismatch(TestContext context)
+   {
+      List<JsonObject> params = Arrays.asList(new JsonObject().put("name", "a"), new JsonObject().put("name", "b"));
+      List<JsonObject> keys = Arrays.asList(new JsonObject().put(TABLE_KEY, UUID.randomUUID().toString()));
+      long submitted = ((JPAClientImpl) jpaClient).acquireStats().submittedCount();
+      try
+      {
+         jpaClient.mergeBatch(TABLE, params, keys, result -> context.fail("no connection must be borrowed"));
+         context.fail("params and keys of different size");
+      }
+      catch (IllegalArgumentException e)
+      {
+         context.assertEquals(submitted, ((JPAClientImpl) jpaClient).acquireStats().submittedCount());
+      }
+   }
+
+   @Test
+   public void deleteAll(TestContext context)
+   {
+      Async async = context.async();
+      List<JsonObject> rows = new ArrayList<>();
+      JsonArray keys = new JsonArray();
+      for (int i = 0; i < 11; i++)
+      {
+         String uuid = UUID.randomUUID().toString();
+         rows.add(new JsonObject().put("uuid", uuid).put("name", "to delete " + i));
+         keys.add(uuid);
+      }
+      keys.add(UUID.randomUUID().toString());
+      jpaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> jpaClient.rxPersistBatch(TABLE, rows))
+               .flatMap(result2 -> jpaClient.rxDeleteAll(TABLE, TABLE_KEY, keys, true))
+               .subscribe(result -> {
+                  Assert.assertEquals(rows.size(), result.getUpdated());
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void findAll(TestContext context)
+   {
+      Async async = context.async();
+      List<JsonObject> rows = new ArrayList<>();
+      JsonArray keys = new JsonArray();
+      String missing = UUID.randomUUID().toString();
+      for (int i = 0; i < 6; i++)
+      {
+         String uuid = UUID.randomUUID().toString();
+         rows.add(new JsonObject().put("uuid", uuid).put("name", "to find " + i));
+         keys.add(uuid);
+         if (i == 2)
+         {
+            keys.add(missing);
+         }
+      }
+      jpaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> jpaClient.rxPersistBatch(TABLE, rows))
+               .flatMap(result2 -> jpaClient.rxFindAll(TABLE, TABLE_KEY, keys))
+               .subscribe(result -> {
+                  Assert.assertEquals(rows.size(), result.getRows().size());
+                  for (int i = 0; i < rows.size(); i++)
+                  {
+                     Assert.assertEquals(rows.get(i).getString("name"), result.getRows().get(i).getString("NAME"));
+                  }
+                  Assert.assertEquals(new JsonArray().add(missing), result.getMissingKeys());
+                  async.complete();
+               }, context::fail);
+   }
+
    @Test
    public void query(TestContext context)
    {
@@ -326,6 +671,26 @@ public class AllActionsTest extends AbstractBaseTest
       });
    }
 
+   @Test
+   public void queryNamedParameterCache(TestContext context)
+   {
+      Async async = context.async();
+      JPASqlCache<String, JPANamedQuery> cache = ((JPAClientImpl) jpaClient).namedQueryCache();
+      String sql = "select * from " + TABLE + " where name = :NAME or collection_name = :NAME ";
+      jpaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> jpaClient.rxPersist(TABLE, whiskyP1.toJson()))
+               .flatMap(result2 -> jpaClient.rxQuery(sql, new JsonObject().put("NAME", whiskyP1.name)))
+               .flatMap(result3 -> {
+                  Assert.assertTrue(result3.getNumRows() > 0);
+                  long hits = cache.hitCount();
+                  return jpaClient.rxQuery(sql, new JsonObject().put("NAME", whiskyP1.name))
+                           .doOnSuccess(result4 -> Assert.assertEquals(hits + 1, cache.hitCount()));
+               }).subscribe(resultSet -> {
+         Assert.assertTrue(resultSet.getNumRows() > 0);
+         async.complete();
+      }, context::fail);
+   }
+
    @Test
    public void rxQuery(TestContext context)
    {
@@ -349,4 +714,771 @@ public class AllActionsTest extends AbstractBaseTest
       });
    }
 
+   @Test
+   public void queryStream(TestContext context)
+   {
+      Async async = context.async();
+      List<JsonObject> rows = new ArrayList<>();
+      String collection = UUID.randomUUID().toString();
+      for (int i = 0; i < 7; i++)
+      {
+         rows.add(new JsonObject().put("uuid", UUID.randomUUID().toString()).put("name", "streamed " + i)
+                  .put("collection_name", collection));
+      }
+      jpaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> jpaClient.rxPersistBatch(TABLE, rows))
+               .subscribe(result2 -> jpaClient.getJPAConnection(conn -> {
+                  JPAConnection connection = conn.result();
+                  connection.setOptions(new SQLOptions().setFetchSize(2));
+                  connection.queryStream("select * from " + TABLE + " where collection_name = :COLLECTION ",
+                           new JsonObject().put("COLLECTION", collection), result3 -> {
+                              Assert.assertTrue(result3.succeeded());
+                              SQLRowStream stream = result3.result();
+                              AtomicInteger count = new AtomicInteger();
+                              stream.endHandler(v -> {
+                                 Assert.assertEquals(rows.size(), count.get());
+                                 connection.close();
+                                 async.complete();
+                              }).handler(row -> {
+                                 // pause on each chunk boundary and resume later
+                                 if (count.incrementAndGet() % 2 == 0)
+                                 {
+                                    stream.pause();
+                                    vertx.setTimer(10, t -> stream.resume());
+                                 }
+                              });
+                           });
+               }), context::fail);
+   }
+
+   @Test
+   public void rxQueryFlowable(TestContext context)
+   {
+      Async async = context.async();
+      List<JsonObject> rows = new ArrayList<>();
+      String collection = UUID.randomUUID().toString();
+      for (int i = 0; i < 9; i++)
+      {
+         rows.add(new JsonObject().put("uuid", UUID.randomUUID().toString()).put("name", "flowed " + i)
+                  .put("collection_name", collection));
+      }
+      String sql = "select * from " + TABLE + " where collection_name = :COLLECTION order by name";
+      JsonObject params = new JsonObject().put("COLLECTION", collection);
+      jpaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> jpaClient.rxPersistBatch(TABLE, rows))
+               .flatMap(result2 -> jpaClient.rxQueryFlowable(sql, params).toList())
+               .flatMap(result3 -> {
+                  Assert.assertEquals(rows.size(), result3.size());
+                  Assert.assertEquals("flowed 0", result3.get(0).getString("NAME"));
+                  // cancelled after few rows, the statement and the connection are released
+                  return jpaClient.rxQueryFlowable(sql, params).take(3).toList();
+               })
+               .flatMap(result4 -> {
+                  Assert.assertEquals(3, result4.size());
+                  Assert.assertEquals("flowed 2", result4.get(2).getString("NAME"));
+                  return jpaClient.rxGetConnection().flatMap(conn -> {
+                     conn.setOptions(new SQLOptions().setFetchSize(2));
+                     return conn.rxQueryFlowable(sql, params).rebatchRequests(1).count()
+                              .doFinally(conn::close);
+                  });
+               })
+               .subscribe(count -> {
+                  Assert.assertEquals(rows.size(), count.intValue());
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void queryColumnar(TestContext context)
+   {
+      Async async = context.async();
+      List<JsonObject> rows = new ArrayList<>();
+      String collection = UUID.randomUUID().toString();
+      for (int i = 0; i < 5; i++)
+      {
+         JsonObject row = new JsonObject().put("uuid", UUID.randomUUID().toString()).put("name", "columnar " + i)
+                  .put("collection_name", collection);
+         if (i != 3)
+         {
+            row.put("amount", i + 0.5);
+         }
+         rows.add(row);
+      }
+      String sql = "select * from " + TABLE + " where collection_name = :COLLECTION order by name";
+      JsonObject params = new JsonObject().put("COLLECTION", collection);
+      jpaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> jpaClient.rxPersistBatch(TABLE, rows))
+               .flatMap(result2 -> jpaClient.rxGetConnection().flatMap(conn ->
+                        conn.rxQueryColumnar(sql, params)
+                                 .flatMap(columnar -> conn.rxQuery(sql, params)
+                                          .doOnSuccess(resultSet -> {
+                                             Assert.assertEquals(resultSet.getResults(),
+                                                      columnar.toResultSet().getResults());
+                                             Assert.assertEquals(resultSet.getColumnNames(),
+                                                      columnar.getColumnNames());
+                                          }).map(resultSet -> columnar))
+                                 .doFinally(conn::close)))
+               .subscribe(columnar -> {
+                  Assert.assertEquals(rows.size(), columnar.getNumRows());
+                  int amount = columnar.column("amount");
+                  Assert.assertEquals(ColumnarResultSet.Type.DOUBLE, columnar.getType(amount));
+                  Assert.assertEquals(1, columnar.getDictionary(columnar.column("collection_name")).length);
+                  double total = 0;
+                  int nulls = 0;
+                  ColumnarResultSet.Cursor cursor = columnar.cursor();
+                  while (cursor.next())
+                  {
+                     if (cursor.isNull(amount))
+                     {
+                        nulls++;
+                     }
+                     else
+                     {
+                        total += cursor.getDouble(amount);
+                     }
+                  }
+                  Assert.assertEquals(1, nulls);
+                  Assert.assertEquals(0.5 + 1.5 + 2.5 + 4.5, total, 0.0001);
+                  ColumnarResultSet.Cursor first = columnar.cursor();
+                  first.next();
+                  Assert.assertEquals("columnar 0", first.getValue("NAME"));
+                  try
+                  {
+                     first.getValue("missing");
+                     Assert.fail("an unknown column must be refused");
+                  }
+                  catch (IllegalArgumentException e)
+                  {
+                     // expected
+                  }
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void queryColumnarReal(TestContext context)
+   {
+      Async async = context.async();
+      String table = "columnar_real";
+      String sql = "select * from " + table + " order by id";
+      jpaClient.rxCreate("create table IF NOT EXISTS " + table + " (id integer, ratio real, share float)")
+               .flatMap(result1 -> jpaClient.rxCreate("delete from " + table))
+               .flatMap(result2 -> jpaClient.rxCreate("insert into " + table + " values (1, 0.25, 0.5)"))
+               .flatMap(result3 -> jpaClient.rxGetConnection().flatMap(conn ->
+                        conn.rxQueryColumnar(sql, new JsonObject())
+                                 .flatMap(columnar -> conn.rxQuery(sql, new JsonObject())
+                                          .map(resultSet -> {
+                                             // the same boxed values, whatever class the driver gives to a real
+                                             JsonArray row = resultSet.getResults().get(0);
+                                             ColumnarResultSet.Cursor cursor = columnar.cursor();
+                                             cursor.next();
+                                             Assert.assertEquals(row.getValue(1), cursor.getValue("ratio"));
+                                             Assert.assertEquals(row.getValue(2), cursor.getValue("share"));
+                                             return columnar;
+                                          }))
+                                 .doFinally(conn::close)))
+               .subscribe(columnar -> async.complete(), context::fail);
+   }
+
+   @Test
+   public void queryLazyRows(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient lazyClient = JPAClient.createNonShared(vertx, config.copy().put("lazy_rows", true));
+      String uuid = UUID.randomUUID().toString();
+      JsonObject row = new JsonObject().put("uuid", uuid).put("name", "lazy").put("date", "2017-11-02T10:15:30Z")
+               .put("amount", 12.25);
+      String sql = "select * from " + TABLE + " where uuid = :UUID";
+      JsonObject params = new JsonObject().put("UUID", uuid);
+      lazyClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> lazyClient.rxPersist(TABLE, row))
+               .flatMap(result2 -> lazyClient.rxQuery(sql, params))
+               .flatMap(lazy -> jpaClient.rxQuery(sql, params).map(eager -> {
+                  Assert.assertEquals(eager.getResults(), lazy.getResults());
+                  Assert.assertEquals(eager.getRows(), lazy.getRows());
+                  Assert.assertEquals(eager.getResults().get(0).encode(), lazy.getResults().get(0).encode());
+                  return lazy;
+               }))
+               .doAfterTerminate(lazyClient::close)
+               .subscribe(lazy -> {
+                  Assert.assertEquals(12.25, lazy.getResults().get(0).getDouble(4), 0.0001);
+                  // the rows can still be changed
+                  JsonArray result = lazy.getResults().get(0);
+                  int size = result.size();
+                  result.add("extra");
+                  @SuppressWarnings("unchecked")
+                  List<Object> values = result.getList();
+                  values.set(0, "changed");
+                  Assert.assertEquals(size + 1, result.size());
+                  Assert.assertEquals("changed", result.getString(0));
+                  Assert.assertEquals("extra", result.getString(size));
+                  Assert.assertEquals(12.25, result.getDouble(4), 0.0001);
+                  result.remove(size);
+                  Assert.assertEquals(size, result.size());
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void queryRowDecoders(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient lazyClient = JPAClient.createNonShared(vertx, config.copy().put("lazy_rows", true));
+      JPASqlCache<String, JPARowDecoder> cache = ((JPAClientImpl) jpaClient).rowDecoderCache();
+      String table = "decoders";
+      String sql = "select * from " + table + " where id >= :ID order by id";
+      JsonObject params = new JsonObject().put("ID", 0);
+      jpaClient.rxCreate("create table IF NOT EXISTS " + table + " (id integer, big bigint, flag boolean, "
+               + "ratio double, whole decimal(10,0), amount decimal(19,4), day date, hour time, "
+               + "moment timestamp, label varchar(20), data varbinary(8))")
+               .flatMap(result1 -> jpaClient.rxCreate("delete from " + table))
+               .flatMap(result2 -> jpaClient.rxCreate("insert into " + table + " values (1, 9000000000, true, "
+                        + "1.5, 42, 12.25, '2017-11-02', '10:15:30', '2017-11-02 10:15:30.5', 'one', X'0102')"))
+               .flatMap(result3 -> jpaClient.rxCreate("insert into " + table + " (id) values (2)"))
+               .flatMap(result4 -> jpaClient.rxQuery(sql, params))
+               .flatMap(first -> {
+                  long hits = cache.hitCount();
+                  return jpaClient.rxQuery(sql, params).map(second -> {
+                     Assert.assertEquals(hits + 1, cache.hitCount());
+                     Assert.assertEquals(first.getResults(), second.getResults());
+                     return second;
+                  });
+               })
+               .flatMap(decoded -> lazyClient.rxQuery(sql, params).map(generic -> {
+                  // the typed converters give the same values as the generic conversion of getObject
+                  Assert.assertEquals(generic.getResults().toString(), decoded.getResults().toString());
+                  return decoded;
+               }))
+               .doAfterTerminate(lazyClient::close)
+               .subscribe(decoded -> {
+                  Assert.assertEquals(2, decoded.getNumRows());
+                  Assert.assertTrue(decoded.getResults().get(1).hasNull(1));
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void persistSchemaBinding(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient schemaClient = JPAClient.createNonShared(vertx, config.copy().put("schema_binding", true));
+      String uuid = UUID.randomUUID().toString();
+      // a text that looks like a timestamp stays a text in a varchar column, the date column is still parsed
+      JsonObject row = new JsonObject().put("uuid", uuid).put("name", "2017-11-02T10:15:30Z")
+               .put("collection_name", "10:15:30").put("date", "2017-11-02T10:15:30Z");
+      schemaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> schemaClient.rxPersist(TABLE, row))
+               .flatMap(result2 -> schemaClient.rxFind(TABLE, new JsonObject().put(TABLE_KEY, uuid)))
+               .doAfterTerminate(schemaClient::close)
+               .subscribe(resultSet -> {
+                  JsonObject found = resultSet.getRows().get(0);
+                  Assert.assertEquals("2017-11-02T10:15:30Z", found.getString("NAME"));
+                  Assert.assertEquals("10:15:30", found.getString("COLLECTION_NAME"));
+                  Assert.assertTrue(found.getString("DATE").startsWith("2017-11-02T10:15:30"));
+                  Assert.assertFalse(((JPAClientImpl) schemaClient).tableMetadata().cache().size() == 0);
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void tableMetadataLikePattern(TestContext context)
+   {
+      Async async = context.async();
+      jpaClient.getJPAConnection(ar -> {
+         context.assertTrue(ar.succeeded());
+         JPAConnection conn = ar.result();
+         // the underscore of meta_tab would match metaxtab as a pattern
+         conn.script(ops -> {
+            ops.create("create table IF NOT EXISTS meta_tab (id integer, code varchar(10))");
+            ops.create("create table IF NOT EXISTS metaxtab (id varchar(10), other_code integer)");
+            return new JPATableMetadata(8).columns(ops.connection(), "meta_tab");
+         }, columns -> {
+            context.assertTrue(columns.succeeded());
+            context.assertEquals(2, columns.result().size());
+            context.assertEquals(java.sql.Types.INTEGER, columns.result().get("ID"));
+            context.assertEquals(java.sql.Types.VARCHAR, columns.result().get("CODE"));
+            conn.close();
+            async.complete();
+         });
+      });
+   }
+
+   @Test
+   public void schemaBindingClearTableMetadata(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient schemaClient = JPAClient.createNonShared(vertx, config.copy().put("schema_binding", true));
+      String table = "schema_change";
+      JsonObject row = new JsonObject().put("id", 1).put("moment", "2017-11-02T10:15:30Z");
+      schemaClient.rxCreate("drop table " + table + " IF EXISTS")
+               .flatMap(result1 -> schemaClient.rxCreate("create table " + table + " (id integer, moment varchar(30))"))
+               .flatMap(result2 -> schemaClient.rxPersist(table, row))
+               .flatMap(result3 -> schemaClient.rxCreate("delete from " + table))
+               .flatMap(result4 -> schemaClient.rxCreate("alter table " + table + " alter column moment timestamp"))
+               // the template still has the varchar type until the metadata is cleared
+               .flatMap(result5 -> schemaClient.clearTableMetadata().rxPersist(table, row))
+               .flatMap(result6 -> schemaClient.rxFind(table, new JsonObject().put("id", 1)))
+               .doAfterTerminate(schemaClient::close)
+               .subscribe(resultSet -> {
+                  Assert.assertTrue(resultSet.getRows().get(0).getString("MOMENT").startsWith("2017-11-02T10:15:30"));
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void acquireQueueFull(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient boundedClient = JPAClient.createNonShared(vertx, config.copy()
+               .put("max_pool_size", 1)
+               .put("acquire_threads", 1)
+               .put("acquire_queue_size", 1));
+      JPAAcquireStats stats = ((JPAClientImpl) boundedClient).acquireStats();
+      int requests = 20;
+      AtomicInteger done = new AtomicInteger();
+      AtomicInteger rejected = new AtomicInteger();
+      for (int i = 0; i < requests; i++)
+      {
+         boundedClient.getJPAConnection(result -> {
+            if (result.succeeded())
+            {
+               result.result().close();
+            }
+            else
+            {
+               // the requests over the queue fail fast instead of waiting
+               Assert.assertTrue(result.cause() instanceof SQLTransientConnectionException);
+               rejected.incrementAndGet();
+            }
+            if (done.incrementAndGet() == requests)
+            {
+               Assert.assertTrue(rejected.get() > 0);
+               Assert.assertEquals(rejected.get(), stats.rejectedCount());
+               Assert.assertEquals(requests - rejected.get(), stats.acquiredCount());
+               Assert.assertEquals(requests, stats.submittedCount());
+               boundedClient.close();
+               async.complete();
+            }
+         });
+      }
+   }
+
+   @Test
+   public void createSharedWarm(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient.createShared(vertx, config.copy()
+               .put("provider_class", JPAClient.NATIVE_PROVIDER_CLASS)
+               .put("min_pool_size", 3), "warm", created -> {
+         context.assertTrue(created.succeeded());
+         JPAClient warmClient = created.result();
+         JPAPooledDataSource ds = (JPAPooledDataSource) ((JPAClientImpl) warmClient).dataSource();
+         // the connections are open before the first request
+         context.assertEquals(3, ds.idleConnections());
+         warmClient.rxQuery(SELECT_COUNT_AS_NUM_QUERY, new JsonObject())
+                  .doAfterTerminate(warmClient::close)
+                  .subscribe(resultSet -> {
+                     context.assertEquals(3L, ds.createdCount());
+                     async.complete();
+                  }, context::fail);
+      });
+   }
+
+   @Test
+   public void oneShotOnCallerContext(TestContext context)
+   {
+      Async async = context.async();
+      Context caller = vertx.getOrCreateContext();
+      JPAAcquireStats stats = ((JPAClientImpl) jpaClient).acquireStats();
+      long released = stats.releasedCount();
+      caller.runOnContext(v -> jpaClient.find(TABLE, new JsonObject().put(TABLE_KEY, whiskyP.uuid), result -> {
+         context.assertTrue(result.succeeded());
+         // the one-shot find borrows, executes and closes on a worker, the result is on the caller
+         context.assertEquals(caller, Vertx.currentContext());
+         context.assertTrue(stats.releasedCount() > released);
+         async.complete();
+      }));
+   }
+
+   @Test
+   public void oneShotParallel(TestContext context)
+   {
+      Async async = context.async();
+      // without max_pool_size there is one acquisition thread, the statements still run in parallel on the workers
+      JsonObject parallelConfig = config.copy();
+      parallelConfig.remove("max_pool_size");
+      JPAClient parallelClient = JPAClient.createNonShared(vertx, parallelConfig);
+      String sql = "select sleep_millis(300) from (values(0))";
+      maxSleeping.set(0);
+      parallelClient.rxCreate("create function sleep_millis(millis integer) returns integer language java "
+               + "not deterministic no sql external name 'CLASSPATH:" + AllActionsTest.class.getName() + ".sleep'")
+               // already created by a previous run on the same database
+               .map(created -> true).onErrorReturnItem(false)
+               .toFlowable()
+               .flatMap(created -> Flowable.range(0, 4)
+                        .flatMapSingle(i -> parallelClient.rxQuery(sql, new JsonObject())))
+               .toList()
+               .doAfterTerminate(parallelClient::close)
+               .subscribe(results -> {
+                  Assert.assertEquals(4, results.size());
+                  Assert.assertTrue("the one-shot queries ran one at a time", maxSleeping.get() > 1);
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void inTransaction(TestContext context)
+   {
+      Async async = context.async();
+      String uuid = UUID.randomUUID().toString();
+      JsonObject key = new JsonObject().put(TABLE_KEY, uuid);
+      jpaClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(result1 -> jpaClient.rxInTransaction(ops -> {
+                  ops.persist(TABLE, new JsonObject().put("uuid", uuid).put("name", "script"));
+                  // the second step reads the row written by the first one
+                  JsonObject row = ops.find(TABLE, key).getRows().get(0);
+                  ops.merge(TABLE, new JsonObject().put("name", row.getString("NAME") + " merged"), key);
+                  return ops.find(TABLE, key).getRows().get(0);
+               }))
+               .subscribe(row -> {
+                  context.assertEquals("script merged", row.getString("NAME"));
+                  async.complete();
+               }, context::fail);
+   }
+
+   @Test
+   public void inTransactionRollback(TestContext context)
+   {
+      Async async = context.async();
+      String uuid = UUID.randomUUID().toString();
+      JsonObject key = new JsonObject().put(TABLE_KEY, uuid);
+      jpaClient.getJPAConnection(ar -> {
+         context.assertTrue(ar.succeeded());
+         JPAConnection conn = ar.result();
+         conn.create(CREATE_TABLE_QUERY, created -> conn.inTransaction(ops -> {
+            ops.persist(TABLE, new JsonObject().put("uuid", uuid).put("name", "rolled back"));
+            return ops.query("select * from missing_table", new JsonObject());
+         }, failed -> {
+            context.assertTrue(failed.failed());
+            conn.script(ops -> {
+               context.assertTrue(ops.connection().getAutoCommit());
+               return ops.find(TABLE, key);
+            }, found -> {
+               context.assertTrue(found.succeeded());
+               context.assertEquals(0, found.result().getNumRows());
+               conn.close();
+               async.complete();
+            });
+         }));
+      });
+   }
+
+   @Test
+   public void inTransactionErrorRollback(TestContext context)
+   {
+      Async async = context.async();
+      String uuid = UUID.randomUUID().toString();
+      JsonObject key = new JsonObject().put(TABLE_KEY, uuid);
+      jpaClient.getJPAConnection(ar -> {
+         context.assertTrue(ar.succeeded());
+         JPAConnection conn = ar.result();
+         // an error is not an exception, restoring the auto commit must not commit the persist
+         conn.create(CREATE_TABLE_QUERY, created -> conn.inTransaction(ops -> {
+            ops.persist(TABLE, new JsonObject().put("uuid", uuid).put("name", "rolled back"));
+            throw new StackOverflowError();
+         }, failed -> {
+            context.assertTrue(failed.failed());
+            conn.find(TABLE, key, found -> {
+               context.assertTrue(found.succeeded());
+               context.assertEquals(0, found.result().getNumRows());
+               conn.close();
+               async.complete();
+            });
+         }));
+      });
+   }
+
+   @Test
+   public void unitOfWork(TestContext context)
+   {
+      Async async = context.async();
+      JsonArray keys = new JsonArray();
+      jpaClient.rxGetConnection().subscribe(conn -> {
+         JPAUnitOfWork work = conn.unitOfWork();
+         for (int i = 0; i < 10; i++)
+         {
+            String uuid = UUID.randomUUID().toString();
+            keys.add(uuid);
+            JsonObject key = new JsonObject().put(TABLE_KEY, uuid);
+            // queued before its insert, flushed after it
+            if (i % 2 == 0)
+            {
+               work.merge(TABLE, new JsonObject().put("name", "merged " + i), key);
+            }
+            work.persist(TABLE, new JsonObject().put("uuid", uuid).put("name", "unit " + i));
+            if (i % 5 == 0)
+            {
+               work.delete(TABLE, key);
+            }
+         }
+         context.assertEquals(17, work.size());
+         work.rxCommit()
+                  .flatMap(flushed -> {
+                     context.assertEquals(0, work.size());
+                     context.assertEquals(17, flushed.getUpdated());
+                     // one batch for the inserts, one for the updates and one for the deletes
+                     context.assertEquals(3, flushed.getRoundTrips());
+                     context.assertEquals(14, flushed.getRoundTripsSaved());
+                     return conn.rxFindAll(TABLE, TABLE_KEY, keys);
+                  })
+                  .doAfterTerminate(conn::close)
+                  .subscribe(found -> {
+                     context.assertEquals(8, found.getRows().size());
+                     context.assertEquals("merged 2", found.getRowsByKey().get(keys.getString(2)).getString("NAME"));
+                     async.complete();
+                  }, context::fail);
+      }, context::fail);
+   }
+
+   @Test
+   public void persistBatching(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient batchingClient = JPAClient.createNonShared(vertx, config.copy()
+               .put("persist_batching", new JsonArray().add(TABLE))
+               .put("persist_batching_window", 50)
+               .put("persist_batching_max_size", 5));
+      JPAPersistBatcher batcher = ((JPAClientImpl) batchingClient).persistBatcher();
+      AtomicInteger succeeded = new AtomicInteger();
+      AtomicInteger failed = new AtomicInteger();
+      int persists = 12;
+      batchingClient.create(CREATE_TABLE_QUERY, created -> {
+         for (int i = 0; i < persists; i++)
+         {
+            JsonObject row = new JsonObject().put("uuid", UUID.randomUUID().toString()).put("name", "batched " + i);
+            if (i == 7)
+            {
+               // fails its batch, the other rows of the batch are inserted one by one
+               row.put("no_such_column", "x");
+            }
+            batchingClient.persist(TABLE, row, result -> {
+               if (result.succeeded())
+               {
+                  context.assertEquals(1, result.result().getUpdated());
+                  succeeded.incrementAndGet();
+               }
+               else
+               {
+                  failed.incrementAndGet();
+               }
+               if (succeeded.get() + failed.get() == persists)
+               {
+                  context.assertEquals(1, failed.get());
+                  context.assertEquals(3L, batcher.batchCount());
+                  context.assertEquals(1L, batcher.fallbackCount());
+                  batchingClient.close(closed -> async.complete());
+               }
+            });
+         }
+      });
+   }
+
+   @Test
+   public void persistBatchingKeys(TestContext context)
+   {
+      Async async = context.async();
+      String table = "batching_keys";
+      JPAClient batchingClient = JPAClient.createNonShared(vertx, config.copy()
+               .put("persist_batching", new JsonArray().add(table))
+               .put("persist_batching_window", 50));
+      Map<String, Object> keys = new HashMap<>();
+      int persists = 6;
+      batchingClient.create("create table IF NOT EXISTS " + table
+               + " (id integer generated by default as identity primary key, name varchar(20), label varchar(20))",
+               created -> {
+         for (int i = 0; i < persists; i++)
+         {
+            // one batch with two column sets, each caller still gets the key of its own row
+            JsonObject row = new JsonObject().put("name", UUID.randomUUID().toString().substring(0, 20));
+            batchingClient.persist(table, i % 2 == 0 ? row : row.put("label", "odd"), result -> {
+               context.assertTrue(result.succeeded());
+               keys.put(row.getString("name"), result.result().getKeys().getValue(0));
+               if (keys.size() == persists)
+               {
+                  batchingClient.query("select id, name from " + table, new JsonObject(), query -> {
+                     query.result().getResults().stream()
+                              .filter(found -> keys.containsKey(found.getString(1)))
+                              .forEach(found -> context.assertEquals(found.getValue(0), keys.get(found.getString(1))));
+                     context.assertEquals(1L, ((JPAClientImpl) batchingClient).persistBatcher().batchCount());
+                     batchingClient.close(closed -> async.complete());
+                  });
+               }
+            });
+         }
+      });
+   }
+
+   @Test
+   public void writeBehind(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient behindClient = JPAClient.createNonShared(vertx, config.copy()
+               .put("max_pool_size", 1)
+               .put("write_behind", new JsonArray().add(TABLE))
+               .put("write_behind_period", 60000)
+               .put("write_behind_max_rows", 2));
+      JPAWriteBehind behind = ((JPAClientImpl) behindClient).writeBehind();
+      List<JsonObject> rows = new ArrayList<>();
+      List<JsonObject> keys = new ArrayList<>();
+      for (int i = 0; i < 3; i++)
+      {
+         String uuid = UUID.randomUUID().toString();
+         rows.add(new JsonObject().put("uuid", uuid).put("name", "behind " + i));
+         keys.add(new JsonObject().put(TABLE_KEY, uuid));
+      }
+      behindClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(created -> behindClient.rxPersistBatch(TABLE, rows))
+               // the only connection is held, so the flush of the full buffer waits until it is released
+               .flatMap(persisted -> behindClient.rxGetConnection())
+               .subscribe(held -> {
+                  behindClient.merge(TABLE, new JsonObject().put("name", "first"), keys.get(0),
+                           context.asyncAssertSuccess());
+                  behindClient.merge(TABLE, new JsonObject().put("name", "second"), keys.get(1),
+                           context.asyncAssertSuccess());
+                  // coalesced with the first merge of the row
+                  behindClient.merge(TABLE, new JsonObject().put("collection_name", "coalesced"), keys.get(0),
+                           context.asyncAssertSuccess());
+                  // a third row is over write_behind_max_rows
+                  behindClient.merge(TABLE, new JsonObject().put("name", "third"), keys.get(2),
+                           context.asyncAssertFailure());
+                  context.assertEquals(2, behind.pendingRows());
+                  context.assertEquals(0L, behind.writtenCount());
+                  held.close(released -> {
+                     behindClient.close();
+                     context.assertEquals(0, behind.pendingRows());
+                     context.assertEquals(2L, behind.writtenCount());
+                     context.assertEquals(1L, behind.coalescedCount());
+                     context.assertEquals(1L, behind.rejectedCount());
+                     context.assertTrue(behind.lastFlushLagMillis() > 0);
+                     behindClient.merge(TABLE, new JsonObject().put("name", "late"), keys.get(1),
+                              context.asyncAssertFailure(e -> context.assertEquals(1L, behind.droppedCount())));
+                     jpaClient.rxFind(TABLE, keys.get(0)).subscribe(found -> {
+                        JsonObject row = found.getRows().get(0);
+                        context.assertEquals("first", row.getString("NAME"));
+                        context.assertEquals("coalesced", row.getString("COLLECTION_NAME"));
+                        async.complete();
+                     }, context::fail);
+                  });
+               }, context::fail);
+   }
+
+   @Test
+   public void writeBehindFailingRow(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient behindClient = JPAClient.createNonShared(vertx, config.copy()
+               .put("write_behind", new JsonArray().add(TABLE))
+               .put("write_behind_period", 60000));
+      JPAWriteBehind behind = ((JPAClientImpl) behindClient).writeBehind();
+      String uuid = UUID.randomUUID().toString();
+      JsonObject key = new JsonObject().put(TABLE_KEY, uuid);
+      behindClient.rxCreate(CREATE_TABLE_QUERY)
+               .flatMap(created -> behindClient.rxPersist(TABLE, new JsonObject().put("uuid", uuid).put("name", "ok")))
+               .subscribe(persisted -> {
+                  // the batch fails, the rows are retried one by one and only the bad one is lost
+                  behindClient.merge(TABLE, new JsonObject().put("no_such_column", "x"),
+                           new JsonObject().put(TABLE_KEY, UUID.randomUUID().toString()), context.asyncAssertSuccess());
+                  behindClient.merge(TABLE, new JsonObject().put("name", "written"), key,
+                           context.asyncAssertSuccess());
+                  behindClient.close();
+                  context.assertEquals(0, behind.pendingRows());
+                  context.assertEquals(1L, behind.writtenCount());
+                  context.assertEquals(1L, behind.failedRowCount());
+                  context.assertEquals(0L, behind.droppedCount());
+                  jpaClient.rxFind(TABLE, key).subscribe(found -> {
+                     context.assertEquals("written", found.getRows().get(0).getString("NAME"));
+                     async.complete();
+                  }, context::fail);
+               }, context::fail);
+   }
+
+   @Test
+   public void increment(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient counterClient = JPAClient.createNonShared(vertx, config.copy().put("counter_flush_period", 60000));
+      JPACounters counters = ((JPAClientImpl) counterClient).counters();
+      String id = UUID.randomUUID().toString();
+      JsonObject key = new JsonObject().put("id", id);
+      counterClient.rxCreate("create table IF NOT EXISTS counters (id varchar(255), views bigint, stock bigint)")
+               .flatMap(created -> counterClient.rxPersist("counters",
+                        new JsonObject().put("id", id).put("views", 0).put("stock", 100)))
+               .subscribe(persisted -> {
+                  for (int i = 0; i < 1000; i++)
+                  {
+                     counterClient.increment("counters", key, "views", 1);
+                  }
+                  for (int i = 0; i < 10; i++)
+                  {
+                     counterClient.increment("counters", key, "stock", -3);
+                  }
+                  context.assertEquals(2, counters.pendingKeys());
+                  counters.flush(flushed -> {
+                     context.assertTrue(flushed.succeeded());
+                     // one update for each column
+                     context.assertEquals(2, flushed.result());
+                     counterClient.increment("counters", key, "views", 5);
+                     // the pending delta is written on close
+                     counterClient.close();
+                     context.assertEquals(0, counters.pendingKeys());
+                     context.assertEquals(3L, counters.writtenCount());
+                     jpaClient.rxFind("counters", key).subscribe(found -> {
+                        JsonObject row = found.getRows().get(0);
+                        context.assertEquals(1005L, row.getLong("VIEWS"));
+                        context.assertEquals(70L, row.getLong("STOCK"));
+                        async.complete();
+                     }, context::fail);
+                  });
+               }, context::fail);
+   }
+
+   @Test
+   public void incrementFailingColumn(TestContext context)
+   {
+      Async async = context.async();
+      JPAClient counterClient = JPAClient.createNonShared(vertx, config.copy()
+               .put("counter_flush_period", 60000)
+               .put("counter_max_attempts", 2));
+      JPACounters counters = ((JPAClientImpl) counterClient).counters();
+      String id = UUID.randomUUID().toString();
+      JsonObject key = new JsonObject().put("id", id);
+      counterClient.rxCreate("create table IF NOT EXISTS counters (id varchar(255), views bigint, stock bigint)")
+               .flatMap(created -> counterClient.rxPersist("counters",
+                        new JsonObject().put("id", id).put("views", 0).put("stock", 100)))
+               .subscribe(persisted -> {
+                  counterClient.increment("counters", key, "views", 4);
+                  counterClient.increment("counters", key, "no_such_column", 7);
+                  counters.flush(first -> {
+                     // the batch fails, the views are written on their own and the bad column is put back
+                     context.assertTrue(first.succeeded());
+                     context.assertEquals(1, first.result());
+                     context.assertEquals(1, counters.pendingKeys());
+                     counterClient.increment("counters", key, "views", 1);
+                     counters.flush(second -> {
+                        // at the second failure the bad column is dropped, the views are still written
+                        context.assertTrue(second.succeeded());
+                        context.assertEquals(1, second.result());
+                        context.assertEquals(0, counters.pendingKeys());
+                        context.assertEquals(7L, counters.droppedCount());
+                        context.assertEquals(2L, counters.failedFlushCount());
+                        counterClient.close();
+                        jpaClient.rxFind("counters", key).subscribe(found -> {
+                           context.assertEquals(5L, found.getRows().get(0).getLong("VIEWS"));
+                           async.complete();
+                        }, context::fail);
+                     });
+                  });
+               }, context::fail);
+   }
+
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.actions;
+
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAStringShape;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Checks on a corpus of valid values, their single char mutations and random strings that the single pass
+ * classifier recognizes the same strings the regex used before did.
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class StringShapeTest
+{
+
+   private static final Pattern DATETIME = Pattern.compile("^\\d{4}-(?:0[0-9]|1[0-2])-[0-9]{2}T\\d{2}:\\d{2}:\\d{2}(\\.\\d{3,9})?Z$");
+   private static final Pattern DATE = Pattern.compile("^\\d{4}-(?:0[0-9]|1[0-2])-[0-9]{2}$");
+   private static final Pattern TIME = Pattern.compile("^\\d{2}:\\d{2}:\\d{2}$");
+   private static final Pattern UUID = Pattern.compile("^[a-fA-F0-9]{8}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{12}$");
+
+   private static final String[] VALID = {
+            "10:15:30", "00:00:00", "99:99:99",
+            "2017-11-02", "2017-00-31", "2017-12-99", "0000-10-01",
+            "2017-11-02T10:15:30Z", "2017-11-02T10:15:30.123Z", "2017-11-02T10:15:30.123456Z",
+            "2017-11-02T10:15:30.123456789Z",
+            "123e4567-e89b-12d3-a456-426655440000", "123E4567-E89B-12D3-A456-426655440000"
+   };
+
+   private static final char[] MUTATIONS = { '0', '1', '2', '3', '9', 'a', 'f', 'F', 'g', 'G', '-', ':', 'T', 'Z', '.',
+            ' ', '\n', '\u0661', '/' };
+
+   @Test
+   public void sameShapesAsRegex()
+   {
+      List<String> corpus = corpus();
+      int recognized = 0;
+      for (String value : corpus)
+      {
+         JPAStringShape expected = regex(value);
+         Assert.assertEquals("value: [" + value + "]", expected, JPAStringShape.classify(value));
+         if (expected != JPAStringShape.TEXT)
+         {
+            recognized++;
+         }
+      }
+      Assert.assertTrue(corpus.size() > 10000);
+      Assert.assertTrue(recognized > 100);
+   }
+
+   private static JPAStringShape regex(String value)
+   {
+      if (TIME.matcher(value).matches())
+      {
+         return JPAStringShape.TIME;
+      }
+      if (DATE.matcher(value).matches())
+      {
+         return JPAStringShape.DATE;
+      }
+      if (DATETIME.matcher(value).matches())
+      {
+         return JPAStringShape.DATETIME;
+      }
+      if (UUID.matcher(value).matches())
+      {
+         return JPAStringShape.UUID;
+      }
+      return JPAStringShape.TEXT;
+   }
+
+   private static List<String> corpus()
+   {
+      List<String> corpus = new ArrayList<>();
+      corpus.add("");
+      for (String valid : VALID)
+      {
+         corpus.add(valid);
+         corpus.add(valid + "\n");
+         corpus.add(" " + valid);
+         corpus.add(valid + "Z");
+         corpus.add(valid.toLowerCase());
+         for (int i = 0; i < valid.length(); i++)
+         {
+            // removed, duplicated and replaced chars
+            corpus.add(valid.substring(0, i) + valid.substring(i + 1));
+            corpus.add(valid.substring(0, i) + valid.charAt(i) + valid.substring(i));
+            for (char c : MUTATIONS)
+            {
+               corpus.add(valid.substring(0, i) + c + valid.substring(i + 1));
+            }
+         }
+      }
+      // fraction digits from 0 to 12
+      StringBuilder fraction = new StringBuilder("2017-11-02T10:15:30.");
+      for (int i = 0; i <= 12; i++)
+      {
+         corpus.add(fraction + "Z");
+         fraction.append(i % 10);
+      }
+      Random random = new Random(42);
+      char[] chars = "0123456789abcdefABCDEFxT:-.Z ".toCharArray();
+      for (int i = 0; i < 20000; i++)
+      {
+         char[] value = new char[random.nextInt(40)];
+         for (int j = 0; j < value.length; j++)
+         {
+            value[j] = chars[random.nextInt(chars.length)];
+         }
+         corpus.add(new String(value));
+      }
+      return corpus;
+   }
+}
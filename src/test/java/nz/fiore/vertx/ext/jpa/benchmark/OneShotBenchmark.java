@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.benchmark;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.ResultSet;
+import nz.fiore.vertx.ext.jpa.JPAClient;
+import nz.fiore.vertx.ext.jpa.sql.JPAConnection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares, on HSQLDB, the latency of a find by key run on a JPAConnection (to the acquisition thread, back to the
+ * context, to a worker for the statement, back, to a worker for the close, back: six thread hops) and of the
+ * one-shot find of the client, run on a worker as soon as the connection is obtained (to the acquisition thread,
+ * to a worker and back: three hops). The finds are run one after the other, so each one pays all its hops, and then
+ * 32 at a time.
+ * <p>
+ * It's not a unit test, run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=nz.fiore.vertx.ext.jpa.benchmark.OneShotBenchmark -Dexec.args="20000"
+ * </pre>
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class OneShotBenchmark
+{
+
+  private static final String TABLE = "whiskies";
+  private static final String CREATE_TABLE_QUERY = "create table " + TABLE
+    + " (uuid varchar(255) primary key, name varchar(255), collection_name varchar(255))";
+  private static final int KEYS = 1000;
+  private static final int CONCURRENCY = 32;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws Exception
+  {
+    int finds = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    Vertx vertx = Vertx.vertx();
+    JPAClient client = JPAClient.createNonShared(vertx, new JsonObject()
+      .put("url", "jdbc:hsqldb:mem:" + UUID.randomUUID() + "?shutdown=true")
+      .put("driver_class", "org.hsqldb.jdbcDriver")
+      .put("max_pool_size", 8));
+    try
+    {
+      List<JsonObject> keys = fill(client);
+      for (int round = 0; round < ROUNDS; round++)
+      {
+        String prefix = round < 2 ? "warm up " : "";
+        report(prefix + "connection find, sequential: ", finds, run(vertx, client, keys, finds, 1, false));
+        report(prefix + "one-shot find,   sequential: ", finds, run(vertx, client, keys, finds, 1, true));
+        report(prefix + "connection find, " + CONCURRENCY + " at a time: ", finds,
+          run(vertx, client, keys, finds, CONCURRENCY, false));
+        report(prefix + "one-shot find,   " + CONCURRENCY + " at a time: ", finds,
+          run(vertx, client, keys, finds, CONCURRENCY, true));
+      }
+    }
+    finally
+    {
+      client.close();
+      vertx.close();
+    }
+  }
+
+  private static List<JsonObject> fill(JPAClient client)
+  {
+    client.rxCreate(CREATE_TABLE_QUERY).blockingGet();
+    List<JsonObject> rows = new ArrayList<>();
+    List<JsonObject> keys = new ArrayList<>();
+    for (int i = 0; i < KEYS; i++)
+    {
+      String uuid = UUID.randomUUID().toString();
+      rows.add(new JsonObject().put("uuid", uuid).put("name", "whisky " + i).put("collection_name", "bench"));
+      keys.add(new JsonObject().put("uuid", uuid));
+    }
+    client.rxPersistBatch(TABLE, rows).blockingGet();
+    return keys;
+  }
+
+  /*
+  each of the concurrent chains starts the next find from the handler of the previous one, on the event loop
+   */
+  private static long run(Vertx vertx, JPAClient client, List<JsonObject> keys, int finds, int concurrency,
+    boolean direct) throws Exception
+  {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    AtomicInteger started = new AtomicInteger();
+    AtomicInteger completed = new AtomicInteger();
+    long start = System.nanoTime();
+    vertx.runOnContext(v -> {
+      for (int i = 0; i < concurrency; i++)
+      {
+        next(client, keys, finds, direct, started, completed, done);
+      }
+    });
+    done.get();
+    return System.nanoTime() - start;
+  }
+
+  private static void next(JPAClient client, List<JsonObject> keys, int finds, boolean direct,
+    AtomicInteger started, AtomicInteger completed, CompletableFuture<Void> done)
+  {
+    int i = started.getAndIncrement();
+    if (i >= finds)
+    {
+      return;
+    }
+    Handler<AsyncResult<ResultSet>> handler = ar -> {
+      if (ar.failed() || ar.result().getNumRows() != 1)
+      {
+        done.completeExceptionally(ar.failed() ? ar.cause() : new IllegalStateException("not found"));
+        return;
+      }
+      if (completed.incrementAndGet() == finds)
+      {
+        done.complete(null);
+      }
+      else
+      {
+        next(client, keys, finds, direct, started, completed, done);
+      }
+    };
+    JsonObject key = keys.get(i % keys.size());
+    if (direct)
+    {
+      client.find(TABLE, key, handler);
+    }
+    else
+    {
+      connectionFind(client, key, handler);
+    }
+  }
+
+  /*
+  what the one-shot find did before the direct path
+   */
+  private static void connectionFind(JPAClient client, JsonObject key, Handler<AsyncResult<ResultSet>> handler)
+  {
+    client.getJPAConnection(ar -> {
+      if (ar.failed())
+      {
+        handler.handle(Future.failedFuture(ar.cause()));
+        return;
+      }
+      JPAConnection conn = ar.result();
+      conn.find(TABLE, key, find -> conn.close(close -> handler.handle(find)));
+    });
+  }
+
+  private static void report(String name, int finds, long nanos)
+  {
+    System.out.println(name + nanos / 1000 / finds + " us per find, " + finds * 1000000000L / nanos + " finds/s");
+  }
+}
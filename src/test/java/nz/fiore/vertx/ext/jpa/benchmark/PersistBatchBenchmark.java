@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.benchmark;
+
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import nz.fiore.vertx.ext.jpa.JPAClient;
+import nz.fiore.vertx.ext.jpa.sql.JPAConnection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compares, on HSQLDB, the insert of the same rows with one persist for each row, with persistBatch sent as JDBC
+ * batches and with persistBatch sent as multi row inserts.
+ * <p>
+ * It's not a unit test, run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=nz.fiore.vertx.ext.jpa.benchmark.PersistBatchBenchmark -Dexec.args="100000"
+ * </pre>
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class PersistBatchBenchmark
+{
+
+  private static final String TABLE = "whiskies";
+  private static final String CREATE_TABLE_QUERY = "create table IF NOT EXISTS " + TABLE
+    + " (uuid varchar(255), name varchar(255), collection_name varchar(255), amount decimal(19,4) )";
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args)
+  {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+    Vertx vertx = Vertx.vertx();
+    try
+    {
+      List<JsonObject> data = rows(rows);
+      for (int round = 0; round < ROUNDS; round++)
+      {
+        // the first rounds are the warm up
+        String prefix = round < 2 ? "warm up " : "";
+        System.out.println(prefix + "one persist for row: " + run(vertx, "row", data) + " ms");
+        System.out.println(prefix + "jdbc batch:          " + run(vertx, "batch", data) + " ms");
+        System.out.println(prefix + "multi row values:    " + run(vertx, "values", data) + " ms");
+      }
+    }
+    finally
+    {
+      vertx.close();
+    }
+  }
+
+  private static long run(Vertx vertx, String mode, List<JsonObject> data)
+  {
+    JsonObject config = new JsonObject()
+      .put("url", "jdbc:hsqldb:mem:" + UUID.randomUUID().toString() + "?shutdown=true")
+      .put("driver_class", "org.hsqldb.jdbcDriver")
+      .put("max_pool_size", 4)
+      .put("persist_batch_mode", "row".equals(mode) ? "batch" : mode);
+    JPAClient client = JPAClient.createNonShared(vertx, config);
+    try
+    {
+      client.rxCreate(CREATE_TABLE_QUERY).blockingGet();
+      long start = System.nanoTime();
+      if ("row".equals(mode))
+      {
+        client.rxGetConnection().flatMap(conn -> persistAll(conn, data).doAfterTerminate(conn::close))
+          .blockingGet();
+      }
+      else
+      {
+        client.rxPersistBatch(TABLE, data).blockingGet();
+      }
+      return (System.nanoTime() - start) / 1000000;
+    }
+    finally
+    {
+      client.close();
+    }
+  }
+
+  private static Single<Long> persistAll(JPAConnection conn, List<JsonObject> data)
+  {
+    return Flowable.fromIterable(data)
+      .concatMap(row -> conn.rxPersist(TABLE, row).toFlowable(), 1)
+      .count();
+  }
+
+  private static List<JsonObject> rows(int rows)
+  {
+    List<JsonObject> data = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++)
+    {
+      data.add(new JsonObject()
+        .put("uuid", UUID.randomUUID().toString())
+        .put("name", "whisky " + i)
+        .put("collection_name", "collection " + (i % 10))
+        .put("amount", i));
+    }
+    return data;
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.benchmark;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import nz.fiore.vertx.ext.jpa.JPAClient;
+import nz.fiore.vertx.ext.jpa.impl.JPAClientImpl;
+import nz.fiore.vertx.ext.jpa.impl.JPAPersistBatcher;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offers 10000 single row persists per second, 10 every millisecond from the event loop, to an HSQLDB file database
+ * that syncs each commit (<code>hsqldb.write_delay=false</code>), with and without <code>persist_batching</code>:
+ * without it each persist borrows a connection and commits on its own, with it the persists of a window are one
+ * batch and one commit. Reports the inserts/s completed, the latency of the persists and the commits.
+ * <p>
+ * It's not a unit test, run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=nz.fiore.vertx.ext.jpa.benchmark.PersistMicroBatchBenchmark -Dexec.args="5"
+ * </pre>
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class PersistMicroBatchBenchmark
+{
+
+  private static final String TABLE = "whiskies";
+  private static final String CREATE_TABLE_QUERY = "create table " + TABLE
+    + " (uuid varchar(255) primary key, name varchar(255), collection_name varchar(255))";
+  private static final int PER_TICK = 10;
+  private static final int ROUNDS = 3;
+
+  public static void main(String[] args) throws Exception
+  {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    Vertx vertx = Vertx.vertx();
+    Path dir = Files.createTempDirectory("vertx-jpa-bench");
+    try
+    {
+      for (int round = 0; round < ROUNDS; round++)
+      {
+        String prefix = round == 0 ? "warm up " : "";
+        run(vertx, dir, prefix + "one commit per persist: ", seconds, false);
+        run(vertx, dir, prefix + "persist_batching:       ", seconds, true);
+      }
+    }
+    finally
+    {
+      vertx.close();
+    }
+  }
+
+  private static void run(Vertx vertx, Path dir, String name, int seconds, boolean batching) throws Exception
+  {
+    JsonObject config = new JsonObject()
+      .put("url", "jdbc:hsqldb:file:" + dir.resolve(UUID.randomUUID().toString())
+        + ";hsqldb.write_delay=false;shutdown=true")
+      .put("driver_class", "org.hsqldb.jdbcDriver")
+      .put("max_pool_size", 8);
+    if (batching)
+    {
+      config.put("persist_batching", new JsonArray().add(TABLE))
+        .put("persist_batching_window", 2)
+        .put("persist_batching_max_size", 200);
+    }
+    JPAClient client = JPAClient.createNonShared(vertx, config);
+    try
+    {
+      client.rxCreate(CREATE_TABLE_QUERY).blockingGet();
+      int persists = seconds * 1000 * PER_TICK;
+      long[] latencies = new long[persists];
+      AtomicInteger started = new AtomicInteger();
+      AtomicInteger completed = new AtomicInteger();
+      AtomicInteger failed = new AtomicInteger();
+      CompletableFuture<Void> done = new CompletableFuture<>();
+      long start = System.nanoTime();
+      vertx.setPeriodic(1, id -> {
+        for (int t = 0; t < PER_TICK; t++)
+        {
+          int i = started.getAndIncrement();
+          if (i >= persists)
+          {
+            vertx.cancelTimer(id);
+            return;
+          }
+          long sent = System.nanoTime();
+          JsonObject row = new JsonObject().put("uuid", UUID.randomUUID().toString()).put("name", "whisky " + i)
+            .put("collection_name", "bench");
+          client.persist(TABLE, row, ar -> {
+            latencies[i] = System.nanoTime() - sent;
+            if (ar.failed())
+            {
+              failed.incrementAndGet();
+            }
+            if (completed.incrementAndGet() == persists)
+            {
+              done.complete(null);
+            }
+          });
+        }
+      });
+      done.get();
+      long nanos = System.nanoTime() - start;
+      Arrays.sort(latencies);
+      JPAPersistBatcher batcher = ((JPAClientImpl) client).persistBatcher();
+      long commits = batcher == null ? persists - failed.get() : batcher.batchCount();
+      System.out.println(name + persists * 1000000000L / nanos + " inserts/s, latency mean "
+        + Arrays.stream(latencies).sum() / persists / 1000 + " us, p99 " + latencies[persists * 99 / 100] / 1000
+        + " us, " + commits + " commits, " + failed.get() + " failed");
+    }
+    finally
+    {
+      client.close();
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.benchmark;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.spi.DataSourceProvider;
+import io.vertx.ext.jdbc.spi.impl.C3P0DataSourceProvider;
+import nz.fiore.vertx.ext.jpa.impl.pool.JPADataSourceProvider;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares, on HSQLDB, the borrow and return of a connection with the C3P0 pool and with the native pool, at 1, 8
+ * and 64 concurrent borrowers on a pool of 16 connections. Each borrow only reads the auto commit of the
+ * connection, so the pool itself is measured.
+ * <p>
+ * It's not a unit test, run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=nz.fiore.vertx.ext.jpa.benchmark.PoolContentionBenchmark -Dexec.args="2000"
+ * </pre>
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class PoolContentionBenchmark
+{
+
+  private static final int[] BORROWERS = { 1, 8, 64 };
+  private static final int POOL_SIZE = 16;
+  private static final int ROUNDS = 3;
+
+  public static void main(String[] args) throws Exception
+  {
+    long millis = args.length > 0 ? Long.parseLong(args[0]) : 2000L;
+    for (int round = 0; round < ROUNDS; round++)
+    {
+      String prefix = round == 0 ? "warm up " : "";
+      for (int borrowers : BORROWERS)
+      {
+        report(prefix + "c3p0   ", borrowers, run(new C3P0DataSourceProvider(), borrowers, millis), millis);
+        report(prefix + "native ", borrowers, run(new JPADataSourceProvider(), borrowers, millis), millis);
+      }
+    }
+  }
+
+  private static long run(DataSourceProvider provider, int borrowers, long millis) throws Exception
+  {
+    JsonObject config = new JsonObject()
+      .put("url", "jdbc:hsqldb:mem:" + UUID.randomUUID() + "?shutdown=true")
+      .put("driver_class", "org.hsqldb.jdbcDriver")
+      .put("max_pool_size", POOL_SIZE)
+      .put("min_pool_size", POOL_SIZE)
+      .put("initial_pool_size", POOL_SIZE);
+    DataSource ds = provider.getDataSource(config);
+    try
+    {
+      LongAdder borrows = new LongAdder();
+      CountDownLatch done = new CountDownLatch(borrowers);
+      long end = System.nanoTime() + millis * 1000000L;
+      for (int i = 0; i < borrowers; i++)
+      {
+        new Thread(() -> {
+          try
+          {
+            long count = 0;
+            while (System.nanoTime() < end)
+            {
+              try (Connection conn = ds.getConnection())
+              {
+                if (conn.getAutoCommit())
+                {
+                  count++;
+                }
+              }
+            }
+            borrows.add(count);
+          }
+          catch (Exception e)
+          {
+            e.printStackTrace();
+          }
+          finally
+          {
+            done.countDown();
+          }
+        }, "borrower-" + i).start();
+      }
+      done.await();
+      return borrows.sum();
+    }
+    finally
+    {
+      provider.close(ds);
+    }
+  }
+
+  private static void report(String name, int borrowers, long borrows, long millis)
+  {
+    System.out.println(name + borrowers + " borrowers: " + borrows * 1000 / millis + " borrows/s, "
+      + (borrows == 0 ? 0 : millis * 1000000L * borrowers / borrows) + " ns per borrow");
+  }
+}
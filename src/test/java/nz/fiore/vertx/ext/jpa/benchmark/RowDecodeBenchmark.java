@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.benchmark;
+
+import io.vertx.core.json.JsonArray;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPARowDecoder;
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAStatementHelper;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Compares, on HSQLDB, the decode of the same rows with the conversion of each <code>getObject</code> value and
+ * with the converters of the columns built from the result metadata. Plain JDBC, so only the decode loop is
+ * measured.
+ * <p>
+ * It's not a unit test, run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=nz.fiore.vertx.ext.jpa.benchmark.RowDecodeBenchmark -Dexec.args="200000"
+ * </pre>
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class RowDecodeBenchmark
+{
+
+  private static final String TABLE = "decode";
+  private static final String CREATE_TABLE_QUERY = "create table " + TABLE
+    + " (id integer, big bigint, name varchar(255), amount decimal(19,4), ratio double, moment timestamp, day date)";
+  private static final String SELECT_QUERY = "select * from " + TABLE;
+  private static final int ROUNDS = 10;
+  private static final int WARM_UP_ROUNDS = 4;
+
+  public static void main(String[] args) throws SQLException
+  {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    try (Connection conn = DriverManager.getConnection("jdbc:hsqldb:mem:" + UUID.randomUUID() + "?shutdown=true"))
+    {
+      fill(conn, rows);
+      for (int round = 0; round < ROUNDS; round++)
+      {
+        String prefix = round < WARM_UP_ROUNDS ? "warm up " : "";
+        long generic = run(conn, false);
+        long decoder = run(conn, true);
+        System.out.println(prefix + "getObject + convertSqlValue: " + generic / 1000000 + " ms, "
+          + rows * 1000000000L / generic + " rows/s");
+        System.out.println(prefix + "column converters:           " + decoder / 1000000 + " ms, "
+          + rows * 1000000000L / decoder + " rows/s");
+      }
+    }
+  }
+
+  private static long run(Connection conn, boolean decoder) throws SQLException
+  {
+    long checksum = 0;
+    long start = System.nanoTime();
+    try (Statement statement = conn.createStatement(); ResultSet rs = statement.executeQuery(SELECT_QUERY))
+    {
+      int cols = rs.getMetaData().getColumnCount();
+      JPARowDecoder rowDecoder = decoder ? JPARowDecoder.of(rs.getMetaData()) : null;
+      while (rs.next())
+      {
+        JsonArray row;
+        if (decoder)
+        {
+          row = rowDecoder.decode(rs);
+        }
+        else
+        {
+          row = new JsonArray();
+          for (int i = 1; i <= cols; i++)
+          {
+            Object res = JPAStatementHelper.convertSqlValue(rs.getObject(i));
+            if (res != null)
+            {
+              row.add(res);
+            }
+            else
+            {
+              row.addNull();
+            }
+          }
+        }
+        checksum += row.size();
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    if (checksum == 0)
+    {
+      throw new IllegalStateException("no rows");
+    }
+    return elapsed;
+  }
+
+  private static void fill(Connection conn, int rows) throws SQLException
+  {
+    try (Statement statement = conn.createStatement())
+    {
+      statement.execute(CREATE_TABLE_QUERY);
+    }
+    try (PreparedStatement statement = conn.prepareStatement("insert into " + TABLE + " values (?,?,?,?,?,?,?)"))
+    {
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < rows; i++)
+      {
+        statement.setInt(1, i);
+        statement.setLong(2, i * 1000L);
+        statement.setString(3, "whisky " + i);
+        statement.setBigDecimal(4, java.math.BigDecimal.valueOf(i, 2));
+        statement.setDouble(5, i / 3d);
+        statement.setTimestamp(6, new Timestamp(now - i * 1000L));
+        statement.setDate(7, new java.sql.Date(now - (i % 3650) * 86400000L));
+        statement.addBatch();
+        if (i % 1000 == 999)
+        {
+          statement.executeBatch();
+        }
+      }
+      if (rows % 1000 != 0)
+      {
+        statement.executeBatch();
+      }
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.benchmark;
+
+import nz.fiore.vertx.ext.jpa.impl.actions.JPAStringShape;
+
+import java.util.regex.Pattern;
+
+/**
+ * Compares the classification of string parameters with the regex cascade used before (up to four
+ * <code>matcher().matches()</code> for each value) and with the single pass classifier, on a mix of plain texts,
+ * uuids, dates and timestamps.
+ * <p>
+ * It's not a unit test, run it with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=nz.fiore.vertx.ext.jpa.benchmark.StringShapeBenchmark -Dexec.args="5000000"
+ * </pre>
+ *
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class StringShapeBenchmark
+{
+
+  private static final Pattern DATETIME = Pattern.compile("^\\d{4}-(?:0[0-9]|1[0-2])-[0-9]{2}T\\d{2}:\\d{2}:\\d{2}(\\.\\d{3,9})?Z$");
+  private static final Pattern DATE = Pattern.compile("^\\d{4}-(?:0[0-9]|1[0-2])-[0-9]{2}$");
+  private static final Pattern TIME = Pattern.compile("^\\d{2}:\\d{2}:\\d{2}$");
+  private static final Pattern UUID = Pattern.compile("^[a-fA-F0-9]{8}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{12}$");
+
+  private static final String[] VALUES = {
+    "Ardbeg", "Lagavulin 16", "Islay", "Speyside single malt", "10:15:30", "2017-11-02", "2017-11-02T10:15:30Z",
+    "2017-11-02T10:15:30.123Z", "123e4567-e89b-12d3-a456-426655440000", "a text of thirty six chars, no uuid!!"
+  };
+  private static final int ROUNDS = 10;
+  private static final int WARM_UP_ROUNDS = 4;
+  private static volatile int sink;
+
+  public static void main(String[] args)
+  {
+    int operations = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+    for (int round = 0; round < ROUNDS; round++)
+    {
+      String prefix = round < WARM_UP_ROUNDS ? "warm up " : "";
+      long regex = run(operations, false);
+      long scanner = run(operations, true);
+      System.out.println(prefix + "regex cascade:      " + regex / 1000000 + " ms, "
+        + operations * 1000L / Math.max(1, regex / 1000) + " ops/ms");
+      System.out.println(prefix + "single pass shape:  " + scanner / 1000000 + " ms, "
+        + operations * 1000L / Math.max(1, scanner / 1000) + " ops/ms");
+    }
+  }
+
+  private static long run(int operations, boolean scanner)
+  {
+    int recognized = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < operations; i++)
+    {
+      String value = VALUES[i % VALUES.length];
+      JPAStringShape shape = scanner ? JPAStringShape.classify(value) : regex(value);
+      if (shape != JPAStringShape.TEXT)
+      {
+        recognized++;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    // keeps the loop alive
+    sink += recognized;
+    return elapsed;
+  }
+
+  private static JPAStringShape regex(String value)
+  {
+    if (TIME.matcher(value).matches())
+    {
+      return JPAStringShape.TIME;
+    }
+    if (DATE.matcher(value).matches())
+    {
+      return JPAStringShape.DATE;
+    }
+    if (DATETIME.matcher(value).matches())
+    {
+      return JPAStringShape.DATETIME;
+    }
+    if (UUID.matcher(value).matches())
+    {
+      return JPAStringShape.UUID;
+    }
+    return JPAStringShape.TEXT;
+  }
+}
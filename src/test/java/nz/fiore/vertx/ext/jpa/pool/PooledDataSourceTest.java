@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2011-2014 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+package nz.fiore.vertx.ext.jpa.pool;
+
+import io.reactivex.Flowable;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.ResultSet;
+import nz.fiore.vertx.ext.jpa.JPAClient;
+import nz.fiore.vertx.ext.jpa.impl.JPAClientImpl;
+import nz.fiore.vertx.ext.jpa.impl.JPAPoolSizer;
+import nz.fiore.vertx.ext.jpa.impl.pool.JPAPooledDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author <a href="mailto:fiorenzo.pizza@gmail.com">Fiorenzo Pizza</a>
+ */
+public class PooledDataSourceTest
+{
+
+   private static JsonObject config()
+   {
+      return new JsonObject()
+               .put("url", "jdbc:hsqldb:mem:" + UUID.randomUUID() + "?shutdown=true")
+               .put("driver_class", "org.hsqldb.jdbcDriver")
+               .put("checkout_timeout", 200);
+   }
+
+   @Test
+   public void minAndMaxSize() throws Exception
+   {
+      try (JPAPooledDataSource ds = new JPAPooledDataSource(config()
+               .put("min_pool_size", 2)
+               .put("max_pool_size", 3)))
+      {
+         Assert.assertEquals(2, ds.totalConnections());
+         Assert.assertEquals(2, ds.idleConnections());
+         Connection c1 = ds.getConnection();
+         Connection c2 = ds.getConnection();
+         Connection c3 = ds.getConnection();
+         Assert.assertEquals(3, ds.totalConnections());
+         Assert.assertEquals(3, ds.activeConnections());
+         try
+         {
+            ds.getConnection();
+            Assert.fail("the pool is exhausted");
+         }
+         catch (SQLTransientConnectionException e)
+         {
+            Assert.assertEquals(1, ds.timeoutCount());
+         }
+         c3.close();
+         // closing twice does not return it twice
+         c3.close();
+         Assert.assertTrue(c3.isClosed());
+         Connection c4 = ds.getConnection();
+         // the returned connection is reused
+         Assert.assertEquals(3, ds.createdCount());
+         c1.close();
+         c2.close();
+         c4.close();
+         Assert.assertEquals(3, ds.idleConnections());
+         Assert.assertEquals(3, ds.createdCount());
+      }
+   }
+
+   @Test
+   public void handoffToWaitingBorrower() throws Exception
+   {
+      try (JPAPooledDataSource ds = new JPAPooledDataSource(config()
+               .put("max_pool_size", 1)
+               .put("checkout_timeout", 5000)))
+      {
+         Connection held = ds.getConnection();
+         CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+            try
+            {
+               return ds.getConnection();
+            }
+            catch (Exception e)
+            {
+               throw new RuntimeException(e);
+            }
+         });
+         long deadline = System.currentTimeMillis() + 5000;
+         while (ds.waitingBorrowers() == 0 && System.currentTimeMillis() < deadline)
+         {
+            Thread.sleep(5);
+         }
+         Assert.assertEquals(1, ds.waitingBorrowers());
+         held.close();
+         Connection taken = waiting.get(5, TimeUnit.SECONDS);
+         Assert.assertFalse(taken.isClosed());
+         taken.close();
+         Assert.assertEquals(1, ds.createdCount());
+      }
+   }
+
+   @Test
+   public void restoresDefaultsOnReturn() throws Exception
+   {
+      try (JPAPooledDataSource ds = new JPAPooledDataSource(config().put("max_pool_size", 1)))
+      {
+         String schema;
+         try (Connection conn = ds.getConnection(); Statement statement = conn.createStatement())
+         {
+            statement.execute("create table pooled (id integer)");
+            statement.execute("create schema pooled_other");
+            schema = conn.getSchema();
+         }
+         Statement leaked;
+         try (Connection conn = ds.getConnection(); Statement statement = conn.createStatement())
+         {
+            conn.setAutoCommit(false);
+            statement.execute("insert into pooled values (1)");
+            conn.setSchema("POOLED_OTHER");
+            leaked = conn.createStatement();
+            // returned without commit, in another schema and with a statement open
+         }
+         Assert.assertTrue(leaked.isClosed());
+         try (Connection conn = ds.getConnection(); Statement statement = conn.createStatement())
+         {
+            Assert.assertTrue(conn.getAutoCommit());
+            Assert.assertEquals(schema, conn.getSchema());
+            java.sql.ResultSet rs = statement.executeQuery("select count(*) from pooled");
+            rs.next();
+            Assert.assertEquals(0, rs.getInt(1));
+         }
+         Assert.assertEquals(1, ds.createdCount());
+      }
+   }
+
+   @Test
+   public void idleEvictionAndLifetime() throws Exception
+   {
+      try (JPAPooledDataSource ds = new JPAPooledDataSource(config()
+               .put("min_pool_size", 1)
+               .put("max_pool_size", 3)
+               .put("max_idle_time", 1)))
+      {
+         Connection c1 = ds.getConnection();
+         Connection c2 = ds.getConnection();
+         Connection c3 = ds.getConnection();
+         c1.close();
+         c2.close();
+         c3.close();
+         Assert.assertEquals(3, ds.totalConnections());
+         Thread.sleep(1100);
+         ds.housekeep();
+         // the idle connections above the minimum are closed
+         Assert.assertEquals(1, ds.totalConnections());
+         Assert.assertEquals(2, ds.retiredCount());
+      }
+      try (JPAPooledDataSource ds = new JPAPooledDataSource(config()
+               .put("min_pool_size", 1)
+               .put("max_lifetime", 1)))
+      {
+         Connection held = ds.getConnection();
+         Thread.sleep(1100);
+         held.close();
+         // returned past its lifetime, closed and replaced
+         Assert.assertEquals(0, ds.totalConnections());
+         ds.housekeep();
+         Assert.assertEquals(1, ds.totalConnections());
+         Assert.assertEquals(2, ds.createdCount());
+      }
+   }
+
+   @Test
+   public void nativeProvider()
+   {
+      Vertx vertx = Vertx.vertx();
+      JPAClient client = JPAClient.createNonShared(vertx, config()
+               .put("provider_class", JPAClient.NATIVE_PROVIDER_CLASS)
+               .put("min_pool_size", 2));
+      try
+      {
+         ResultSet resultSet = client.rxCreate("create table native (id integer, name varchar(255))")
+                  .flatMap(created -> client.rxQuery("select count(*) as NUM from native where name = :NAME",
+                           new JsonObject().put("NAME", "none")))
+                  .blockingGet();
+         Assert.assertEquals(0L, resultSet.getRows().get(0).getLong("NUM").longValue());
+         JPAPooledDataSource ds = (JPAPooledDataSource) ((JPAClientImpl) client).dataSource();
+         Assert.assertTrue(ds.totalConnections() >= 2);
+         Assert.assertEquals(0, ds.activeConnections());
+      }
+      finally
+      {
+         client.close();
+         vertx.close();
+      }
+   }
+
+   private static final AtomicInteger running = new AtomicInteger();
+
+   /**
+    * A statement of a database that slows down with the concurrent statements: it sleeps ms times the square of
+    * the running ones. Called by HSQLDB as the function SLOW.
+    */
+   public static int slow(int ms) throws InterruptedException
+   {
+      int concurrent = running.incrementAndGet();
+      try
+      {
+         Thread.sleep((long) ms * concurrent * concurrent);
+         return concurrent;
+      }
+      finally
+      {
+         running.decrementAndGet();
+      }
+   }
+
+   private static void workload(JPAClient client, int statements)
+   {
+      Flowable.range(0, statements)
+               .flatMapSingle(i -> client.rxQuery("select slow(:MS) as NUM from (values(0))",
+                        new JsonObject().put("MS", 5)), false, statements)
+               .blockingLast();
+   }
+
+   @Test
+   public void adaptiveSizing()
+   {
+      Vertx vertx = Vertx.vertx();
+      JPAClient client = JPAClient.createNonShared(vertx, config()
+               .put("provider_class", JPAClient.NATIVE_PROVIDER_CLASS)
+               .put("checkout_timeout", 10000)
+               .put("min_pool_size", 1)
+               .put("initial_pool_size", 2)
+               .put("max_pool_size", 16)
+               .put("adaptive_pool_sizing", true)
+               // evaluated by the test
+               .put("adaptive_period", 3600000L)
+               .put("adaptive_wait_high", 20d)
+               .put("adaptive_latency_tolerance", 1.3d)
+               .put("adaptive_stable_windows", 2));
+      try
+      {
+         JPAPoolSizer sizer = ((JPAClientImpl) client).poolSizer();
+         Assert.assertEquals(2, sizer.size());
+         client.rxCreate("create function slow(ms integer) returns integer language java deterministic no sql "
+                  + "external name 'CLASSPATH:" + PooledDataSourceTest.class.getName() + ".slow'").blockingGet();
+         workload(client, 2);
+         sizer.evaluate();
+
+         // the statements queue for the 2 connections
+         workload(client, 16);
+         JPAPoolSizer.Decision grow = sizer.evaluate();
+         Assert.assertEquals(grow.toString(), JPAPoolSizer.Action.GROW, grow.action());
+         Assert.assertEquals("acquire wait", grow.reason());
+         Assert.assertEquals(3, sizer.size());
+
+         // with one more connection each statement is much slower
+         workload(client, 16);
+         JPAPoolSizer.Decision shrink = sizer.evaluate();
+         Assert.assertEquals(shrink.toString(), JPAPoolSizer.Action.SHRINK, shrink.action());
+         Assert.assertEquals("statement latency", shrink.reason());
+         Assert.assertEquals(2, sizer.size());
+
+         // no load: the first idle period holds, the second shrinks
+         Assert.assertEquals(JPAPoolSizer.Action.HOLD, sizer.evaluate().action());
+         JPAPoolSizer.Decision idle = sizer.evaluate();
+         Assert.assertEquals(idle.toString(), JPAPoolSizer.Action.SHRINK, idle.action());
+         Assert.assertEquals("idle", idle.reason());
+         Assert.assertEquals(1, sizer.size());
+         Assert.assertEquals(1, sizer.growCount());
+         Assert.assertEquals(2, sizer.shrinkCount());
+      }
+      finally
+      {
+         client.close();
+         vertx.close();
+      }
+   }
+}